@@ -4,7 +4,10 @@ import recogniser.hypothesis.AllFalseGoal;
 import recogniser.hypothesis.BoundedGoalHypothesis;
 import recogniser.hypothesis.ConjunctiveGoalHypothesis;
 import recogniser.hypothesis.IGoalHypothesis;
+import recogniser.hypothesis.GoalRanking;
+import recogniser.hypothesis.GoalSpaceSnapshot;
 import recogniser.hypothesis.IGoalSpace;
+import recogniser.hypothesis.IndependentGoalSpace;
 import recogniser.hypothesis.MutexGoalSpace;
 import recogniser.hypothesis.VariableGoalSpace;
 import recogniser.learning.CausalGraphAnalyser;
@@ -15,6 +18,10 @@ import recogniser.learning.PredicatePartitioner;
 import recogniser.learning.agent.IAgent;
 import recogniser.search.IHeuristic;
 import recogniser.search.ThreadedHeuristicManager;
+import recogniser.learning.likelihood.UselessStepAccumulator;
+import recogniser.util.FactDoubleMap;
+import recogniser.util.FactDoubleSeries;
+import recogniser.util.FactIndex;
 import recogniser.util.GoalTieOrderingPreference;
 import recogniser.util.IGRAPHPreferences;
 import recogniser.util.HybridSasPddlProblem;
@@ -64,6 +71,7 @@ import java.io.PrintWriter;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -76,9 +84,12 @@ import java.util.Set;
 import java.util.Map.Entry;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Performs goal recognition by estimating the number of steps which each goal
@@ -109,15 +120,17 @@ public class BayesianGoalRecogniser
 	protected PredicatePartitioner predicatePartitioner;
 	protected IConjunctionGenerator conjunctionGenerator;
 
-	protected HashMap<Fact, List<Double>> prevGoalDistMap;
+	protected FactDoubleSeries prevGoalDistMap;
 	protected HashMap<Action, Double> currentActionDistMap;
 	// 5/5/12 -- commented out because it causes MASSIVE overhead during
 	// observation of
 	// large scale domains. Much more efficient to just use direct lookups as
 	// needed.
 	// protected HashMap<Action, List<Double>> prevActionDistMap;
-	protected HashMap<Fact, Double> usefulDistanceMap, notUsefulDistanceMap,
+	protected FactDoubleMap usefulDistanceMap, notUsefulDistanceMap,
 			totalDistanceMap, goalSupportLengthMap;
+	// running counts of the observed steps which moved each goal nearer, further, or left it at a distance of 0
+	protected FactDoubleMap nearerStepCountMap, furtherStepCountMap, zeroStepCountMap;
 	protected HashMap<Fact, Set<PlanThread>> goalSupportThreadMap;
 	protected List<PlanThread> allPlanThreads; //which plan thread the action at time T was added to
 	
@@ -174,7 +187,18 @@ public class BayesianGoalRecogniser
 	private HashMap<Fact, Double> minimumCgLayers;
 	private int minCGLayer, maxCGLayer;
 	
-	private HashMap<MutexGoalSpace, HashMap<Fact, List<Double>>> historicalBayesianProbabilities;
+	// a snapshot of the goal-space after each observation, with the initial goal-space first
+	private CopyOnWriteArrayList<GoalSpaceSnapshot> goalSpaceHistory;
+	
+	// running counts of useless steps for the AllFalseGoal of each mutex goal-space
+	private HashMap<MutexGoalSpace, UselessStepAccumulator> uselessStepAccumulators;
+	// the index of each action in the plan so far -- replaces List.indexOf(), so holds the first index of duplicates
+	private HashMap<Action, Integer> planActionIndices;
+	// per-observation cache of the thread the last observation was added to, and how many of its steps moved each goal nearer
+	private int threadLikelihoodStep;
+	private PlanThread lastThreadAdded;
+	private FactDoubleMap lastThreadNearerCounts;
+	private int lastThreadStepCount;
 
 	// private Set<MutexGoalSpace> varGoalSpaces; //stored locally because
 	// initialiseGoalSpace needs it.
@@ -214,17 +238,24 @@ public class BayesianGoalRecogniser
 
 		this.setZeroStepsAreHelpful(true);
 
-		this.usefulDistanceMap = new HashMap<Fact, Double>();
-		this.notUsefulDistanceMap = new HashMap<Fact, Double>();
-		this.totalDistanceMap = new HashMap<Fact, Double>();
-		this.goalSupportLengthMap = new HashMap<Fact, Double>();
+		FactIndex factIndex = this.problem.getFactIndex();
+		this.usefulDistanceMap = new FactDoubleMap(factIndex);
+		this.notUsefulDistanceMap = new FactDoubleMap(factIndex);
+		this.totalDistanceMap = new FactDoubleMap(factIndex);
+		this.goalSupportLengthMap = new FactDoubleMap(factIndex);
+		this.nearerStepCountMap = new FactDoubleMap(factIndex);
+		this.furtherStepCountMap = new FactDoubleMap(factIndex);
+		this.zeroStepCountMap = new FactDoubleMap(factIndex);
 		this.goalSupportThreadMap = new HashMap<Fact, Set<PlanThread>>();
 		this.allPlanThreads = new ArrayList<>();
 
 		this.minimumCgLayers = new HashMap<Fact, Double>();
 		this.cvMap = new HashMap<Fact, Double>();
 		
-		this.historicalBayesianProbabilities = new HashMap<MutexGoalSpace, HashMap<Fact,List<Double>>>();
+		this.goalSpaceHistory = new CopyOnWriteArrayList<GoalSpaceSnapshot>();
+		this.uselessStepAccumulators = new HashMap<MutexGoalSpace, UselessStepAccumulator>();
+		this.planActionIndices = new HashMap<Action, Integer>();
+		this.threadLikelihoodStep = -1;
 
 		this.currentActionDistMap = new HashMap<Action, Double>(); // convenient
 																	// lookup
@@ -232,8 +263,8 @@ public class BayesianGoalRecogniser
 																	// iteration
 
 		this.startTime = System.nanoTime();
-		this.history = new StateHistory();
-		this.history.add((STRIPSState) this.initialState.clone(),
+		this.history = new StateHistory(this.problem.getFactIndex());
+		this.history.add(this.initialState,
 				this.getCurrentTimeOffset(), new HashSet<Fact>(),
 				new HashSet<Fact>(),
 				new HashSet<Fact>(this.initialState.getTrueFacts()));
@@ -323,7 +354,7 @@ public class BayesianGoalRecogniser
 		for (Fact p : this.terminalPcs)
 			System.out.println("Intermediate goal: " + p);
 
-		this.prevGoalDistMap = new HashMap<Fact, List<Double>>();
+		this.prevGoalDistMap = new FactDoubleSeries(this.problem.getFactIndex());
 		// this.prevActionDistMap = new HashMap<Action, List<Double>>();
 		this.goalLandmarks = new HashMap<Fact, List<Fact>>();
 
@@ -495,7 +526,15 @@ public class BayesianGoalRecogniser
 				cores);
 
 		// update the heuristic being used
-		this.heuristicManager.updateHeuristic(this.problem, allGoals);
+		try
+		{
+			this.heuristicManager.updateHeuristic(this.problem, allGoals);
+		}
+		catch (Exception e)
+		{
+			throw new RecognitionException("Error in initialising heuristic",
+					e);
+		}
 
 		// initialise goal distances
 		Map<Fact, Double> gdists = null;
@@ -520,9 +559,7 @@ public class BayesianGoalRecogniser
 				}
 			}
 
-			ArrayList<Double> list = new ArrayList<Double>();
-			list.add(gdists.get(g));
-			this.prevGoalDistMap.put(g, list);
+			this.prevGoalDistMap.add(g, gdists.get(g));
 
 			this.usefulDistanceMap.put(g, 0d);
 			this.notUsefulDistanceMap.put(g, 0d);
@@ -606,7 +643,7 @@ public class BayesianGoalRecogniser
 			this.validateGoalSpace(this.goalSpace);
 
 		// now set up normalised weighted probs
-		this.initialHypothesisSpace = (IGoalSpace) this.goalSpace.clone();
+		this.initialHypothesisSpace = this.goalSpaceHistory.get(0);
 		// this.initialHypothesisSpace = this.setWeightedInitialHypothesis();
 		// //have a guess
 
@@ -1329,8 +1366,7 @@ public class BayesianGoalRecogniser
 	 */
 	protected double getCurrentPropDist(Fact p)
 	{
-		List<Double> list = this.prevGoalDistMap.get(p);
-		return list.get(list.size() - 1);
+		return this.prevGoalDistMap.getLast(p);
 	}
 
 	// /**
@@ -1731,6 +1767,11 @@ public class BayesianGoalRecogniser
 			}
 			return;
 		}
+		else if (gs instanceof IndependentGoalSpace)
+		{
+			((IndependentGoalSpace) gs).normalise();
+			return;
+		}
 
 		double total = 0f;
 		for (Fact g : gs.getGoals())
@@ -2087,6 +2128,10 @@ public class BayesianGoalRecogniser
 
 //		 this.planSoFar.addAction(a); //add once timestamped instead
 
+		// any estimates still being computed in the background are for the
+		// current state, so are abandoned before it changes
+		this.heuristicManager.abandonRefinements();
+
 		// update the current state using the observation
 		this.updateState(a);
 
@@ -2112,6 +2157,8 @@ public class BayesianGoalRecogniser
 		TimeStampedAction tsObservation = this.updateThreader(a);
 //		TimeStampedAction tsObservation = new TimeStampedAction(a, new BigDecimal(this.getObservedStepCount() - 1), BigDecimal.ONE); //hack to ignore threading
 		this.planSoFar.addAction(tsObservation); //TODO this really should be done prior to this
+		if (this.planActionIndices.containsKey(tsObservation) == false)
+			this.planActionIndices.put(tsObservation, this.planSoFar.getActionCount() - 1);
 		endTime = System.nanoTime();
 		duration = endTime - startTime;
 		System.out.println("Threader update took " + duration / 1000000
@@ -2214,8 +2261,11 @@ public class BayesianGoalRecogniser
 	 * 
 	 * @see ThreadedHeuristicManager#updateHeuristic(HybridSasPddlProblem,
 	 *      Collection)
+	 * @throws ExecutionException
+	 * @throws InterruptedException
 	 */
-	protected void updateHeuristic()
+	protected void updateHeuristic() throws InterruptedException,
+			ExecutionException
 	{
 		// update heuristics- RPGs, actions etc
 		this.heuristicManager.updateHeuristic(this.problem,
@@ -2291,19 +2341,8 @@ public class BayesianGoalRecogniser
 			return 0;
 		}
 		
-		int count = 1;
-		StateHistory hist = this.getHistory();
-		//can start at 1 and skip the current stat because we know that G is true by this point
-		for (int i = hist.states().size() - 1; i >= 0; i--)
-		{
-			StateHistoryTuple t = hist.get(i);
-			if (t.getState().isTrue(g))
-				++count;
-			else
-				break;
-		}
-		
-		return count;
+		//1 for the current state, plus however many states at the end of the history G has been true in
+		return 1 + this.getHistory().getConsecutiveTrueCount(g);
 	}
 	
 
@@ -2345,12 +2384,23 @@ public class BayesianGoalRecogniser
 		// when computing P(A|G}
 		for (Fact g : newDists.keySet())
 		{
-			this.prevGoalDistMap.get(g).add(newDists.get(g));
+			this.prevGoalDistMap.add(g, newDists.get(g));
 			
 			this.usefulDistanceMap.put(g, 0d);
 			this.notUsefulDistanceMap.put(g, 0d); //need to reset the distance maps
 		}
 		
+		//the running step counts are maintained in both modes, so that switching between them is safe
+		further = new HashSet<Fact>();
+		nearer = new HashSet<Fact>();
+		unmoved = new HashSet<Fact>();
+		this.updateStepCounts(newDists, nearer, further, unmoved);
+		
+		if (IGRAPHPreferences.IncrementalHistory)
+		{
+			this.updateHistoryIncremental(a, newDists, nearer, further, unmoved);
+			return;
+		}
 		
 		//need to loop over all observed steps, as a step which was helpful at time t may not be helpful at time t+n
 		//FIXME god damn this is some inefficient code
@@ -2384,8 +2434,8 @@ public class BayesianGoalRecogniser
 				//the number of consecutive steps which this fact has been true for (if any)
 				int stepsTrue = this.getTrueStepsCount(g);
 	
-				double oldDist = this.prevGoalDistMap.get(g).get(j-1); // dist at t-1
-				double newDist = this.prevGoalDistMap.get(g).get(j); // current dist
+				double oldDist = this.prevGoalDistMap.get(g, j-1); // dist at t-1
+				double newDist = this.prevGoalDistMap.get(g, j); // current dist
 				// double absDiff = Math.abs(oldDist - newDist); //absolute value
 				double absDiff = 0; // the above line assumes optimal heuristics --
 									// differences greater than 1 are possible
@@ -2453,7 +2503,7 @@ public class BayesianGoalRecogniser
 
 		}
 
-		this.history.add((STRIPSState) this.currentState.clone(), a,
+		this.history.add(this.currentState, a,
 				this.getCurrentTimeOffset(), nearer, further, unmoved);
 		
 //		//sanity check
@@ -2467,6 +2517,86 @@ public class BayesianGoalRecogniser
 //		}
 	}
 	
+	/**
+	 * Updates the running counts of steps which have moved each goal nearer, further, or which have left
+	 * it at a distance of zero, using only the two most recent distances. Also populates the 
+	 * nearer/further/unmoved sets for the latest observation.
+	 * @param newDists The distances to each goal after the latest observation.
+	 * @param nearer The set to add goals which moved nearer to.
+	 * @param further The set to add goals which moved further away to.
+	 * @param unmoved The set to add goals which are at the same distance to.
+	 */
+	protected void updateStepCounts(Map<Fact, Double> newDists, Set<Fact> nearer, Set<Fact> further, Set<Fact> unmoved)
+	{
+		for (Fact g : newDists.keySet())
+		{
+			if (g instanceof AllFalseGoal)
+				continue;
+			
+			int last = this.prevGoalDistMap.size(g) - 1;
+			double oldDist = this.prevGoalDistMap.get(g, last - 1); // dist at t-1
+			double newDist = this.prevGoalDistMap.get(g, last); // current dist
+			
+			if (newDist < oldDist)
+			{
+				nearer.add(g);
+				this.nearerStepCountMap.put(g, this.nearerStepCountMap.get(g, 0d) + 1);
+			}
+			else if (newDist > oldDist)
+			{
+				further.add(g);
+				this.furtherStepCountMap.put(g, this.furtherStepCountMap.get(g, 0d) + 1);
+			}
+			else
+			{
+				if (newDist == 0 && oldDist == 0)
+					this.zeroStepCountMap.put(g, this.zeroStepCountMap.get(g, 0d) + 1);
+				
+				unmoved.add(g);
+			}
+		}
+	}
+	
+	/**
+	 * Incremental version of the history update. Only the classification of the latest observation is computed. 
+	 * The nearer/further/unmoved classification of earlier observations never changes, as it only depends on
+	 * the distances at each step -- the only thing which can change is whether the zero-step bonus applies,
+	 * and this depends solely on how long each goal has been true in the current state. The total helpful 
+	 * distance is therefore the number of nearer steps, plus the number of zero-distance steps if the bonus 
+	 * currently applies, which gives the same result as reclassifying every previous step.
+	 * 
+	 * @param a The observed action.
+	 * @param newDists The distances to each goal after observing the action.
+	 * @param nearer The goals which moved nearer with the latest observation.
+	 * @param further The goals which moved further away with the latest observation.
+	 * @param unmoved The goals which are at the same distance after the latest observation.
+	 */
+	protected void updateHistoryIncremental(Action a, Map<Fact, Double> newDists, HashSet<Fact> nearer, 
+			HashSet<Fact> further, HashSet<Fact> unmoved)
+	{
+		for (Fact g : newDists.keySet())
+		{
+			if (g instanceof AllFalseGoal)
+				continue;
+			
+			double useful = this.nearerStepCountMap.get(g, 0d);
+			if (this.areZeroStepsHelpful() && this.getTrueStepsCount(g) > 1) //only apply bonus if fact is true for at least previous 2 timesteps
+				useful += this.zeroStepCountMap.get(g, 0d);
+			
+			this.usefulDistanceMap.put(g, useful);
+			this.notUsefulDistanceMap.put(g, this.furtherStepCountMap.get(g, 0d));
+		}
+		
+		//the previous tuple holds the classification of the step which followed it
+		StateHistoryTuple prev = this.history.last();
+		prev.setFurther(further);
+		prev.setNearer(nearer);
+		prev.setUnmoved(unmoved);
+		
+		this.history.add(this.currentState, a,
+				this.getCurrentTimeOffset(), nearer, further, unmoved);
+	}
+	
 	//old iteritive way -- new method recalculates total distance moved based on bonuses
 //
 //	/**
@@ -2673,10 +2803,9 @@ public class BayesianGoalRecogniser
 			if (g instanceof AllFalseGoal)
 				continue;
 
-			Double hBeforeO = this.prevGoalDistMap.get(g).get(
-					this.prevGoalDistMap.get(g).size() - 2);
-			Double hAfterO = this.prevGoalDistMap.get(g).get(
-					this.prevGoalDistMap.get(g).size() - 1);
+			double hBeforeO = this.prevGoalDistMap.get(g,
+					this.prevGoalDistMap.size(g) - 2);
+			double hAfterO = this.prevGoalDistMap.getLast(g);
 			boolean oWasHelpful = (hAfterO < hBeforeO);// || (hAfterO == 0 &&
 														// hBeforeO == 0 &&
 														// this.areZeroStepsHelpful());
@@ -3104,17 +3233,17 @@ public class BayesianGoalRecogniser
 		if (this.prevGoalDistMap.containsKey(p) == false)
 			return 0;
 
-		List<Double> dists = this.prevGoalDistMap.get(p);
-		if (dists.size() == 1)
-			return this.prevGoalDistMap.get(p).get(0);
-		else if (dists.size() == 0)
+		double[] dists = this.prevGoalDistMap.toArray(p);
+		if (dists.length == 1)
+			return dists[0];
+		else if (dists.length == 0)
 			return 0;
 
 		int moveTowards = 0;
 
-		for (int i = 0; i < dists.size() - 1; i++)
+		for (int i = 0; i < dists.length - 1; i++)
 		{
-			double d = dists.get(i) - dists.get(i + 1);
+			double d = dists[i] - dists[i + 1];
 			if (d > 0)// || (d == 0 && includeZero))
 				moveTowards += d;
 		}
@@ -3135,17 +3264,17 @@ public class BayesianGoalRecogniser
 		if (this.prevGoalDistMap.containsKey(p) == false)
 			return 0;
 
-		List<Double> dists = this.prevGoalDistMap.get(p);
-		if (dists.size() == 1)
-			return this.prevGoalDistMap.get(p).get(0);
-		else if (dists.size() == 0)
+		double[] dists = this.prevGoalDistMap.toArray(p);
+		if (dists.length == 1)
+			return dists[0];
+		else if (dists.length == 0)
 			return 0;
 
 		double movedAway = 0;
 		double d;
-		for (int i = 0; i < dists.size() - 1; i++)
+		for (int i = 0; i < dists.length - 1; i++)
 		{
-			d = dists.get(i + 1) - dists.get(i);
+			d = dists[i + 1] - dists[i];
 			if (d > 0)// || (d == 0 && includeZero))
 				movedAway += d;
 		}
@@ -3168,18 +3297,18 @@ public class BayesianGoalRecogniser
 		if (this.prevGoalDistMap.containsKey(p) == false)
 			return 0;
 
-		List<Double> dists = this.prevGoalDistMap.get(p);
-		if (dists.size() == 1)
+		double[] dists = this.prevGoalDistMap.toArray(p);
+		if (dists.length == 1)
 			return 0;
-		else if (dists.size() == 0)
+		else if (dists.length == 0)
 			return 0;
 
 		int moveTowards = 0;
 
-		for (int i = 0; i < dists.size() - 1; i++)
+		for (int i = 0; i < dists.length - 1; i++)
 		{
-			double d = dists.get(i) - dists.get(i + 1);
-			if ((dists.get(i) == 0 && dists.get(i + 1) == 0 && includeZeroMove)
+			double d = dists[i] - dists[i + 1];
+			if ((dists[i] == 0 && dists[i + 1] == 0 && includeZeroMove)
 					|| d > 0)
 			{
 				moveTowards++;
@@ -3198,19 +3327,19 @@ public class BayesianGoalRecogniser
 		if (this.prevGoalDistMap.containsKey(p) == false)
 			return 0;
 
-		List<Double> dists = this.prevGoalDistMap.get(p);
-		if (dists.size() == 0)
+		double[] dists = this.prevGoalDistMap.toArray(p);
+		if (dists.length == 0)
 			return 0;
-		else if (dists.size() == 1)
+		else if (dists.length == 1)
 			return 0;
 
 		int moveTowards = 0;
 
-		for (int i = dists.size() - 1; i >= 0; i--)
+		for (int i = dists.length - 1; i >= 0; i--)
 		{
 			// if (previous - current) > 0) then moved towards
-			double d = dists.get(i - 1) - dists.get(i);
-			if ((dists.get(i) == 0 && dists.get(i + 1) == 0 && includeZeroMove)
+			double d = dists[i - 1] - dists[i];
+			if ((dists[i] == 0 && dists[i + 1] == 0 && includeZeroMove)
 					|| d > 0)
 			{
 				moveTowards++;
@@ -3234,17 +3363,17 @@ public class BayesianGoalRecogniser
 		if (this.prevGoalDistMap.containsKey(p) == false)
 			return 0;
 
-		List<Double> dists = this.prevGoalDistMap.get(p);
-		if (dists.size() == 1)
+		double[] dists = this.prevGoalDistMap.toArray(p);
+		if (dists.length == 1)
 			return 0;
-		else if (dists.size() == 0)
+		else if (dists.length == 0)
 			return 0;
 
 		double movedAway = 0;
 		double d;
-		for (int i = 0; i < dists.size() - 1; i++)
+		for (int i = 0; i < dists.length - 1; i++)
 		{
-			d = dists.get(i + 1) - dists.get(i);
+			d = dists[i + 1] - dists[i];
 			if (d > 0)
 				movedAway++;
 		}
@@ -3285,52 +3414,128 @@ public class BayesianGoalRecogniser
 		for (MutexGoalSpace gs : ((VariableGoalSpace) this.goalSpace)
 				.getVariableGoalSpaces())
 		{
-			Fact max = null;
-			double maxp = Double.MIN_VALUE;
-			for (Fact g : gs.getGoals())
+			Fact max = this.getMaximumFact(gs, minimumProbability, validFacts);
+
+			if (max != null && max instanceof AllFalseGoal == false)
+				maxes.add(max);
+		}
+
+		return maxes;
+	}
+
+	/**
+	 * Get the maximum probability valid goal from a single sub-goal-space.
+	 * Only the goals in the sub-goal-space's {@link GoalRanking} are examined,
+	 * unless none of them are valid, in which case every goal is checked.
+	 * <p/>
+	 * Goals tied for the maximum are compared in the same order as a scan
+	 * over every goal. However, the scan also tie-breaks lower probability
+	 * goals which it passes before reaching the maximum, so coin flips used
+	 * by {@link #doGoalTieBreak(TieBreakKey, TieBreakKey)} are no longer
+	 * drawn for those, and later random choices will differ from a full scan.
+	 * 
+	 * @param gs
+	 * @param minimumProbability
+	 * @param validFacts
+	 * @return The maximum probability goal, or null if there is none which
+	 *         meets the minimum probability.
+	 */
+	protected Fact getMaximumFact(MutexGoalSpace gs, double minimumProbability,
+			Collection<Fact> validFacts)
+	{
+		GoalRanking ranking = gs.getRanking();
+
+		Fact max = null;
+		TieBreakKey maxKey = null;
+		double maxp = Double.MIN_VALUE;
+		int rank = 0;
+		for (; rank < ranking.size(); rank++)
+		{
+			double pg = ranking.getProbability(rank);
+			// goals are ranked by descending probability, so nothing after
+			// this can be the maximum either
+			if (pg < minimumProbability || pg < maxp
+					|| (max == null && pg == maxp))
+				break;
+
+			Fact g = gs.getGoal(ranking.getGoalId(rank));
+			if (validFacts.contains(g) == false)
+				continue;
+
+			if (max == null)
+			{
+				maxp = pg;
+				max = g;
+			}
+			// tie break code, always prefer to keep a positive literal over
+			// a negative one
+			else if (max instanceof AllFalseGoal == true
+					&& g instanceof AllFalseGoal == false)
+			{
+				max = g;
+				maxKey = null;
+			}
+			else
+			{
+				if (maxKey == null)
+					maxKey = new TieBreakKey(max);
+				TieBreakKey gKey = new TieBreakKey(g);
+
+				boolean maxIsBetter = this.doGoalTieBreak(maxKey, gKey);
+				if (!maxIsBetter)
+				{
+					max = g;
+					maxKey = gKey;
+				}
+			}
+		}
+
+		// every ranked goal was invalid, but an unranked one may not be
+		if (max == null && rank == ranking.size()
+				&& ranking.isComplete() == false)
+		{
+			for (int id = gs.nextGoalId(0); id >= 0; id = gs.nextGoalId(id + 1))
 			{
+				Fact g = gs.getGoal(id);
 				if (validFacts.contains(g) == false)
 					continue;
 
-				double pg = gs.getProbability(g);
+				double pg = gs.getProbability(id);
 				if (pg < minimumProbability)
 					continue; // skip anything which does not meet the minumum
 								// probability
 
-				if (pg >= minimumProbability && pg > maxp)
+				if (pg > maxp)
 				{
 					maxp = pg;
 					max = g;
+					maxKey = null;
 				}
-				// tie break code, always prefer to keep a positive literal over
-				// a negative one
-				else if (pg >= minimumProbability && pg == maxp)
+				else if (max != null && pg == maxp)
 				{
 					if (max instanceof AllFalseGoal == true
 							&& g instanceof AllFalseGoal == false)
 					{
 						max = g;
+						maxKey = null;
 					}
 					else
 					{
-						boolean maxIsBetter = this.doGoalTieBreak(max, g, gs,
-								true);
+						if (maxKey == null)
+							maxKey = new TieBreakKey(max);
+						TieBreakKey gKey = new TieBreakKey(g);
 
-						if (!maxIsBetter)
+						if (this.doGoalTieBreak(maxKey, gKey) == false)
 						{
 							max = g;
+							maxKey = gKey;
 						}
 					}
 				}
-				// no need to test for maxp < any other -- caught by looping
-				// over every literal
 			}
-
-			if (max != null && max instanceof AllFalseGoal == false)
-				maxes.add(max);
 		}
 
-		return maxes;
+		return max;
 	}
 
 	/**
@@ -3471,8 +3676,6 @@ public class BayesianGoalRecogniser
 					"Illegal goals specified. Both must be mutex with one another and in the goal space provided.");
 		}
 
-		double gLayer = this.minimumCgLayers.get(goal); // layer on CG of G
-
 		double gProb = hypGoalSpace.getProbability(goal);
 		double oProb = hypGoalSpace.getProbability(other);
 
@@ -3490,89 +3693,165 @@ public class BayesianGoalRecogniser
 			//else these are in different mutex sets, so probabilities associated with O and G are ignored
 			//as they cannot really be compared. Or, probabilities are equal, in which case do the
 			//same tie break code anyway.
-			
-			// find which goal has had more work put towards it
-			double gWork = this.getDistanceMovedTowards(goal);
-			double oWork = this.getDistanceMovedTowards(other);
+			return this.doGoalTieBreak(new TieBreakKey(goal), new TieBreakKey(other));
+		}
+	}
 
-			if (gWork < oWork)
+	/**
+	 * Tie breaks 2 goals of equal probability, or from different mutex sets,
+	 * using the values held in their keys. Each key can be reused for any
+	 * number of comparisons made for the same observation.
+	 * 
+	 * @param goal
+	 *            The key of the first goal, which is used in the return value.
+	 * @param other
+	 *            The key of the goal which will be compared with the first.
+	 * @return True if the first goal passed in is a better candidate than the
+	 *         second. False otherwise.
+	 */
+	protected boolean doGoalTieBreak(TieBreakKey goal, TieBreakKey other)
+	{
+		// find which goal has had more work put towards it
+		double gWork = goal.getWork();
+		double oWork = other.getWork();
+
+		if (gWork < oWork)
+		{
+			return false;
+		}
+		else if (gWork > oWork)
+		{
+			return true;
+		}
+		else
+		{
+		  	 //if the other equal probability fact is an AFG, always keep the
+//			 positive goal
+			 if (other.getGoal() instanceof AllFalseGoal)
+				 return true;
+
+			double gLayer = goal.getLayer(); // layer on CG of G
+			double oLayer = other.getLayer();
+			// lower layer is better -- makes it more likely to be a goal
+			if (gLayer < oLayer)
 			{
-				return false;
+				// do nothing, stick with current fact
+				return true; // remove the lesser goal from the queue so we
+								// don't check it later
 			}
-			else if (gWork > oWork)
+			else if (gLayer > oLayer)
 			{
-				return true;
+				return false; // found a better goal candidate, so ignore
+								// the current one and skip to the next in
+								// the queue
 			}
 			else
 			{
-			  	 //if the other equal probability fact is an AFG, always keep the
-//				 positive goal
-				 if (other instanceof AllFalseGoal)
-					 return true;
-
-				double oLayer = this.minimumCgLayers.get(other);
-				// lower layer is better -- makes it more likely to be a goal
-				if (gLayer < oLayer)
+
+				// the last real test checks to see which is closer -- the
+				// goal or the mutex one
+				// This is determined by a flag set in the preferences.
+				double gEstimate = goal.getEstimate();
+				double oEstimate = other.getEstimate();
+
+				if (gEstimate < oEstimate)
 				{
-					// do nothing, stick with current fact
-					return true; // remove the lesser goal from the queue so we
-									// don't check it later
+					if (IGRAPHPreferences.TiedGoalPreference == GoalTieOrderingPreference.PreferNearerGoals)
+						return true;
+					else
+						return false;
 				}
-				else if (gLayer > oLayer)
+				else if (gEstimate > oEstimate)
 				{
-					return false; // found a better goal candidate, so ignore
-									// the current one and skip to the next in
-									// the queue
+					if (IGRAPHPreferences.TiedGoalPreference == GoalTieOrderingPreference.PreferFurtherGoals)
+					{
+						return true;
+					}
+					else
+					{
+						return false;
+					}
 				}
 				else
 				{
-
-					// the last real test checks to see which is closer -- the
-					// goal or the mutex one
-					// This is determined by a flag set in the preferences.
-					double gEstimate = this.getCurrentPropDist(goal);
-					double oEstimate = this.getCurrentPropDist(other);
-
-					if (gEstimate < oEstimate)
+					// lastly, just decide by coin flip
+					double coinFlip = rand.nextDouble();
+					if (coinFlip > 0.5)
 					{
-						if (IGRAPHPreferences.TiedGoalPreference == GoalTieOrderingPreference.PreferNearerGoals)
-							return true;
-						else
-							return false;
-					}
-					else if (gEstimate > oEstimate)
-					{
-						if (IGRAPHPreferences.TiedGoalPreference == GoalTieOrderingPreference.PreferFurtherGoals)
-						{
-							return true;
-						}
-						else
-						{
-							return false;
-						}
+						// do nothing, stick with current fact
+						return true; // remove the lesser goal from the
+										// queue so we don't check it later
 					}
 					else
 					{
-						// lastly, just decide by coin flip
-						double coinFlip = rand.nextDouble();
-						if (coinFlip > 0.5)
-						{
-							// do nothing, stick with current fact
-							return true; // remove the lesser goal from the
-											// queue so we don't check it later
-						}
-						else
-						{
-							return false; // found a better goal candidate, so
-											// ignore the current one and skip
-											// to the next in the queue
-						}
+						return false; // found a better goal candidate, so
+										// ignore the current one and skip
+										// to the next in the queue
 					}
 				}
 			}
 		}
 	}
 
+	/**
+	 * The values of a goal which are compared by
+	 * {@link BayesianGoalRecogniser#doGoalTieBreak(TieBreakKey, TieBreakKey)}.
+	 * Each value is looked up at most once, so a goal involved in several
+	 * comparisons does not repeat the lookups. Keys are only valid until the
+	 * next observation.
+	 * 
+	 * @author David Pattison
+	 * 
+	 */
+	protected class TieBreakKey
+	{
+		private Fact goal;
+		private double work;
+		private Double layer;
+		private Double estimate;
+
+		public TieBreakKey(Fact goal)
+		{
+			this.goal = goal;
+			this.work = getDistanceMovedTowards(goal);
+			this.layer = null;
+			this.estimate = null;
+		}
+
+		public Fact getGoal()
+		{
+			return goal;
+		}
+
+		public double getWork()
+		{
+			return work;
+		}
+
+		/**
+		 * Gets the layer of the causal graph which the goal is on.
+		 * 
+		 * @return
+		 * @throws NullPointerException
+		 *             Thrown if the goal has no layer.
+		 */
+		public double getLayer()
+		{
+			if (this.layer == null)
+				this.layer = minimumCgLayers.get(this.goal);
+
+			return this.layer;
+		}
+
+		public double getEstimate()
+		{
+			if (this.estimate == null)
+				this.estimate = getCurrentPropDist(this.goal);
+
+			return this.estimate;
+		}
+	}
+
 	/**
 	 * Computes a goal hypothesis on the assumption that all actions have been
 	 * observed and thus the agent has reached its final goal. This means that
@@ -4509,7 +4788,7 @@ public class BayesianGoalRecogniser
 	// return mergedSpace;
 	// }
 
-	protected void updateBayesianProbabilities(Action a)
+	protected void updateBayesianProbabilities(Action a) throws RecognitionException
 	{
 		// references to existing goal-spaces. These will be updated.
 		Set<MutexGoalSpace> subGoalSpaces = ((VariableGoalSpace) this.goalSpace)
@@ -4519,142 +4798,191 @@ public class BayesianGoalRecogniser
 		// final double minLambda = 0.01;
 		// final double maxLambda = 0.99;
 
-		for (MutexGoalSpace subGoalSpace : subGoalSpaces)
+		if (IGRAPHPreferences.MultiThreaded && subGoalSpaces.size() > 1)
+		{
+			// the thread the observation was added to is the same for all goals, so find it before 
+			// the goal-spaces are updated in parallel
+			if (IGRAPHPreferences.WorkFunction == WorkFunctionType.MLThreaded)
+				this.updateThreadedLikelihoodCache();
+			
+			// each sub-goal-space is normalised independently of all others, so they can be updated in parallel.
+			// All likelihood lookups only read from the history and distance maps, which are not modified here.
+			List<Future<MutexGoalSpace>> futures = new ArrayList<Future<MutexGoalSpace>>();
+			for (MutexGoalSpace subGoalSpace : subGoalSpaces)
+			{
+				futures.add(this.threadPool.submit(new BayesianUpdateCallable(a, subGoalSpace, lambda)));
+			}
+			
+			try
+			{
+				for (Future<MutexGoalSpace> future : futures)
+				{
+					future.get();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				throw new RecognitionException("Interrupted while updating goal-space probabilities", e);
+			}
+			catch (ExecutionException e)
+			{
+				throw new RecognitionException("Error in updating goal-space probabilities", e.getCause());
+			}
+		}
+		else
 		{
-			HashMap<Fact, Double> singlePosteriors = new HashMap<Fact, Double>();
+			for (MutexGoalSpace subGoalSpace : subGoalSpaces)
+			{
+				this.updateBayesianProbabilities(a, subGoalSpace, lambda);
+			}
+		}
+		
+		//finally, update historical Bayesian probabilities
+		this.saveBayesianProbabilities(false);
+	}
+	
+	/**
+	 * Updates the probabilities of a single sub-goal-space given the last observation. The posterior of
+	 * each goal is normalised only against the other goals in the same sub-goal-space.
+	 * 
+	 * @param a The last observation.
+	 * @param subGoalSpace The sub-goal-space to update.
+	 * @param lambda The weight given to the work function.
+	 */
+	protected void updateBayesianProbabilities(Action a, MutexGoalSpace subGoalSpace, double lambda)
+	{
+		// likelihood of the observation given each goal, indexed by goal ID in the sub-goal-space
+		double[] likelihoods = new double[subGoalSpace.getGoalIdLimit()];
 
-			double total = 0;
+		double nearerCount = 0;
+		for (Fact o : subGoalSpace.getGoals())
+		{
+			if (this.getHistory().get(this.getObservedStepCount())
+					.getNearer().contains(o))
+				nearerCount++;
+		}
 
-			double nearerCount = 0;
-			for (Fact o : subGoalSpace.getGoals())
+		// compute the likelihood of the observation for each goal in the mutex set
+		for (int id = subGoalSpace.nextGoalId(0); id >= 0; id = subGoalSpace.nextGoalId(id + 1))
+		{
+			Fact g = subGoalSpace.getGoal(id);
+
+			// double lambda = minLambda;
+			// if
+			// (this.getHistory().get(this.getObservedStepCount()).getNearer().contains(g))
+			// lambda = 1d / nearerCount;
+			//
+			// if (lambda < minLambda)
+			// lambda = minLambda;
+			//
+			// if (lambda >= 1d)
+			// lambda = maxLambda;
+
+			double workRight = (1d - lambda)
+					* (1d / (double) subGoalSpace.size());
+
+			// Double hBeforeO =
+			// this.prevGoalDistMap.get(g).get(this.prevGoalDistMap.get(g).size()-2);
+			// Double hAfterO =
+			// this.prevGoalDistMap.get(g).get(this.prevGoalDistMap.get(g).size()-1);
+			// boolean oWasHelpful = hAfterO < hBeforeO;
+
+			double work = 0;
+
+			// AllFalseGoals acts as the negation of all facts in the
+			// sub-goal-space, so need to be treated differently.
+			// Instead of computing the W(G) value for this fictional fact,
+			// we compute the relevant value for
+			// all the (implicit) negated versions of goal literals
+
+			if (IGRAPHPreferences.WorkFunction == WorkFunctionType.ML)
 			{
-				if (this.getHistory().get(this.getObservedStepCount())
-						.getNearer().contains(o))
-					nearerCount++;
+				work = this.getMaximumLikelihoodScore(g, subGoalSpace);
 			}
-
-			// compute the probability for each goal in the mutex set and sum it
-			// to get the denominator
-			// this means that probabilities in here are not normalised
-			for (Fact g : subGoalSpace.getGoals())
+			else if (IGRAPHPreferences.WorkFunction == WorkFunctionType.MLThreaded)
 			{
-				// double lambda = minLambda;
-				// if
-				// (this.getHistory().get(this.getObservedStepCount()).getNearer().contains(g))
-				// lambda = 1d / nearerCount;
-				//
-				// if (lambda < minLambda)
-				// lambda = minLambda;
+				work = this.getMaximumLikelihoodThreadedScore(g,
+						subGoalSpace);
+				// double mlwork = this.getMaximumLikelihoodScore(g,
+				// subGoalSpace); //FIXME comment out after debugging
+				// if (work < mlwork)
+				// throw new
+				// IllegalArgumentException("MLT < ML: "+work+", "+mlwork);
 				//
-				// if (lambda >= 1d)
-				// lambda = maxLambda;
-
-				double workRight = (1d - lambda)
-						* (1d / (double) subGoalSpace.size());
-
-				// Double hBeforeO =
-				// this.prevGoalDistMap.get(g).get(this.prevGoalDistMap.get(g).size()-2);
-				// Double hAfterO =
-				// this.prevGoalDistMap.get(g).get(this.prevGoalDistMap.get(g).size()-1);
-				// boolean oWasHelpful = hAfterO < hBeforeO;
-
-				double work = 0;
-
-				// AllFalseGoals acts as the negation of all facts in the
-				// sub-goal-space, so need to be treated differently.
-				// Instead of computing the W(G) value for this fictional fact,
-				// we compute the relevant value for
-				// all the (implicit) negated versions of goal literals
-
-				if (IGRAPHPreferences.WorkFunction == WorkFunctionType.ML)
-				{
-					work = this.getMaximumLikelihoodScore(g, subGoalSpace);
-				}
-				else if (IGRAPHPreferences.WorkFunction == WorkFunctionType.MLThreaded)
-				{
-					work = this.getMaximumLikelihoodThreadedScore(g,
-							subGoalSpace);
-					// double mlwork = this.getMaximumLikelihoodScore(g,
-					// subGoalSpace); //FIXME comment out after debugging
-					// if (work < mlwork)
-					// throw new
-					// IllegalArgumentException("MLT < ML: "+work+", "+mlwork);
-					//
-					// if
-					// (g.toString().contains("communicated_soil_data waypoint0"))
-					// System.out.println("ML: "+mlwork+", MLT: "+work);
-				}
-				else if (IGRAPHPreferences.WorkFunction == WorkFunctionType.SingleAction)
-				{
-					work = this.getSingleActionLikelihoodScore(g, a,
-							subGoalSpace);
+				// if
+				// (g.toString().contains("communicated_soil_data waypoint0"))
+				// System.out.println("ML: "+mlwork+", MLT: "+work);
+			}
+			else if (IGRAPHPreferences.WorkFunction == WorkFunctionType.SingleAction)
+			{
+				work = this.getSingleActionLikelihoodScore(g, a,
+						subGoalSpace);
 //					 work = this.getSingleActionLikelihoodDiscountedScore(g,
 //					 (TimeStampedAction) a, subGoalSpace);
-				}
-				else
-					throw new NullPointerException(
-							"Unrecognised likelihood function type");
-
-				// debug
-				if (singlePosteriors.containsKey(g))
-					throw new NullPointerException("Duplicates in goal-space!");
-
-				double stability;
-				if (g instanceof AllFalseGoal)
-					stability = 1;
-				else
-					stability = this.getStability(g);
-
-				//double stability = 1;
-				double workLeft = lambda * stability * work;
-				// double workLeft = lambda * work;
-
-				double aGivenH = workLeft + workRight;
-
-				double prior = subGoalSpace.getProbability(g);
-				double post = prior * aGivenH;
-
-				// if (g instanceof AllFalseGoal == false &&
-				// this.prevGoalDistMap.get(g).get(this.planSoFar.getPlanLength()-1)
-				// == 0 &&
-				// this.prevGoalDistMap.get(g).get(this.planSoFar.getPlanLength())
-				// == 0 &&
-				// this.areZeroStepsHelpful())
-				// {
-				// post = prior;
-				// }
-
-				singlePosteriors.put(g, post); // non normalised posterior
-
-				total += post;
 			}
+			else
+				throw new NullPointerException(
+						"Unrecognised likelihood function type");
 
-			// else
-			// throw new
-			// NullPointerException("Empty mutex set encountered during Bayes update");
+			double stability;
+			if (g instanceof AllFalseGoal)
+				stability = 1;
+			else
+				stability = this.getStability(g);
 
-			double totalPost = 0;
-			double denom = total;
-			for (Fact g : subGoalSpace.getGoals())
-			{
-				double bayesPost;
-				double numerator = singlePosteriors.get(g);
+			//double stability = 1;
+			double workLeft = lambda * stability * work;
+			// double workLeft = lambda * work;
 
-				bayesPost = numerator / denom;
+			double aGivenH = workLeft + workRight;
 
-				double prior = subGoalSpace.getProbability(g); // for debugging
+			// if (g instanceof AllFalseGoal == false &&
+			// this.prevGoalDistMap.get(g).get(this.planSoFar.getPlanLength()-1)
+			// == 0 &&
+			// this.prevGoalDistMap.get(g).get(this.planSoFar.getPlanLength())
+			// == 0 &&
+			// this.areZeroStepsHelpful())
+			// {
+			// post = prior;
+			// }
 
-				// totalPost += (double) Math.round(bayesPost *
-				// BayesianGoalRecogniser.NormalisedError) /
-				// BayesianGoalRecogniser.NormalisedError;
-				totalPost += bayesPost;
+			likelihoods[id] = aGivenH;
+		}
 
-				subGoalSpace.setProbability(g, bayesPost);
-			}
+		// else
+		// throw new
+		// NullPointerException("Empty mutex set encountered during Bayes update");
+
+		// multiply each prior by its likelihood and normalise. Sub-goal-spaces in which every goal has the same
+		// likelihood are left untouched, and normalisation is deferred until the sub-goal-space is next read.
+		subGoalSpace.update(likelihoods);
+	}
+	
+	/**
+	 * Updates the probabilities of a single sub-goal-space in a separate thread.
+	 * @author David Pattison
+	 *
+	 */
+	protected class BayesianUpdateCallable implements Callable<MutexGoalSpace>
+	{
+		private Action observation;
+		private MutexGoalSpace goalSpace;
+		private double lambda;
+		
+		public BayesianUpdateCallable(Action observation, MutexGoalSpace goalSpace, double lambda)
+		{
+			this.observation = observation;
+			this.goalSpace = goalSpace;
+			this.lambda = lambda;
 		}
 		
-		//finally, update historical Bayesian probabilities
-		this.saveBayesianProbabilities(false);
+		@Override
+		public MutexGoalSpace call() throws Exception
+		{
+			updateBayesianProbabilities(this.observation, this.goalSpace, this.lambda);
+			
+			return this.goalSpace;
+		}
 	}
 	
 	/**
@@ -4672,34 +5000,52 @@ public class BayesianGoalRecogniser
 		HashMap<MutexGoalSpace, List<Double>> probs = new HashMap<MutexGoalSpace, List<Double>>();
 		for (MutexGoalSpace mgs : members)
 		{
-			probs.put(mgs, this.historicalBayesianProbabilities.get(mgs).get(g));
+			List<Double> history = new ArrayList<Double>();
+			for (GoalSpaceSnapshot snapshot : this.goalSpaceHistory)
+			{
+				if (snapshot.hasProbability(mgs, g))
+					history.add(snapshot.getProbability(mgs, g));
+			}
+			probs.put(mgs, history);
 		}
 		
 		return probs;
 	}
 	
 	/**
-	 * Saves the probabilities of the goals in the current goal-space.
-	 * @see get
+	 * Gets a snapshot of the goal-space as it was after the most recent observation. This can be read from any
+	 * thread while the goal-space continues to be updated.
+	 * @return The snapshot, or null if the goal-space has not been initialised.
+	 */
+	public GoalSpaceSnapshot getGoalSpaceSnapshot()
+	{
+		if (this.goalSpaceHistory.isEmpty())
+			return null;
+		
+		return this.goalSpaceHistory.get(this.goalSpaceHistory.size() - 1);
+	}
+	
+	/**
+	 * Gets a snapshot of the goal-space after every observation, starting with the initial goal-space.
+	 * @return An unmodifiable list of snapshots.
+	 */
+	public List<GoalSpaceSnapshot> getGoalSpaceHistory()
+	{
+		return Collections.unmodifiableList(this.goalSpaceHistory);
+	}
+	
+	/**
+	 * Saves a snapshot of the probabilities of the goals in the current goal-space. Only the sub-goal-spaces which
+	 * have changed since the last snapshot are copied.
+	 * @param initialise If true, any existing history is discarded.
+	 * @see #getHistoricalProbabilities(Fact)
 	 */
 	protected void saveBayesianProbabilities(boolean initialise)
 	{
+		if (initialise)
+			this.goalSpaceHistory.clear();
 		
-		//set the initial probabilieis for each MutexGoalSpace
-		for (MutexGoalSpace mgs : ((VariableGoalSpace) this.goalSpace).getVariableGoalSpaces())
-		{
-			if (initialise)
-				this.historicalBayesianProbabilities.put(mgs, new HashMap<Fact, List<Double>>());
-			
-			for (Fact g : mgs.getGoals())
-			{
-				if (initialise)
-					this.historicalBayesianProbabilities.get(mgs).put(g, new ArrayList<Double>());
-				
-				this.historicalBayesianProbabilities.get(mgs).get(g).add(mgs.getProbability(g));
-			}
-		}
-
+		this.goalSpaceHistory.add(((VariableGoalSpace) this.goalSpace).snapshot());
 	}
 
 	/**
@@ -4781,8 +5127,43 @@ public class BayesianGoalRecogniser
 		 * action was appended to, is ignored. In a perfect world, every goal
 		 * would have its own thread
 		 */
-		Action lastAction = this.planSoFar.getActions().get(
-				this.planSoFar.getActionCount() - 1);
+		this.updateThreadedLikelihoodCache();
+		
+		//is the fact unmoved, true at the current timestep, and are zero steps helpful -- if so, every step in the thread is helpful
+		boolean zeroMove = (this.areZeroStepsHelpful() && this.isBonusApplicable(g, mgs));
+		double helpfulObs;
+		if (zeroMove)
+			helpfulObs = this.lastThreadStepCount;
+		else
+			helpfulObs = this.lastThreadNearerCounts.get(g, 0d);
+		PlanThread threadAdded = this.lastThreadAdded;
+
+		double helpful = helpfulObs;
+		double threadTotal = threadAdded.getActionLength();
+		
+
+		if (threadTotal <= 0)
+			return 0;
+		
+		double res = helpful / threadTotal;
+		// double res = threadTotal / this.getObservedStepCount();
+
+//		 System.out.println("MLT: "+res + " = "+helpful+ "/"+threadTotal);
+
+		return res;
+	}
+
+	/**
+	 * Finds the thread which the last observation was appended to, and counts how many of the observations in
+	 * that thread moved each goal nearer. This is the same for every goal, so is only computed once per observation.
+	 */
+	protected synchronized void updateThreadedLikelihoodCache()
+	{
+		int step = this.planSoFar.getActionCount();
+		if (step == this.threadLikelihoodStep)
+			return;
+		
+		Action lastAction = this.planSoFar.getActions().get(step - 1);
 		PlanThread threadAdded = null;
 		for (PlanThread t : this.threader.getLiveThreads())
 		{
@@ -4795,45 +5176,50 @@ public class BayesianGoalRecogniser
 				}
 			}
 		}
-
-		double helpfulObs = 0;
-//		int consecutiveTrue =  this.getTrueStepsCount(g);
-		boolean bonusApplicable = this.isBonusApplicable(g, mgs);
 		
+		FactDoubleMap nearerCounts = new FactDoubleMap(this.problem.getFactIndex());
+		int stepCount = 0;
 		for (ActionStateTuple a : threadAdded.getActions())
 		{
 			if (a.action instanceof MergeAction)
 				continue;
 
-			int idx = this.planSoFar.getActions().indexOf(a.action.action);
-
-			//did the fact get heuristically closer
-			StateHistoryTuple h = this.getHistory().get(idx);
-			boolean nearer = h.getNearer().contains(g);
-//			System.out.println(g+" is nearer "+nearer);
+			++stepCount;
 			
-			//is the fact unmoved, true at the current timestep, and are zero steps helpful
-//			boolean zeroMove = (this.getHistory().get(idx).getUnmoved().contains(g) && this.areZeroStepsHelpful() && consecutiveTrue > 1);
-			boolean zeroMove = (this.areZeroStepsHelpful() && bonusApplicable);
-			boolean helpfulFlag = nearer || zeroMove;
+			Integer idx = this.planActionIndices.get(a.action.action);
 			
-			if (helpfulFlag)
-				helpfulObs += 1;
+			//did the fact get heuristically closer
+			StateHistoryTuple h = this.getHistory().get(idx == null ? -1 : idx);
+			for (Fact f : h.getNearer())
+			{
+				nearerCounts.put(f, nearerCounts.get(f, 0d) + 1);
+			}
 		}
-
-		double helpful = helpfulObs;
-		double threadTotal = threadAdded.getActionLength();
 		
-
-		if (threadTotal <= 0)
-			return 0;
-		
-		double res = helpful / threadTotal;
-		// double res = threadTotal / this.getObservedStepCount();
-
-//		 System.out.println("MLT: "+res + " = "+helpful+ "/"+threadTotal);
-
-		return res;
+		this.lastThreadAdded = threadAdded;
+		this.lastThreadNearerCounts = nearerCounts;
+		this.lastThreadStepCount = stepCount;
+		this.threadLikelihoodStep = step;
+	}
+	
+	/**
+	 * Gets the running count of useless steps for the specified goal-space, creating it if necessary.
+	 * @param mgs
+	 * @return
+	 */
+	protected UselessStepAccumulator getUselessStepAccumulator(MutexGoalSpace mgs)
+	{
+		synchronized (this.uselessStepAccumulators)
+		{
+			UselessStepAccumulator acc = this.uselessStepAccumulators.get(mgs);
+			if (acc == null)
+			{
+				acc = new UselessStepAccumulator(mgs);
+				this.uselessStepAccumulators.put(mgs, acc);
+			}
+			
+			return acc;
+		}
 	}
 
 	protected double getMaximumLikelihoodScore(Fact g, MutexGoalSpace mgs)
@@ -4854,32 +5240,13 @@ public class BayesianGoalRecogniser
 		if (g instanceof AllFalseGoal)
 		{
 			
-			// TODO horribly inefficient method
-			double uselessSteps = 0;
-			out: for (int i = 0; i < this.getObservedStepCount(); i++)
-			{
-				StateHistoryTuple t = this.history.get(i + 1); // +1 because we
-																// want to skip
-																// the initial
-																// history state
-				for (Fact f : mgs.getGoals())
-				{
-					// assume only 1 AllFalseGoal in a mutex set
-					if (f == g)
-						continue;
-
-					if (t.getNearer().contains(f)
-							|| (this.areZeroStepsHelpful() && this.isBonusApplicable(g, mgs)))
-					{
-						continue out;
-					}
-					// if (t.getFurther().contains(f) == false)
-					// continue out;
-				}
-
-				++uselessSteps; // if we;ve reached here then all steps were
-								// useless
-			}
+			// if the bonus applies, then every step is helpful to some goal (if there are any other goals)
+			double uselessSteps;
+			if (mgs.size() > 1 && this.areZeroStepsHelpful() && this.isBonusApplicable(g, mgs))
+				uselessSteps = 0;
+			else
+				uselessSteps = this.getUselessStepAccumulator(mgs).getUselessStepCount(this.history, 
+						this.getObservedStepCount(), g);
 
 			double res = uselessSteps / this.getObservedStepCount(); // ratio of
 																		// completely
@@ -0,0 +1,89 @@
+package recogniser.hypothesis;
+
+/**
+ * The most probable goals in an {@link IndependentGoalSpace}, in descending order of probability. Goals of equal
+ * probability are in ascending order of goal ID, which is the order they are visited in when iterating over the
+ * goal-space. At least {@link #Size} goals are ranked, along with every goal which has the same probability as
+ * the last of these, so any goal which is not ranked is strictly less probable than every goal which is.
+ * Goals whose probability is NaN are never ranked.
+ * <p/>
+ * Rankings are immutable, so can be shared between a goal-space and its clones, and read from any thread.
+ *
+ * @author David Pattison
+ * @see IndependentGoalSpace#getRanking()
+ */
+public class GoalRanking
+{
+	/**
+	 * The minimum number of goals ranked, if the goal-space has this many.
+	 */
+	public static final int Size = 8;
+
+	private final long version;
+	private final int[] ids;
+	private final double[] probabilities;
+	private final boolean complete;
+
+	GoalRanking(long version, int[] ids, double[] probabilities, boolean complete)
+	{
+		this.version = version;
+		this.ids = ids;
+		this.probabilities = probabilities;
+		this.complete = complete;
+	}
+
+	/**
+	 * Gets the version of the goal-space which this ranking was created from.
+	 * @return
+	 * @see IndependentGoalSpace#getVersion()
+	 */
+	long getVersion()
+	{
+		return this.version;
+	}
+
+	/**
+	 * Gets the number of goals ranked.
+	 * @return
+	 */
+	public int size()
+	{
+		return this.ids.length;
+	}
+
+	/**
+	 * Gets the ID of the goal at the specified rank, where 0 is the most probable goal.
+	 * @param rank
+	 * @return
+	 * @see IndependentGoalSpace#getGoal(int)
+	 */
+	public int getGoalId(int rank)
+	{
+		return this.ids[rank];
+	}
+
+	/**
+	 * Gets the probability of the goal at the specified rank.
+	 * @param rank
+	 * @return
+	 */
+	public double getProbability(int rank)
+	{
+		return this.probabilities[rank];
+	}
+
+	/**
+	 * Returns true if every goal in the goal-space with a probability is ranked.
+	 * @return
+	 */
+	public boolean isComplete()
+	{
+		return this.complete;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Goal ranking: "+this.ids.length+" goals"+(this.complete ? "" : " (truncated)");
+	}
+}
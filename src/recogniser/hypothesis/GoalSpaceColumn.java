@@ -0,0 +1,142 @@
+package recogniser.hypothesis;
+
+/**
+ * An immutable copy of the values stored by an {@link IndependentGoalSpace}, indexed by goal ID. The values are
+ * copied exactly as they are stored, so any normalisation which the goal-space had deferred is only performed
+ * when a probability is first read from the copy, and log-space values are only converted back into
+ * probabilities by the getters.
+ *
+ * @author David Pattison
+ * @see GoalSpaceSnapshot
+ */
+final class GoalSpaceColumn
+{
+	private final double[] values; //NaN if the goal is not in the goal-space
+	private final boolean logSpace;
+	private final double logNormaliser;
+	private final boolean normalisationPending;
+
+	private volatile boolean resolved;
+	private double normaliser; //linear sum, or log-sum-exp, once resolved
+
+	GoalSpaceColumn(double[] values, boolean logSpace, double logNormaliser, boolean normalisationPending)
+	{
+		this.values = values;
+		this.logSpace = logSpace;
+		this.logNormaliser = logNormaliser;
+		this.normalisationPending = normalisationPending;
+
+		this.resolved = false;
+		this.normaliser = logSpace ? logNormaliser : 1;
+	}
+
+	/**
+	 * Gets one more than the largest goal ID in the goal-space when it was copied.
+	 * @return
+	 */
+	public int size()
+	{
+		return this.values.length;
+	}
+
+	/**
+	 * Returns true if the goal with the specified ID was in the goal-space, and had a probability.
+	 * @param id
+	 * @return
+	 */
+	public boolean hasProbability(int id)
+	{
+		return id >= 0 && id < this.values.length && Double.isNaN(this.getProbability(id)) == false;
+	}
+
+	/**
+	 * Gets the probability of the goal with the specified ID.
+	 * @param id
+	 * @return The probability, or NaN if the goal was not in the goal-space.
+	 */
+	public double getProbability(int id)
+	{
+		double v = this.values[id];
+		if (Double.isNaN(v))
+			return Double.NaN;
+
+		this.resolve();
+		if (this.logSpace)
+			return Math.exp(v - this.normaliser);
+		else if (this.normalisationPending)
+			return v / this.normaliser;
+		else
+			return v;
+	}
+
+	/**
+	 * Gets the natural log of the probability of the goal with the specified ID. In log-space, this is read
+	 * directly from the stored value, so does not underflow.
+	 * @param id
+	 * @return The log probability, or NaN if the goal was not in the goal-space.
+	 */
+	public double getLogProbability(int id)
+	{
+		double v = this.values[id];
+		if (Double.isNaN(v))
+			return Double.NaN;
+
+		if (this.logSpace == false)
+			return Math.log(this.getProbability(id));
+
+		this.resolve();
+		return v - this.normaliser;
+	}
+
+	/**
+	 * Computes the normaliser which the goal-space had deferred, in the same way as
+	 * {@link IndependentGoalSpace#resolveNormalisation()}. Safe to call from multiple threads.
+	 */
+	private void resolve()
+	{
+		if (this.resolved || this.normalisationPending == false)
+			return;
+
+		synchronized (this)
+		{
+			if (this.resolved)
+				return;
+
+			if (this.logSpace == false)
+			{
+				double total = 0;
+				for (double v : this.values)
+				{
+					if (Double.isNaN(v) == false)
+						total += v;
+				}
+
+				this.normaliser = total;
+			}
+			else
+			{
+				double max = Double.NEGATIVE_INFINITY;
+				for (double v : this.values)
+				{
+					if (Double.isNaN(v) == false)
+						max = Math.max(max, v);
+				}
+
+				//if every goal has zero probability, there is nothing to normalise
+				if (max != Double.NEGATIVE_INFINITY)
+				{
+					double total = 0;
+					for (double v : this.values)
+					{
+						if (Double.isNaN(v) == false)
+							total += Math.exp(v - max);
+					}
+
+					this.normaliser = max + Math.log(total);
+				}
+			}
+
+			this.resolved = true;
+		}
+	}
+}
@@ -0,0 +1,270 @@
+package recogniser.hypothesis;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+
+import javaff.data.Fact;
+import javaff.data.MutexSpace;
+import recogniser.hypothesis.VariableGoalSpace.GoalSetSelectorType;
+import recogniser.util.FactIndex;
+
+/**
+ * An immutable view of the probabilities in a {@link VariableGoalSpace} at the time it was taken. Snapshots are
+ * persistent -- each sub-goal-space's probabilities are held in their own array, and a new snapshot shares the
+ * array of every sub-goal-space which has not changed since the previous snapshot was taken. Taking a snapshot
+ * therefore only costs time and memory proportional to the sub-goal-spaces which have changed.
+ * <p/>
+ * The values are copied as the sub-goal-spaces store them, so any normalisation they had deferred is only 
+ * performed if a probability is read from the snapshot, and log-space values are only decoded by the getters.
+ * <p/>
+ * As nothing in a snapshot is ever modified, it can be read from any thread while the goal-space it was taken
+ * from continues to be updated. All methods which would modify the goal-space throw an
+ * {@link UnsupportedOperationException}.
+ *
+ * @author David Pattison
+ * @see VariableGoalSpace#snapshot()
+ */
+public class GoalSpaceSnapshot implements IGoalSpace
+{
+	private final MutexGoalSpace[] spaces;
+	private final IdentityHashMap<MutexGoalSpace, Integer> spaceIds;
+	private final long[] versions;
+	private final GoalSpaceColumn[] columns; //stored values of each sub-goal-space, indexed by slot
+
+	private final FactIndex goalIndex;
+	private final int[][] goalSpaces;
+	private final int[][] goalSlots;
+	private final Collection<? extends Fact> goals;
+	private final MutexSpace completeMutexSpace;
+	private final GoalSetSelectorType selector;
+
+	GoalSpaceSnapshot(MutexGoalSpace[] spaces, IdentityHashMap<MutexGoalSpace, Integer> spaceIds, long[] versions,
+			GoalSpaceColumn[] columns, FactIndex goalIndex, int[][] goalSpaces, int[][] goalSlots,
+			Collection<? extends Fact> goals, MutexSpace completeMutexSpace, GoalSetSelectorType selector)
+	{
+		this.spaces = spaces;
+		this.spaceIds = spaceIds;
+		this.versions = versions;
+		this.columns = columns;
+		this.goalIndex = goalIndex;
+		this.goalSpaces = goalSpaces;
+		this.goalSlots = goalSlots;
+		this.goals = Collections.unmodifiableCollection(goals);
+		this.completeMutexSpace = completeMutexSpace;
+		this.selector = selector;
+	}
+
+	/**
+	 * Returns true if this snapshot has the same layout of sub-goal-spaces as the specified goal-space, in which
+	 * case the probabilities of any unchanged sub-goal-space can be shared.
+	 * @param spaces
+	 * @return
+	 */
+	boolean hasLayout(MutexGoalSpace[] spaces)
+	{
+		return this.spaces == spaces;
+	}
+
+	/**
+	 * Gets the version of the specified sub-goal-space when this snapshot was taken.
+	 * @param space The index of the sub-goal-space.
+	 * @return
+	 * @see IndependentGoalSpace#getVersion()
+	 */
+	long getVersion(int space)
+	{
+		return this.versions[space];
+	}
+
+	/**
+	 * Gets the stored values of the specified sub-goal-space, indexed by slot.
+	 * @param space The index of the sub-goal-space.
+	 * @return
+	 */
+	GoalSpaceColumn getColumn(int space)
+	{
+		return this.columns[space];
+	}
+
+	/**
+	 * Returns the probability of the fact, given the selection type which the goal-space had when the snapshot
+	 * was taken.
+	 * @throws NullPointerException If the goal was not in the goal-space.
+	 */
+	@Override
+	public double getProbability(Fact g)
+	{
+		int id = this.goalIndex.getId(g);
+		if (id < 0)
+			throw new NullPointerException("Cannot find "+g+" in goal space");
+
+		int[] gs = this.goalSpaces[id];
+		int[] slots = this.goalSlots[id];
+
+		double max = Double.MIN_VALUE, min = Double.MAX_VALUE, total = 0;
+		for (int i = 0; i < gs.length; i++)
+		{
+			double p = this.columns[gs[i]].getProbability(slots[i]);
+			if (Double.isNaN(p))
+				throw new NullPointerException("Cannot find "+g+" in goal space");
+
+			if (p > max)
+				max = p;
+			if (p < min)
+				min = p;
+			total += p;
+		}
+
+		if (this.selector == GoalSetSelectorType.Max)
+			return max;
+		else if (this.selector == GoalSetSelectorType.Min)
+			return min;
+		else //Average
+			return total / ((double) gs.length);
+	}
+
+	/**
+	 * Returns true if the specified sub-goal-space contained the goal when the snapshot was taken.
+	 * @param mgs
+	 * @param g
+	 * @return
+	 */
+	public boolean hasProbability(MutexGoalSpace mgs, Fact g)
+	{
+		Integer s = this.spaceIds.get(mgs);
+		if (s == null)
+			return false;
+
+		return this.columns[s].hasProbability(mgs.getGoalId(g));
+	}
+
+	/**
+	 * Gets the probability which the goal had in the specified sub-goal-space when the snapshot was taken.
+	 * @param mgs
+	 * @param g
+	 * @return
+	 * @throws NullPointerException If the sub-goal-space did not contain the goal.
+	 */
+	public double getProbability(MutexGoalSpace mgs, Fact g)
+	{
+		if (this.hasProbability(mgs, g) == false)
+			throw new NullPointerException("Cannot find "+g+" in goal space "+mgs);
+
+		return this.columns[this.spaceIds.get(mgs)].getProbability(mgs.getGoalId(g));
+	}
+
+	/**
+	 * Gets the natural log of the probability which the goal had in the specified sub-goal-space when the 
+	 * snapshot was taken. If the sub-goal-space was in log-space, this is read from the stored log value, so 
+	 * does not underflow to zero over long sessions.
+	 * @param mgs
+	 * @param g
+	 * @return
+	 * @throws NullPointerException If the sub-goal-space did not contain the goal.
+	 * @see IndependentGoalSpace#isLogSpace()
+	 */
+	public double getLogProbability(MutexGoalSpace mgs, Fact g)
+	{
+		if (this.hasProbability(mgs, g) == false)
+			throw new NullPointerException("Cannot find "+g+" in goal space "+mgs);
+
+		return this.columns[this.spaceIds.get(mgs)].getLogProbability(mgs.getGoalId(g));
+	}
+
+	@Override
+	public Collection<? extends Fact> getGoals()
+	{
+		return this.goals;
+	}
+
+	@Override
+	public int size()
+	{
+		return this.goals.size();
+	}
+
+	/**
+	 * Returns the union of all mutex spaces across all sub-goal-spaces when the snapshot was taken. This must
+	 * not be modified.
+	 */
+	@Override
+	public MutexSpace getMutexSpace()
+	{
+		return this.completeMutexSpace;
+	}
+
+	public GoalSetSelectorType getGoalProbabilitySelector()
+	{
+		return this.selector;
+	}
+
+	/**
+	 * Snapshots are immutable, so this returns the snapshot itself.
+	 */
+	@Override
+	public Object clone()
+	{
+		return this;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Goal space snapshot: "+this.spaces.length+" sub goal-spaces";
+	}
+
+	@Override
+	public void setGoals(Collection<? extends Fact> goals)
+	{
+		throw new UnsupportedOperationException("Goal-space snapshots cannot be modified");
+	}
+
+	@Override
+	public void setProbability(Fact gc, double probability)
+	{
+		throw new UnsupportedOperationException("Goal-space snapshots cannot be modified");
+	}
+
+	@Override
+	public void increment(Fact gc, double increment)
+	{
+		throw new UnsupportedOperationException("Goal-space snapshots cannot be modified");
+	}
+
+	@Override
+	public void decrement(Fact gc, double decrement)
+	{
+		throw new UnsupportedOperationException("Goal-space snapshots cannot be modified");
+	}
+
+	@Override
+	public void multiply(Fact gc, double factor)
+	{
+		throw new UnsupportedOperationException("Goal-space snapshots cannot be modified");
+	}
+
+	@Override
+	public void setMutexes(MutexSpace ms)
+	{
+		throw new UnsupportedOperationException("Goal-space snapshots cannot be modified");
+	}
+
+	@Override
+	public boolean removeGoal(Fact g)
+	{
+		throw new UnsupportedOperationException("Goal-space snapshots cannot be modified");
+	}
+
+	@Override
+	public boolean addGoal(Fact g, double probability)
+	{
+		throw new UnsupportedOperationException("Goal-space snapshots cannot be modified");
+	}
+
+	@Override
+	public void reset()
+	{
+		throw new UnsupportedOperationException("Goal-space snapshots cannot be modified");
+	}
+}
@@ -1,19 +1,27 @@
 package recogniser.hypothesis;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
-import java.util.Map.Entry;
 
 import javaff.data.Fact;
 import javaff.data.MutexSpace;
 import javaff.data.strips.Proposition;
+import recogniser.util.FactDoubleMap;
+import recogniser.util.IGRAPHPreferences;
 
 /**
  * Represents a goal space in which propositions are assumed to be independent of one another
  * and have probabilities associated with them. This goal space has NO completeMutexSpace. Accessing the appropriate
  * methods will return null;
+ * <p/>
+ * If {@link IGRAPHPreferences#LogSpaceProbabilities} is set when the goal space is created, the natural log of each 
+ * probability is stored instead, relative to a normaliser. Bayesian updates then only add the log-likelihood of 
+ * each goal, and the log-sum-exp normaliser is only recomputed the next time a probability is read.
+ * <p/>
+ * In either mode, normalisation is deferred until a probability is read, and skipped entirely if nothing has 
+ * changed since the last normalisation. {@link #getVersion()} can be used to find out whether anything has 
+ * changed between two points in time.
  * @author David Pattison
  *
  */
@@ -22,11 +30,24 @@ public class IndependentGoalSpace implements IGoalSpace
 	
 	private static final MutexSpace EMPTY_MUTEX_SET = new MutexSpace();
 //	private IGoalHeuristic goalHeuristic;
-	protected Map<Fact, Double> goals;
+	protected FactDoubleMap goals;
+	
+	private boolean logSpace;
+	private double logNormaliser; //log of the value which all probabilities are divided by in log-space
+	private volatile boolean normalisationPending; //probabilities must be normalised before they are next read
+	private boolean normalised; //probabilities are known to sum to 1
+	private long version;
+	private volatile GoalRanking ranking; //most probable goals, valid while its version matches
 	
 	public IndependentGoalSpace()
 	{
-		this.goals = new HashMap<Fact, Double>();
+		this.goals = new FactDoubleMap();
+		this.logSpace = IGRAPHPreferences.LogSpaceProbabilities;
+		this.logNormaliser = 0;
+		this.normalisationPending = false;
+		this.normalised = false;
+		this.version = 0;
+		this.ranking = null;
 //		this.goalHeuristic = new 
 	}
 	
@@ -42,17 +63,131 @@ public class IndependentGoalSpace implements IGoalSpace
 		
 //		double prob = 1f/goals.size();
 		for (Fact g : goals)
-			this.goals.put(g, 0d);
+			this.goals.put(g, this.encode(0d));
 	}
 	
 	@Override
 	public Object clone()
 	{
 		IndependentGoalSpace clone = new IndependentGoalSpace();
-		clone.goals = new HashMap<Fact, Double>(this.goals);
+		clone.copyProbabilities(this);
 		return clone;
 	}
 	
+	/**
+	 * Replaces the goals and probabilities in this goal space with a copy of those in the specified goal space.
+	 * @param other
+	 */
+	protected void copyProbabilities(IndependentGoalSpace other)
+	{
+		other.resolveNormalisation();
+		
+		this.goals = (FactDoubleMap) other.goals.clone();
+		this.logSpace = other.logSpace;
+		this.logNormaliser = other.logNormaliser;
+		this.normalisationPending = false;
+		this.normalised = other.normalised;
+		this.version = other.version;
+		this.ranking = other.ranking;
+	}
+	
+	/**
+	 * Returns true if probabilities are stored as logs.
+	 * @return
+	 */
+	public boolean isLogSpace()
+	{
+		return this.logSpace;
+	}
+	
+	/**
+	 * Gets the number of times the probabilities in this goal-space have changed. If this is the same at two 
+	 * points in time, no probability has changed in between.
+	 * @return
+	 */
+	public long getVersion()
+	{
+		return this.version;
+	}
+	
+	/**
+	 * Records that at least one probability has changed.
+	 */
+	protected void markChanged()
+	{
+		++this.version;
+		this.normalised = false;
+	}
+	
+	/**
+	 * Converts a probability into the value stored for it. Any pending normalisation is performed first.
+	 * @param probability
+	 * @return
+	 */
+	protected double encode(double probability)
+	{
+		this.resolveNormalisation();
+		
+		if (this.logSpace == false)
+			return probability;
+		
+		return Math.log(probability) + this.logNormaliser;
+	}
+	
+	/**
+	 * Converts a stored value into the probability it represents. Any pending normalisation must already have 
+	 * been performed.
+	 * @param value
+	 * @return
+	 */
+	protected double decode(double value)
+	{
+		if (this.logSpace == false)
+			return value;
+		
+		return Math.exp(value - this.logNormaliser);
+	}
+	
+	/**
+	 * Performs any normalisation which has been deferred by {@link #normalise()}. In log-space, this only 
+	 * recomputes the log-sum-exp normaliser. Safe to call from multiple reading threads.
+	 */
+	protected void resolveNormalisation()
+	{
+		if (this.normalisationPending == false)
+			return;
+		
+		synchronized (this)
+		{
+			if (this.normalisationPending == false)
+				return;
+			
+			if (this.logSpace == false)
+			{
+				this.goals.divide(this.goals.sum());
+			}
+			else
+			{
+				double max = Double.NEGATIVE_INFINITY;
+				for (int id = this.goals.nextKey(0); id >= 0; id = this.goals.nextKey(id + 1))
+					max = Math.max(max, this.goals.get(id));
+				
+				//if every goal has zero probability, there is nothing to normalise
+				if (max != Double.NEGATIVE_INFINITY)
+				{
+					double total = 0;
+					for (int id = this.goals.nextKey(0); id >= 0; id = this.goals.nextKey(id + 1))
+						total += Math.exp(this.goals.get(id) - max);
+					
+					this.logNormaliser = max + Math.log(total);
+				}
+			}
+			
+			this.normalised = true;
+			this.normalisationPending = false;
+		}
+	}
+	
 	@Override
 	public int size()
 	{
@@ -65,10 +200,10 @@ public class IndependentGoalSpace implements IGoalSpace
 	@Override
 	public void reset()
 	{
-		for (Entry<Fact, Double> entry : this.goals.entrySet())
-		{
-			this.goals.put(entry.getKey(), 0d);
-		}
+		this.logNormaliser = 0;
+		this.normalisationPending = false;
+		this.goals.fill(this.encode(0d));
+		this.markChanged();
 	}
 
 	@Override
@@ -90,7 +225,8 @@ public class IndependentGoalSpace implements IGoalSpace
 		
 //		double prob = 1f/goals.size();
 		for (Fact g : goals)
-			this.goals.put(g, 0d);
+			this.goals.put(g, this.encode(0d));
+		this.markChanged();
 	}
 	
 	/**
@@ -102,12 +238,12 @@ public class IndependentGoalSpace implements IGoalSpace
 	@Override
 	public double getProbability(Fact gc)
 	{
-		Double f = this.goals.get(gc);
-		if (f == null)
+		if (this.goals.containsKey(gc) == false)
 //			return -1;
 			throw new NullPointerException("Cannot find "+gc+" in goal space");
 		
-		return f;
+		this.resolveNormalisation();
+		return this.decode(this.goals.get(gc));
 	}
 		
 	/**
@@ -119,8 +255,251 @@ public class IndependentGoalSpace implements IGoalSpace
 	{
 		this.validateUpdate(gc, probability);
 		
-		this.goals.put(gc, probability);
+		this.goals.put(gc, this.encode(probability));
+		this.markChanged();
+	}
+	
+	/**
+	 * Gets the ID of a goal in this goal-space. IDs are dense and local to this goal-space (and its clones), so can 
+	 * be used to index arrays of size {@link #getGoalIdLimit()}. A goal keeps its ID even if it is removed.
+	 * @param g
+	 * @return The ID, or -1 if the goal has never been in this goal-space.
+	 */
+	public int getGoalId(Fact g)
+	{
+		return this.goals.getIndex().getId(g);
+	}
+	
+	/**
+	 * Gets the goal with the specified ID.
+	 * @param id
+	 * @return
+	 */
+	public Fact getGoal(int id)
+	{
+		return this.goals.getIndex().getFact(id);
+	}
+	
+	/**
+	 * Gets one more than the largest goal ID which has been assigned.
+	 * @return
+	 */
+	public int getGoalIdLimit()
+	{
+		return this.goals.getIndex().getFactCount();
+	}
+	
+	/**
+	 * Gets the ID of the first goal currently in the goal-space, starting from and including the specified ID.
+	 * Iterating with this avoids any hashing of goals.
+	 * @param id
+	 * @return The ID, or -1 if there are no more goals.
+	 */
+	public int nextGoalId(int id)
+	{
+		return this.goals.nextKey(id);
+	}
+	
+	/**
+	 * Gets the probability of the goal with the specified ID.
+	 * @param id
+	 * @return
+	 * @throws NullPointerException If the goal does not exist in this goal-space.
+	 */
+	public double getProbability(int id)
+	{
+		this.resolveNormalisation();
+		return this.decode(this.goals.get(id));
+	}
+	
+	/**
+	 * Sets the probability of the goal with the specified ID.
+	 * @param id
+	 * @param probability
+	 * @throws NullPointerException If the goal does not exist in this goal-space.
+	 * @throws IllegalArgumentException If the probability specified is outwith the range [0:1]
+	 */
+	public void setProbability(int id, double probability)
+	{
+		if (this.goals.containsKey(id) == false)
+			throw new NullPointerException("Goal ID "+id+" is not in goal space");
+		if (probability < 0 || probability > 1)
+			throw new IllegalArgumentException("Probability is not in range [0:1] - "+probability);
 		
+		this.goals.put(id, this.encode(probability));
+		this.markChanged();
+	}
+	
+	/**
+	 * Gets a copy of every probability in the goal-space.
+	 * @return An array of size {@link #getGoalIdLimit()}, indexed by goal ID. Goals which are no longer in the 
+	 * goal-space have a value of NaN.
+	 */
+	public double[] getProbabilities()
+	{
+		this.resolveNormalisation();
+		
+		double[] probs = new double[this.getGoalIdLimit()];
+		Arrays.fill(probs, Double.NaN);
+		for (int id = this.goals.nextKey(0); id >= 0; id = this.goals.nextKey(id + 1))
+			probs[id] = this.decode(this.goals.get(id));
+		
+		return probs;
+	}
+	
+	/**
+	 * Gets an immutable copy of the values stored for every goal. Unlike {@link #getProbabilities()}, no pending
+	 * normalisation is performed and log-space values are not converted, so this only costs a copy of the 
+	 * stored values.
+	 * @return
+	 */
+	GoalSpaceColumn getColumn()
+	{
+		double[] values = new double[this.getGoalIdLimit()];
+		Arrays.fill(values, Double.NaN);
+		
+		//readers may be resolving a pending normalisation, which must not happen part way through the copy
+		synchronized (this)
+		{
+			for (int id = this.goals.nextKey(0); id >= 0; id = this.goals.nextKey(id + 1))
+				values[id] = this.goals.get(id);
+			
+			return new GoalSpaceColumn(values, this.logSpace, this.logNormaliser, this.normalisationPending);
+		}
+	}
+	
+	/**
+	 * Gets the most probable goals in this goal-space. The ranking is only recreated when it is requested after the 
+	 * probabilities have changed, so repeated requests between updates cost nothing.
+	 * @return
+	 * @see #getVersion()
+	 */
+	public GoalRanking getRanking()
+	{
+		this.resolveNormalisation();
+		
+		GoalRanking current = this.ranking;
+		if (current == null || current.getVersion() != this.version)
+		{
+			current = this.rank();
+			this.ranking = current;
+		}
+		
+		return current;
+	}
+	
+	/**
+	 * Creates a ranking of the most probable goals from the current probabilities.
+	 * @return
+	 */
+	protected GoalRanking rank()
+	{
+		long currentVersion = this.version;
+		
+		int[] ids = new int[this.goals.size()];
+		double[] probs = new double[ids.length];
+		int count = 0;
+		for (int id = this.goals.nextKey(0); id >= 0; id = this.goals.nextKey(id + 1))
+		{
+			double p = this.decode(this.goals.get(id));
+			if (Double.isNaN(p))
+				continue;
+			
+			ids[count] = id;
+			probs[count] = p;
+			++count;
+		}
+		
+		//keep every goal at least as probable as the k-th most probable, so ties are never split
+		double threshold = Double.NEGATIVE_INFINITY;
+		if (count > GoalRanking.Size)
+		{
+			double[] sorted = Arrays.copyOf(probs, count);
+			Arrays.sort(sorted);
+			threshold = sorted[count - GoalRanking.Size];
+		}
+		
+		int ranked = 0;
+		for (int i = 0; i < count; i++)
+		{
+			if (probs[i] < threshold)
+				continue;
+			
+			ids[ranked] = ids[i];
+			probs[ranked] = probs[i];
+			++ranked;
+		}
+		
+		//insertion sort is stable, so goals of equal probability stay in ID order
+		for (int i = 1; i < ranked; i++)
+		{
+			int id = ids[i];
+			double p = probs[i];
+			int j = i - 1;
+			while (j >= 0 && probs[j] < p)
+			{
+				ids[j + 1] = ids[j];
+				probs[j + 1] = probs[j];
+				--j;
+			}
+			ids[j + 1] = id;
+			probs[j + 1] = p;
+		}
+		
+		return new GoalRanking(currentVersion, Arrays.copyOf(ids, ranked), Arrays.copyOf(probs, ranked), 
+				ranked == count);
+	}
+	
+	/**
+	 * Divides every probability by the sum of all probabilities, so that they sum to 1. This is deferred until a 
+	 * probability is next read, and does nothing if the probabilities have not changed since they were last 
+	 * normalised.
+	 */
+	public void normalise()
+	{
+		if (this.normalised || this.normalisationPending)
+			return;
+		
+		this.normalisationPending = true;
+		++this.version;
+	}
+	
+	/**
+	 * Performs a Bayesian update of every goal in the goal-space, by multiplying the probability of each goal by
+	 * its likelihood and normalising the result. If every goal has the same likelihood, the normalised 
+	 * probabilities cannot change, so the goal-space is left untouched.
+	 * @param likelihoods The likelihood of each goal, indexed by goal ID.
+	 * @see #getGoalId(Fact)
+	 */
+	public void update(double[] likelihoods)
+	{
+		int first = this.goals.nextKey(0);
+		boolean uniform = true;
+		for (int id = first; id >= 0; id = this.goals.nextKey(id + 1))
+		{
+			if (likelihoods[id] != likelihoods[first])
+			{
+				uniform = false;
+				break;
+			}
+		}
+		
+		if (uniform == false)
+		{
+			//any pending normalisation is subsumed by the one below
+			for (int id = first; id >= 0; id = this.goals.nextKey(id + 1))
+			{
+				double v = this.goals.get(id);
+				if (this.logSpace)
+					this.goals.put(id, v + Math.log(likelihoods[id]));
+				else
+					this.goals.put(id, v * likelihoods[id]);
+			}
+			
+			this.markChanged();
+		}
+		
+		this.normalise();
 	}
 	
 	protected void validateUpdate(Fact gc, double probability)
@@ -145,16 +524,16 @@ public class IndependentGoalSpace implements IGoalSpace
 	private boolean verifyTotal()
 	{
 		double total = 0;
-		for (Double f : this.goals.values())
-			total += f;
+		for (Fact g : this.goals.keySet())
+			total += this.getProbability(g);
 		
 		return total == this.goals.size();
 	}
 	
 	private void setAllProbabilities(double p)
 	{
-		for (Fact g : this.goals.keySet())
-			this.goals.put(g, p);
+		this.goals.fill(this.encode(p));
+		this.markChanged();
 	}
 	
 	
@@ -172,12 +551,16 @@ public class IndependentGoalSpace implements IGoalSpace
 	
 	public boolean removeGoal(Proposition p)
 	{
-		Double rem = this.goals.remove(p);
-		if (rem != null)
+		Double rem = null;
+		if (this.goals.containsKey(p))
 		{	
+			rem = this.getProbability(p);
+			this.goals.remove(p);
+			
 			double inc = rem/(this.goals.size()+1);
 			for (Fact g : this.goals.keySet())
-				this.goals.put(g, this.goals.get(g) + inc);
+				this.goals.put(g, this.encode(this.getProbability(g) + inc));
+			this.markChanged();
 		}
 		
 		return rem == null;
@@ -191,7 +574,7 @@ public class IndependentGoalSpace implements IGoalSpace
 	@Override
 	public void increment(Fact gc, double increment)
 	{
-		double num = this.goals.get(gc) + increment;
+		double num = this.getProbability(gc) + increment;
 		this.setProbability(gc, num);
 	}
 
@@ -203,7 +586,7 @@ public class IndependentGoalSpace implements IGoalSpace
 	@Override
 	public void decrement(Fact gc, double decrement)
 	{
-		double num = this.goals.get(gc) - decrement;
+		double num = this.getProbability(gc) - decrement;
 		this.setProbability(gc, num);
 	}
 
@@ -215,7 +598,7 @@ public class IndependentGoalSpace implements IGoalSpace
 	@Override
 	public void multiply(Fact gc, double factor)
 	{
-		this.setProbability(gc, this.goals.get(gc) * factor);
+		this.setProbability(gc, this.getProbability(gc) * factor);
 	}
 	
 	private boolean checkGoalsForAtomicity(Collection<Fact> goals)
@@ -232,9 +615,9 @@ public class IndependentGoalSpace implements IGoalSpace
 	{
 		StringBuffer strBuf = new StringBuffer();
 		strBuf.append("Independent goal space: \n");
-		for (Entry<Fact, Double> gp : goals.entrySet())
+		for (Fact g : goals.keySet())
 		{
-			strBuf.append(gp.getKey()+" : "+gp.getValue()+"\n");
+			strBuf.append(g+" : "+this.getProbability(g)+"\n");
 		}
 		
 		return strBuf.toString();
@@ -258,7 +641,14 @@ public class IndependentGoalSpace implements IGoalSpace
 	@Override
 	public boolean removeGoal(Fact g)
 	{
-		return this.goals.remove(g) != null;
+		//any pending normalisation applies to the goals present before the removal
+		this.resolveNormalisation();
+		
+		boolean removed = this.goals.remove(g);
+		if (removed)
+			this.markChanged();
+		
+		return removed;
 	}
 
 	@Override
@@ -266,6 +656,10 @@ public class IndependentGoalSpace implements IGoalSpace
 	{
 		this.validateUpdate(g, prob);
 		
-		return this.goals.put(g, prob) == null;
+		boolean added = this.goals.containsKey(g) == false;
+		this.goals.put(g, this.encode(prob));
+		this.markChanged();
+		
+		return added;
 	}
 }
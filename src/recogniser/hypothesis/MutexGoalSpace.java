@@ -17,6 +17,7 @@ import javaff.graph.FactMutex;
 public class MutexGoalSpace extends IndependentGoalSpace
 {
 	private MutexSpace mutexMap;
+	private boolean mutexesShared; //mutexMap is also used by a clone, so must be copied before being modified
 
 	public MutexGoalSpace()
 	{
@@ -64,6 +65,12 @@ public class MutexGoalSpace extends IndependentGoalSpace
 	{
 		super.removeGoal(g);
 		
+		if (this.mutexesShared)
+		{
+			this.mutexMap = (MutexSpace) this.mutexMap.clone();
+			this.mutexesShared = false;
+		}
+		
 		return this.mutexMap.removeMutexes(g);
 	}
 	
@@ -82,14 +89,18 @@ public class MutexGoalSpace extends IndependentGoalSpace
 		return mutexMap.getMutexMap();
 	}
 	
+	/**
+	 * Clones the goal space. The mutex space is shared with the clone until either removes a goal.
+	 */
 	@Override
 	public Object clone()
 	{
-		IndependentGoalSpace igs = (IndependentGoalSpace) super.clone();
 		MutexGoalSpace mgs = new MutexGoalSpace();
-		mgs.goals = igs.goals;
+		mgs.copyProbabilities(this);
 //		mgs.constructMutexes();
-		mgs.mutexMap = (MutexSpace) this.mutexMap.clone();
+		mgs.mutexMap = this.mutexMap;
+		mgs.mutexesShared = true;
+		this.mutexesShared = true;
 //		mgs.normalizedProbabilities = (HashMap<GroundCondition, Double>) this.normalizedProbabilities.clone();
 		return mgs;
 	}	
@@ -160,5 +171,6 @@ public class MutexGoalSpace extends IndependentGoalSpace
 	public void setMutexes(MutexSpace ms)
 	{
 		this.mutexMap = ms;
+		this.mutexesShared = false;
 	}
 }
@@ -3,13 +3,23 @@ package recogniser.hypothesis;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Set;
 
 import javaff.data.Fact;
 import javaff.data.MutexSpace;
+import recogniser.util.FactIndex;
 
 /**
  * A goal space which encapsulates X other goal-spaces.
+ * <p/>
+ * Probabilities are held in columns -- each sub-goal-space stores its probabilities in a contiguous array indexed 
+ * by the goal's ID within that sub-goal-space (its slot). Every goal is also given an ID in this goal space, which
+ * indexes the sub-goal-spaces it appears in and its slot in each, so that lookups and updates across 
+ * sub-goal-spaces are loops over primitive arrays.
+ * <p/>
+ * Clones share the index and the mutex spaces of the original, which are only copied if a goal is removed. 
+ * Consistent read-only views can be taken with {@link #snapshot()}.
  * @author David Pattison
  *
  */
@@ -26,6 +36,16 @@ public class VariableGoalSpace implements IGoalSpace //extends MutexGoalSpace
 	private HashMap<Fact, Set<MutexGoalSpace>> allGoalMutexes;
 	private GoalSetSelectorType selector;
 	private MutexSpace completeMutexSpace;
+	private boolean completeMutexSpaceShared; //also used by a clone or snapshot, so must be copied before being modified
+	
+	//the index is never modified once built, so can be shared by clones and snapshots
+	private MutexGoalSpace[] spaces;
+	private IdentityHashMap<MutexGoalSpace, Integer> spaceIds;
+	private FactIndex goalIndex;
+	private int[][] goalSpaces; //goal ID -> indices into spaces
+	private int[][] goalSlots; //goal ID -> slot in each of goalSpaces
+	
+	private GoalSpaceSnapshot lastSnapshot;
 	
 	private VariableGoalSpace()
 	{
@@ -33,6 +53,12 @@ public class VariableGoalSpace implements IGoalSpace //extends MutexGoalSpace
 		this.selector = GoalSetSelectorType.Max;
 		this.allGoalMutexes = new HashMap<Fact, Set<MutexGoalSpace>>();
 		this.completeMutexSpace = new MutexSpace();
+		this.completeMutexSpaceShared = false;
+		this.spaces = new MutexGoalSpace[0];
+		this.spaceIds = new IdentityHashMap<MutexGoalSpace, Integer>();
+		this.goalIndex = new FactIndex();
+		this.goalSpaces = new int[0][];
+		this.goalSlots = new int[0][];
 	}
 	
 	public VariableGoalSpace(Set<MutexGoalSpace> varSpaces)
@@ -56,12 +82,13 @@ public class VariableGoalSpace implements IGoalSpace //extends MutexGoalSpace
 	}
 	
 	/**
-	 * Populate the fact->(mutexgoalspaces) lookup table and complete mutex goalspace.
+	 * Populate the fact->(mutexgoalspaces) lookup table, the goal->(space, slot) index and complete mutex goalspace.
 	 */
 	protected void initialiseFields()
 	{
 		this.allGoalMutexes = new HashMap<Fact, Set<MutexGoalSpace>>();
-		this.completeMutexSpace.clear();
+		this.completeMutexSpace = new MutexSpace();
+		this.completeMutexSpaceShared = false;
 		for (MutexGoalSpace mgs : this.varGoalSpaces)
 		{
 			//merge together all completeMutexSpace across multiple variable domains
@@ -78,6 +105,70 @@ public class VariableGoalSpace implements IGoalSpace //extends MutexGoalSpace
 				this.allGoalMutexes.get(g).add(mgs);
 			}
 		}
+		
+		this.spaces = this.varGoalSpaces.toArray(new MutexGoalSpace[this.varGoalSpaces.size()]);
+		this.spaceIds = new IdentityHashMap<MutexGoalSpace, Integer>();
+		for (int s = 0; s < this.spaces.length; s++)
+			this.spaceIds.put(this.spaces[s], s);
+		
+		this.goalIndex = new FactIndex();
+		for (Fact g : this.allGoalMutexes.keySet())
+			this.goalIndex.intern(g);
+		
+		int goalCount = this.goalIndex.getFactCount();
+		int[] counts = new int[goalCount];
+		for (MutexGoalSpace mgs : this.spaces)
+		{
+			for (Fact g : mgs.getGoals())
+				++counts[this.goalIndex.getId(g)];
+		}
+		
+		this.goalSpaces = new int[goalCount][];
+		this.goalSlots = new int[goalCount][];
+		for (int id = 0; id < goalCount; id++)
+		{
+			this.goalSpaces[id] = new int[counts[id]];
+			this.goalSlots[id] = new int[counts[id]];
+			counts[id] = 0;
+		}
+		
+		for (int s = 0; s < this.spaces.length; s++)
+		{
+			MutexGoalSpace mgs = this.spaces[s];
+			for (int slot = mgs.nextGoalId(0); slot >= 0; slot = mgs.nextGoalId(slot + 1))
+			{
+				int id = this.goalIndex.getId(mgs.getGoal(slot));
+				this.goalSpaces[id][counts[id]] = s;
+				this.goalSlots[id][counts[id]] = slot;
+				++counts[id];
+			}
+		}
+	}
+	
+	/**
+	 * Gets the ID of a goal in this goal-space. Note that this is not the same as the ID of the goal in any of the
+	 * sub-goal-spaces.
+	 * @param g
+	 * @return The ID, or -1 if the goal is not in this goal-space.
+	 */
+	public int getGoalId(Fact g)
+	{
+		return this.goalIndex.getId(g);
+	}
+	
+	/**
+	 * Gets the goal ID of the specified goal.
+	 * @param g
+	 * @return
+	 * @throws NullPointerException If the goal is not in this goal-space.
+	 */
+	protected int getExistingGoalId(Fact g)
+	{
+		int id = this.goalIndex.getId(g);
+		if (id < 0)
+			throw new NullPointerException("Cannot find "+g+" in goal space");
+		
+		return id;
 	}
 	
 	
@@ -93,15 +184,80 @@ public class VariableGoalSpace implements IGoalSpace //extends MutexGoalSpace
 	{
 		VariableGoalSpace clone = new VariableGoalSpace();
 		clone.selector = this.selector;
-		for (MutexGoalSpace gs : this.varGoalSpaces)
+		
+		//if sub-goal-spaces have been removed from the set directly, the index no longer matches it so 
+		//must be rebuilt
+		if (this.varGoalSpaces.size() != this.spaces.length)
 		{
-			clone.varGoalSpaces.add((MutexGoalSpace) gs.clone());
+			for (MutexGoalSpace gs : this.varGoalSpaces)
+			{
+				clone.varGoalSpaces.add((MutexGoalSpace) gs.clone());
+			}
+			clone.initialiseFields();
+			
+			return clone;
+		}
+		
+		clone.spaces = new MutexGoalSpace[this.spaces.length];
+		clone.spaceIds = new IdentityHashMap<MutexGoalSpace, Integer>();
+		for (int s = 0; s < this.spaces.length; s++)
+		{
+			clone.spaces[s] = (MutexGoalSpace) this.spaces[s].clone();
+			clone.spaceIds.put(clone.spaces[s], s);
+			clone.varGoalSpaces.add(clone.spaces[s]);
+		}
+		
+		//sub-goal-space clones keep the same slots, so the index is still valid
+		clone.goalIndex = this.goalIndex;
+		clone.goalSpaces = this.goalSpaces;
+		clone.goalSlots = this.goalSlots;
+		for (int id = 0; id < this.goalSpaces.length; id++)
+		{
+			Set<MutexGoalSpace> members = new HashSet<MutexGoalSpace>();
+			for (int s : this.goalSpaces[id])
+				members.add(clone.spaces[s]);
+			
+			clone.allGoalMutexes.put(this.goalIndex.getFact(id), members);
 		}
-		clone.initialiseFields();
+		
+		clone.completeMutexSpace = this.completeMutexSpace;
+		clone.completeMutexSpaceShared = true;
+		this.completeMutexSpaceShared = true;
 		
 		return clone;
 	}
 	
+	/**
+	 * Takes an immutable snapshot of the probabilities in this goal space. The snapshot shares the probabilities 
+	 * of every sub-goal-space which has not changed since the last snapshot, so only the sub-goal-spaces which 
+	 * have changed are copied.
+	 * @return
+	 */
+	public GoalSpaceSnapshot snapshot()
+	{
+		GoalSpaceSnapshot last = this.lastSnapshot;
+		if (last != null && last.hasLayout(this.spaces) == false)
+			last = null;
+		
+		long[] versions = new long[this.spaces.length];
+		GoalSpaceColumn[] columns = new GoalSpaceColumn[this.spaces.length];
+		for (int s = 0; s < this.spaces.length; s++)
+		{
+			versions[s] = this.spaces[s].getVersion();
+			if (last != null && last.getVersion(s) == versions[s])
+				columns[s] = last.getColumn(s);
+			else
+				columns[s] = this.spaces[s].getColumn();
+		}
+		
+		this.completeMutexSpaceShared = true;
+		this.lastSnapshot = new GoalSpaceSnapshot(this.spaces, this.spaceIds, versions, columns, 
+				this.goalIndex, this.goalSpaces, this.goalSlots, this.allGoalMutexes.keySet(), 
+				this.completeMutexSpace, this.selector);
+		
+		return this.lastSnapshot;
+	}
+	
 	@Override
 	public String toString()
 	{
@@ -148,19 +304,31 @@ public class VariableGoalSpace implements IGoalSpace //extends MutexGoalSpace
 	 */
 	@Override
 	public double getProbability(Fact g)
+	{
+		return this.getProbability(this.getExistingGoalId(g));
+	}
+	
+	/**
+	 * Returns the probability of the goal with the specified ID, given the selection type specified 
+	 * by setSetSelector().
+	 * @param id
+	 * @return
+	 * @see #getGoalId(Fact)
+	 */
+	public double getProbability(int id)
 	{
 		double p;
 		if (this.selector == GoalSetSelectorType.Max)
 		{
-			p = this.getMaxGoalProbability(g);
+			p = this.getMaxGoalProbability(id);
 		}
 		else if (this.selector == GoalSetSelectorType.Min)
 		{
-			p = this.getMinGoalProbability(g);
+			p = this.getMinGoalProbability(id);
 		}
 		else //Average
 		{
-			p = this.getAverageGoalProbability(g);
+			p = this.getAverageGoalProbability(id);
 		}
 		
 		return p;
@@ -174,24 +342,44 @@ public class VariableGoalSpace implements IGoalSpace //extends MutexGoalSpace
 
 	protected double getAverageGoalProbability(Fact g)
 	{
+		return this.getAverageGoalProbability(this.getExistingGoalId(g));
+	}
+
+	protected double getMinGoalProbability(Fact g)
+	{
+		return this.getMinGoalProbability(this.getExistingGoalId(g));
+	}
+
+	protected double getMaxGoalProbability(Fact g)
+	{
+		return this.getMaxGoalProbability(this.getExistingGoalId(g));
+	}
+
+	protected double getAverageGoalProbability(int id)
+	{
+		int[] gs = this.goalSpaces[id];
+		int[] slots = this.goalSlots[id];
+		
 		double avg = 0;
-		for (MutexGoalSpace gs : this.allGoalMutexes.get(g))
+		for (int i = 0; i < gs.length; i++)
 		{
-			double p = gs.getProbability(g);
-			avg += p;
+			avg += this.spaces[gs[i]].getProbability(slots[i]);
 		}
 		
-		avg = avg / ((double) this.allGoalMutexes.get(g).size());
+		avg = avg / ((double) gs.length);
 		
 		return avg;
 	}
 
-	protected double getMinGoalProbability(Fact g)
+	protected double getMinGoalProbability(int id)
 	{
+		int[] gs = this.goalSpaces[id];
+		int[] slots = this.goalSlots[id];
+		
 		double min = Double.MAX_VALUE;
-		for (MutexGoalSpace gs : this.allGoalMutexes.get(g))
+		for (int i = 0; i < gs.length; i++)
 		{
-			double p = gs.getProbability(g);
+			double p = this.spaces[gs[i]].getProbability(slots[i]);
 			if (p < min)
 				min = p;
 		}
@@ -199,12 +387,15 @@ public class VariableGoalSpace implements IGoalSpace //extends MutexGoalSpace
 		return min;
 	}
 
-	protected double getMaxGoalProbability(Fact g)
+	protected double getMaxGoalProbability(int id)
 	{
+		int[] gs = this.goalSpaces[id];
+		int[] slots = this.goalSlots[id];
+		
 		double max = Double.MIN_VALUE;
-		for (MutexGoalSpace gs : this.allGoalMutexes.get(g))
+		for (int i = 0; i < gs.length; i++)
 		{
-			double p = gs.getProbability(g);
+			double p = this.spaces[gs[i]].getProbability(slots[i]);
 			if (p > max)
 				max = p;
 		}
@@ -218,9 +409,12 @@ public class VariableGoalSpace implements IGoalSpace //extends MutexGoalSpace
 	@Override
 	public void setProbability(Fact gc, double probability)
 	{
-		for (MutexGoalSpace gs : this.allGoalMutexes.get(gc))
+		int id = this.getExistingGoalId(gc);
+		int[] gs = this.goalSpaces[id];
+		int[] slots = this.goalSlots[id];
+		for (int i = 0; i < gs.length; i++)
 		{
-			gs.setProbability(gc, probability);
+			this.spaces[gs[i]].setProbability(slots[i], probability);
 		}
 	}
 
@@ -230,9 +424,13 @@ public class VariableGoalSpace implements IGoalSpace //extends MutexGoalSpace
 	@Override
 	public void increment(Fact gc, double increment)
 	{
-		for (MutexGoalSpace gs : this.allGoalMutexes.get(gc))
+		int id = this.getExistingGoalId(gc);
+		int[] gs = this.goalSpaces[id];
+		int[] slots = this.goalSlots[id];
+		for (int i = 0; i < gs.length; i++)
 		{
-			gs.increment(gc, increment);
+			MutexGoalSpace space = this.spaces[gs[i]];
+			space.setProbability(slots[i], space.getProbability(slots[i]) + increment);
 		}
 	}
 
@@ -242,9 +440,13 @@ public class VariableGoalSpace implements IGoalSpace //extends MutexGoalSpace
 	@Override
 	public void decrement(Fact gc, double decrement)
 	{
-		for (MutexGoalSpace gs : this.allGoalMutexes.get(gc))
+		int id = this.getExistingGoalId(gc);
+		int[] gs = this.goalSpaces[id];
+		int[] slots = this.goalSlots[id];
+		for (int i = 0; i < gs.length; i++)
 		{
-			gs.decrement(gc, decrement);
+			MutexGoalSpace space = this.spaces[gs[i]];
+			space.setProbability(slots[i], space.getProbability(slots[i]) - decrement);
 		}
 	}
 
@@ -254,9 +456,13 @@ public class VariableGoalSpace implements IGoalSpace //extends MutexGoalSpace
 	@Override
 	public void multiply(Fact gc, double factor)
 	{
-		for (MutexGoalSpace gs : this.allGoalMutexes.get(gc))
+		int id = this.getExistingGoalId(gc);
+		int[] gs = this.goalSpaces[id];
+		int[] slots = this.goalSlots[id];
+		for (int i = 0; i < gs.length; i++)
 		{
-			gs.multiply(gc, factor);
+			MutexGoalSpace space = this.spaces[gs[i]];
+			space.setProbability(slots[i], space.getProbability(slots[i]) * factor);
 		}
 	}
 
@@ -299,6 +505,11 @@ public class VariableGoalSpace implements IGoalSpace //extends MutexGoalSpace
 				wasRemoved = true;
 		}
 		
+		if (this.completeMutexSpaceShared)
+		{
+			this.completeMutexSpace = (MutexSpace) this.completeMutexSpace.clone();
+			this.completeMutexSpaceShared = false;
+		}
 		this.completeMutexSpace.removeMutexes(g);
 		
 		return wasRemoved;
@@ -0,0 +1,110 @@
+package recogniser.learning.likelihood;
+
+import java.util.Collection;
+
+import javaff.data.Fact;
+import recogniser.hypothesis.MutexGoalSpace;
+import recogniser.util.StateHistory;
+
+/**
+ * Maintains a running count of the observations in which no goal in a {@link MutexGoalSpace} moved heuristically
+ * nearer, for use in the maximum-likelihood score of an {@link recogniser.hypothesis.AllFalseGoal}. Each
+ * observation is only classified once, so that each query is O(1) amortised rather than O(history x goals).
+ * <p/>
+ * The classification of an observation uses the goals in the goal-space at the time it is first counted. If
+ * the size of the goal-space changes, the count is recomputed from the start of the history.
+ *
+ * @author David Pattison
+ *
+ */
+public class UselessStepAccumulator
+{
+	private final MutexGoalSpace goalSpace;
+
+	private Fact excludedGoal;
+	private int goalCount;
+	private int lastStep;
+	private double runningTotal; //total of useless steps 2..lastStep
+	private boolean lastUseless;
+
+	/**
+	 * Creates an accumulator for the specified goal-space.
+	 * @param mgs
+	 */
+	public UselessStepAccumulator(MutexGoalSpace mgs)
+	{
+		this.goalSpace = mgs;
+		this.excludedGoal = null;
+		this.reset();
+	}
+
+	/**
+	 * Clears all counts.
+	 */
+	public synchronized void reset()
+	{
+		this.goalCount = this.goalSpace.size();
+		this.lastStep = 0;
+		this.runningTotal = 0;
+		this.lastUseless = false;
+	}
+
+	/**
+	 * Gets the number of observations in which no goal other than the excluded goal moved nearer. This mirrors
+	 * the observations scanned by the original loop over history tuples 1..N, where tuple i holds the
+	 * classification of observation i+1, except for the last tuple which holds the same classification
+	 * as its predecessor (observation N).
+	 *
+	 * @param history The state history.
+	 * @param observedSteps The number of observations so far.
+	 * @param excluded The goal to ignore, usually the AllFalseGoal of the goal-space.
+	 * @return The number of useless steps.
+	 */
+	public synchronized double getUselessStepCount(StateHistory history, int observedSteps, Fact excluded)
+	{
+		if (excluded.equals(this.excludedGoal) == false || this.goalCount != this.goalSpace.size() ||
+				observedSteps < this.lastStep)
+		{
+			this.excludedGoal = excluded;
+			this.reset();
+		}
+
+		for (int k = this.lastStep + 1; k <= observedSteps; k++)
+		{
+			//observation K is always held by tuple K-1 once it has been observed
+			boolean useless = this.isUseless(history.get(k - 1).getNearer());
+			if (k >= 2 && useless)
+				++this.runningTotal;
+
+			this.lastUseless = useless;
+			this.lastStep = k;
+		}
+
+		if (observedSteps <= 0)
+			return 0;
+		else if (observedSteps == 1)
+			return this.lastUseless ? 1 : 0;
+		else
+			return this.runningTotal + (this.lastUseless ? 1 : 0);
+	}
+
+	private boolean isUseless(Collection<Fact> nearer)
+	{
+		for (Fact f : this.goalSpace.getGoals())
+		{
+			// assume only 1 AllFalseGoal in a mutex set
+			if (f.equals(this.excludedGoal))
+				continue;
+
+			if (nearer.contains(f))
+				return false;
+		}
+
+		return true;
+	}
+
+	public MutexGoalSpace getGoalSpace()
+	{
+		return goalSpace;
+	}
+}
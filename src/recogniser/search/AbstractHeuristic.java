@@ -1,24 +1,25 @@
 package recogniser.search;
 
-import java.util.HashMap;
-
 import javaff.data.Fact;
 import javaff.search.UnreachableGoalException;
+import recogniser.util.HybridSasPddlProblem;
+import recogniser.util.IGRAPHPreferences;
 
 /**
  * Implementaiton of {@link IHeuristic} which caches estimates to allow for faster processing. Must be reset through a call
- * to {@link #reset()} once estimates need updated.
+ * to {@link #reset()} once estimates need updated. The cache is thread-safe, and each estimate is only computed once
+ * even if several threads request it at the same time.
  * @author David Pattison
  *
  */
 public abstract class AbstractHeuristic implements IHeuristic
 {
 	
-	protected HashMap<Fact, Double> lookup;
+	protected EstimateCache lookup;
 
 	public AbstractHeuristic()
 	{
-		this.lookup = new HashMap<Fact, Double>();
+		this.lookup = new EstimateCache(IGRAPHPreferences.EstimateCacheSize);
 	}
 	
 	public abstract Object clone();
@@ -29,18 +30,43 @@ public abstract class AbstractHeuristic implements IHeuristic
 	 */
 	public double getEstimate(Fact goal) throws UnreachableGoalException
 	{
-		double h;
-		if (this.lookup.containsKey(goal))
-		{
-			h = this.lookup.get(goal);
-			this.lookup.put(goal, h);
-		}
-		else
+		return this.lookup.get(goal, this);
+	}
+	
+	/**
+	 * Gets the cache of estimates computed since the last call to {@link #reset()}, which also records 
+	 * hit/miss statistics.
+	 * @return
+	 */
+	public EstimateCache getEstimateCache()
+	{
+		return this.lookup;
+	}
+	
+	/**
+	 * Gets the estimate to each goal through repeated calls to {@link #getEstimate(Fact)}. Subclasses which 
+	 * can share work between goals should override this. If the batch is abandoned by the 
+	 * {@link ThreadedHeuristicManager}, the remaining goals are left unestimated.
+	 */
+	public double[] getEstimates(Fact[] goals)
+	{
+		double[] estimates = new double[goals.length];
+		for (int i = 0; i < goals.length; i++)
 		{
-			h = this.computeEstimate(goal);
+			if (ThreadedHeuristicManager.isCurrentBatchAbandoned())
+				break;
+			
+			try
+			{
+				estimates[i] = this.getEstimate(goals[i]);
+			}
+			catch (UnreachableGoalException e)
+			{
+				estimates[i] = IHeuristic.Unreachable;
+			}
 		}
 		
-		return h;
+		return estimates;
 	}
 	
 	/**
@@ -61,4 +87,32 @@ public abstract class AbstractHeuristic implements IHeuristic
 	{
 		this.lookup.clear();
 	}
+	
+	/**
+	 * Returns false. Subclasses which can be used by several threads at once should override this.
+	 */
+	public boolean isThreadSafe()
+	{
+		return false;
+	}
+	
+	/**
+	 * Returns this heuristic if it is thread-safe, otherwise a clone.
+	 */
+	public IHeuristic fork(Fact goal)
+	{
+		if (this.isThreadSafe())
+			return this;
+		
+		return (IHeuristic) this.clone();
+	}
+	
+	/**
+	 * Does nothing, as the cache has already been cleared by {@link #reset()}.
+	 * @return This heuristic.
+	 */
+	public IHeuristic stateChanged(HybridSasPddlProblem problem)
+	{
+		return this;
+	}
 }
@@ -1,9 +1,16 @@
 package recogniser.search;
 
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.TreeSet;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
+import recogniser.util.DtgDistanceTable;
 import recogniser.util.HybridSasPddlProblem;
+import recogniser.util.IGRAPHPreferences;
 import sas.data.CausalGraph;
 import sas.data.SASLiteral;
 import sas.data.SASProposition;
@@ -13,6 +20,7 @@ import sas.search.CeaHeuristic;
 import javaff.data.Fact;
 import javaff.data.strips.Not;
 import javaff.data.strips.Proposition;
+import javaff.planning.STRIPSState;
 import javaff.search.UnreachableGoalException;
 
 /**
@@ -27,6 +35,19 @@ public class CEAHeuristic extends AbstractHeuristic
 	private HashMap<Fact, SASLiteral> factLookup;
 	
 	private CeaHeuristic heuristic;
+	
+	/**
+	 * Precomputed DTG distances, and the value of each variable in the current state.
+	 */
+	private DtgDistanceTable distances;
+	private volatile int[] currentValues;
+	
+	/**
+	 * As CEA is additive, goal estimates are the sum of the estimates of their literals. In incremental mode,
+	 * the estimate of each literal is kept between states until one of the variables it depends upon changes.
+	 * Shared by all branches.
+	 */
+	private ConcurrentHashMap<SASLiteral, Double> literalCosts;
 
 	/**
 	 * Internal method for creating object without initialising fields. Primarily for 
@@ -37,6 +58,7 @@ public class CEAHeuristic extends AbstractHeuristic
 		super();
 		
 		this.problem = null;	
+		this.literalCosts = new ConcurrentHashMap<SASLiteral, Double>();
 	}
 	
 	/**
@@ -64,6 +86,9 @@ public class CEAHeuristic extends AbstractHeuristic
 		}
 
 		this.heuristic = new CeaHeuristic(this.problem.getCausalGraph());
+		
+		this.distances = this.problem.getDtgDistances();
+		this.updateCurrentValues();
 	}
 	
 	/**
@@ -82,12 +107,24 @@ public class CEAHeuristic extends AbstractHeuristic
 		clone.heuristic = this.heuristic.branch();
 		clone.lookup = this.lookup;
 		clone.problem = this.problem;
+		clone.distances = this.distances;
+		clone.currentValues = this.currentValues;
+		clone.literalCosts = this.literalCosts;
 		
 		return clone;		
 	}
 
 	/**
-	 * Forwards to {@link #getEstimate(Fact)}
+	 * Returns a {@link #branch()} of this heuristic.
+	 */
+	@Override
+	public IHeuristic fork(Fact goal)
+	{
+		return this.branch();
+	}
+
+	/**
+	 * Forwards to {@link #getEstimate(Fact, SASState)} with the current state as the second parameter.
 	 */
 	@Override
 	public double computeEstimate(Fact goals) throws UnreachableGoalException
@@ -99,16 +136,6 @@ public class CEAHeuristic extends AbstractHeuristic
 		return est;
 	}
 	
-	/**
-	 * Forwards to {@link #getEstimate(Fact, SASState)} with the initial state as the second parameter.
-	 */
-	@Override
-	public double getEstimate(Fact goal) throws UnreachableGoalException
-	{
-		return this.getEstimate(goal, this.problem.sasproblem.getCurrentState());
-	}
-	
-	
 	/**
 	 * Get the context enhanced additive heuristic's estimate to the goal specified. This is the sum of the
 	 * individual goals estimates.
@@ -125,6 +152,7 @@ public class CEAHeuristic extends AbstractHeuristic
 			//normally, could just send the conjunctive goal to the CGH, but we want faster lookups so send each one individually and remember the
 			//estimate for it, in case it is seen in the future. Thus, only 1 plan needs to ever be computed per fact.
 			TreeSet<SASLiteral> sasGoals = new TreeSet<>();
+			boolean allPositive = true;
 			for (Fact g : goal.getFacts())
 			{
 				boolean positive = true;
@@ -138,6 +166,17 @@ public class CEAHeuristic extends AbstractHeuristic
 					sasGoal = this.factLookup.get(g);
 				
 				sasGoals.add(sasGoal);
+				allPositive &= positive;
+			}
+			
+			if (allPositive && initial == this.problem.sasproblem.getCurrentState())
+			{
+				double dtgEstimate = this.getDtgEstimate(sasGoals);
+				if (dtgEstimate >= 0)
+					return dtgEstimate;
+				
+				if (IGRAPHPreferences.IncrementalCEA && this.distances != null)
+					return this.getIncrementalEstimate(sasGoals, initial);
 			}
 
 			SASState s = (SASState) initial.clone();
@@ -170,17 +209,125 @@ public class CEAHeuristic extends AbstractHeuristic
 		
 		clone.factLookup = (HashMap<Fact, SASLiteral>) this.factLookup.clone();
 		clone.heuristic = (CeaHeuristic) this.heuristic.clone();
-		clone.lookup = (HashMap<Fact, Double>) this.lookup.clone();
+		clone.lookup = (EstimateCache) this.lookup.clone();
 		clone.problem = (HybridSasPddlProblem) this.problem.clone();
-		
+		clone.distances = this.distances;
+		clone.currentValues = this.currentValues;
+		clone.literalCosts = new ConcurrentHashMap<SASLiteral, Double>(this.literalCosts);
+
 		return clone;
 	}
 
+	/**
+	 * Gets the estimate of a set of positive literals from the precomputed DTG distances, if they are sufficient.
+	 * As CEA is additive, this is possible if every literal is either true, on a variable with no
+	 * causal graph parents, or unreachable.
+	 * @param goals
+	 * @return The estimate, or -1 if a search is required.
+	 */
+	protected double getDtgEstimate(Collection<SASLiteral> goals)
+	{
+		int[] values = this.currentValues;
+		if (this.distances == null || values == null)
+			return -1;
+		
+		double total = 0;
+		boolean exact = true;
+		for (SASLiteral g : goals)
+		{
+			int d = this.distances.getDistance(values, g);
+			if (d == DtgDistanceTable.Unreachable)
+				return IHeuristic.Unreachable;
+			else if (d == 0 || (d > 0 && this.distances.isRoot(g.getVariableId())))
+				total += d;
+			else
+				exact = false; //keep checking for unreachable literals
+		}
+		
+		return exact ? total : -1;
+	}
+	
+	/**
+	 * Gets the estimate of a set of positive literals as the sum of their individual estimates, reusing any 
+	 * literal estimates which are still valid from previous states.
+	 * @param goals
+	 * @param initial The current state.
+	 * @return
+	 */
+	protected double getIncrementalEstimate(Collection<SASLiteral> goals, SASState initial)
+	{
+		double total = 0;
+		for (SASLiteral g : goals)
+		{
+			Double cost = this.literalCosts.get(g);
+			if (cost == null)
+			{
+				TreeSet<SASLiteral> single = new TreeSet<>();
+				single.add(g);
+				try
+				{
+					cost = this.heuristic.getEstimate((SASState) initial.clone(), single);
+				}
+				catch (UnreachableGoalException e)
+				{
+					cost = IHeuristic.Unreachable;
+				}
+				
+				this.literalCosts.put(g, cost);
+			}
+			
+			if (cost == IHeuristic.Unreachable)
+				return IHeuristic.Unreachable;
+			
+			total += cost;
+		}
+		
+		return total;
+	}
+	
+	/**
+	 * Records the value of each variable in the problem's current state, for use with the DTG distances. Any
+	 * literal estimates which depend upon a variable whose value has changed are discarded.
+	 */
+	protected void updateCurrentValues()
+	{
+		if (this.distances == null || this.problem == null)
+			return;
+		
+		int[] oldValues = this.currentValues;
+		int[] newValues = this.distances.projectState(((STRIPSState) this.problem.getState()).getTrueFacts());
+		this.currentValues = newValues;
+		
+		if (oldValues == null)
+		{
+			this.literalCosts.clear();
+			return;
+		}
+		
+		BitSet changed = new BitSet(newValues.length);
+		for (int v = 0; v < newValues.length; v++)
+		{
+			if (oldValues[v] != newValues[v])
+				changed.set(v);
+		}
+		
+		if (changed.isEmpty())
+			return;
+		
+		Iterator<Entry<SASLiteral, Double>> iter = this.literalCosts.entrySet().iterator();
+		while (iter.hasNext())
+		{
+			BitSet relevant = this.distances.getRelevantVariables(iter.next().getKey().getVariableId());
+			if (relevant == null || relevant.intersects(changed))
+				iter.remove();
+		}
+	}
+
 	@Override
 	public void reset()
 	{
 		super.reset();
 		
-		
+		this.updateCurrentValues();
 	}
 }
@@ -4,11 +4,15 @@ package recogniser.search;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javaff.data.Fact;
 import javaff.data.strips.Not;
 import javaff.data.strips.Proposition;
+import javaff.planning.STRIPSState;
 import recogniser.search.IHeuristic;
+import recogniser.util.DtgDistanceTable;
 import recogniser.util.HybridSasPddlProblem;
 import sas.data.DomainTransitionGraph;
 import sas.data.SASLiteral;
@@ -34,9 +38,23 @@ public class CGHeuristic extends AbstractHeuristic
 	
 	/**
 	 * Because CGH is just the sum of each individual literal's distance to the goal, a lookup can be used for any goals which have already had an h(G) value 
-	 * computed. This must be reset (or the object destroyed) after the current/initial state changes!
+	 * computed. This must be reset (or the object destroyed) after the current/initial state changes! Shared by all threads.
 	 */
-	private HashMap<Fact, Double> previousDists;
+	private ConcurrentHashMap<Fact, Double> previousDists;
+	
+	/**
+	 * The JavaSAS heuristic caches the DTG distances it computes internally, but is not thread-safe. So rather
+	 * than creating a new (empty) heuristic for every literal, each thread keeps its own caching heuristic, which
+	 * is reused by every goal that thread estimates until the state changes.
+	 */
+	private ThreadLocal<ThreadHeuristic> threadHeuristics;
+	private AtomicInteger stateVersion;
+	
+	/**
+	 * Precomputed DTG distances, and the value of each variable in the current state.
+	 */
+	private DtgDistanceTable distances;
+	private volatile int[] currentValues;
 	
 
 	/**
@@ -46,9 +64,13 @@ public class CGHeuristic extends AbstractHeuristic
 	{
 		this.problem = null;
 		this.heuristic = null;
-		this.previousDists = new HashMap<Fact, Double>();
+		this.previousDists = new ConcurrentHashMap<Fact, Double>();
 		
 		this.factLookup = new HashMap<Fact, SASLiteral>();
+		this.stateVersion = new AtomicInteger();
+		this.threadHeuristics = new ThreadLocal<ThreadHeuristic>();
+		this.distances = null;
+		this.currentValues = null;
 	}
 	
 	/**
@@ -69,6 +91,9 @@ public class CGHeuristic extends AbstractHeuristic
 			Proposition p = l.convertToPDDL(this.problem.sasproblem, this.problem);
 			this.factLookup.put(p, l);
 		}
+		
+		this.distances = this.problem.getDtgDistances();
+		this.updateCurrentValues();
 	}
 	
 	@Override
@@ -78,9 +103,11 @@ public class CGHeuristic extends AbstractHeuristic
 		
 		clone.factLookup = (HashMap<Fact, SASLiteral>) this.factLookup.clone();
 		clone.heuristic = (CausalGraphHeuristic) this.heuristic.clone();
-		clone.lookup = (HashMap<Fact, Double>) this.lookup.clone();
-		clone.previousDists = (HashMap<Fact, Double>) this.previousDists.clone();
+		clone.lookup = (EstimateCache) this.lookup.clone();
+		clone.previousDists = new ConcurrentHashMap<Fact, Double>(this.previousDists);
 		clone.problem = (HybridSasPddlProblem) this.problem.clone();
+		clone.distances = this.distances;
+		clone.currentValues = this.currentValues;
 		
 		return clone;
 	}
@@ -90,11 +117,10 @@ public class CGHeuristic extends AbstractHeuristic
 	 */
 	public void reset()
 	{
-		synchronized (this.previousDists)
-		{
-			this.previousDists.clear();
-		}
+		this.previousDists.clear();
 		this.heuristic.resetCache();
+		this.stateVersion.incrementAndGet(); //invalidates every thread's heuristic cache
+		this.updateCurrentValues();
 		
 		super.reset();
 	}
@@ -133,15 +159,12 @@ public class CGHeuristic extends AbstractHeuristic
 			for (Fact g : goal.getFacts())
 			{
 				//if the plan for this has already been computed, use it instead of searching again
-				synchronized (this.previousDists)
+				Double existing = this.previousDists.get(g);
+				if (existing != null)
 				{
-					if (this.previousDists.containsKey(g))
-					{
-						double existing = this.previousDists.get(g);
-						totalPlan += existing;
-						
-						continue;
-					}
+					totalPlan += existing;
+					
+					continue;
 				}
 				
 				SASLiteral sasGoal = null;
@@ -160,22 +183,34 @@ public class CGHeuristic extends AbstractHeuristic
 //				if (sas == null)
 //					throw new NullPointerException("Cannot find "+g);
 				
+				//the precomputed DTG distances are enough to answer goals which are true, on a variable with no
+				//causal graph parents, or unreachable, without any search
+				if (g instanceof Not == false && sasGoal != null && initial == this.problem.sasproblem.getCurrentState())
+				{
+					double dtgDist = this.getDtgEstimate(sasGoal);
+					if (dtgDist >= 0)
+					{
+						totalPlan += dtgDist;
+						this.previousDists.put(g, dtgDist);
+						
+						continue;
+					}
+				}
+				
 				HashMap<Integer, Integer> singleGoalSet = new HashMap<Integer, Integer>(); //need a Map for goals
 				singleGoalSet.put(sasGoal.getVariableId(), sasGoal.getValueId()); //which contains only a single var-val mapping
 				
 				//bit of a hack to get multi-threading working- could be done inside the heuristic itself, but that's really shoving AUTOGRAPH work into 
 				//non-AUTOGRAPH projects
 //				CausalGraphHeuristic newHeuristic = (CausalGraphHeuristic) this.heuristic.clone();
-				CausalGraphHeuristic newHeuristic = new CausalGraphHeuristic(this.problem.sasproblem, false);
-				double plan = newHeuristic.getEstimate(initial, sasGoal);
+//				CausalGraphHeuristic newHeuristic = new CausalGraphHeuristic(this.problem.sasproblem, false);
+				CausalGraphHeuristic threadHeuristic = this.getThreadHeuristic();
+				double plan = threadHeuristic.getEstimate(initial, sasGoal);
 				
 				//append single goal plan
 				totalPlan += plan;
 				
-				synchronized (this.previousDists)
-				{
-					this.previousDists.put(g, plan); //remember that g can be a Not
-				}
+				this.previousDists.put(g, plan); //remember that g can be a Not
 			}
 			
 			return (double) totalPlan;
@@ -242,6 +277,92 @@ public class CGHeuristic extends AbstractHeuristic
 
 	
 
+	/**
+	 * Gets the estimate of a single literal from the precomputed DTG distances, if they are sufficient.
+	 * @param goal
+	 * @return The estimate, or -1 if a search is required.
+	 */
+	protected double getDtgEstimate(SASLiteral goal)
+	{
+		int[] values = this.currentValues;
+		if (this.distances == null || values == null)
+			return -1;
+		
+		int d = this.distances.getDistance(values, goal);
+		if (d == DtgDistanceTable.Unreachable)
+			return (double) CausalGraphHeuristic.Unreachable;
+		else if (d == 0 || (d > 0 && this.distances.isRoot(goal.getVariableId())))
+			return d;
+		
+		return -1;
+	}
+	
+	/**
+	 * Records the value of each variable in the problem's current state, for use with the DTG distances.
+	 */
+	protected void updateCurrentValues()
+	{
+		if (this.distances == null || this.problem == null)
+			return;
+		
+		this.currentValues = this.distances.projectState(((STRIPSState) this.problem.getState()).getTrueFacts());
+	}
+	
+	/**
+	 * Gets the caching heuristic of the current thread, clearing its cache if the state has changed since
+	 * it was last used.
+	 * @return
+	 */
+	protected CausalGraphHeuristic getThreadHeuristic()
+	{
+		ThreadHeuristic th = this.threadHeuristics.get();
+		int version = this.stateVersion.get();
+		if (th == null || th.problem != this.problem.sasproblem)
+		{
+			th = new ThreadHeuristic();
+			th.problem = this.problem.sasproblem;
+			th.heuristic = new CausalGraphHeuristic(this.problem.sasproblem, true);
+			th.version = version;
+			this.threadHeuristics.set(th);
+		}
+		else if (th.version != version)
+		{
+			th.heuristic.resetCache();
+			th.version = version;
+		}
+		
+		return th.heuristic;
+	}
+	
+	/**
+	 * A thread's caching heuristic, and the state version its cache is valid for.
+	 */
+	private static class ThreadHeuristic
+	{
+		public Object problem;
+		public CausalGraphHeuristic heuristic;
+		public int version;
+	}
+
+	/**
+	 * Returns true, as each thread uses its own caching {@link CausalGraphHeuristic}.
+	 */
+	@Override
+	public boolean isThreadSafe()
+	{
+		return true;
+	}
+	
+	/**
+	 * Switches to the specified problem, which invalidates every thread's cache.
+	 */
+	@Override
+	public IHeuristic stateChanged(HybridSasPddlProblem problem)
+	{
+		this.setProblem(problem);
+		return this;
+	}
+
 	public HybridSasPddlProblem getProblem()
 	{
 		return problem;
@@ -251,5 +372,7 @@ public class CGHeuristic extends AbstractHeuristic
 	{
 		this.problem = problem;
 		this.heuristic = new CausalGraphHeuristic(this.problem.sasproblem, true);
+		this.stateVersion.incrementAndGet();
+		this.updateCurrentValues();
 	}
 }
@@ -0,0 +1,223 @@
+package recogniser.search;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javaff.data.Fact;
+import javaff.search.UnreachableGoalException;
+
+/**
+ * A thread-safe memoisation table for heuristic estimates. Each goal is computed at most once between calls
+ * to {@link #clear()} -- if several threads request the same goal at once, one computes the estimate and
+ * the others wait for its result. Unreachable goals are remembered in the same way, and rethrow their
+ * {@link UnreachableGoalException}.
+ * <p/>
+ * The table can optionally be bounded in size, in which case arbitrary completed estimates are evicted once
+ * the bound is exceeded.
+ *
+ * @author David Pattison
+ *
+ */
+public class EstimateCache
+{
+	private ConcurrentHashMap<Fact, FutureTask<Double>> estimates;
+	private int maximumSize;
+
+	private AtomicLong hits, misses, evictions;
+
+	/**
+	 * Creates an unbounded cache.
+	 */
+	public EstimateCache()
+	{
+		this(0);
+	}
+
+	/**
+	 * Creates a cache which holds at most the specified number of estimates.
+	 * @param maximumSize The maximum number of estimates, or 0 if the cache is unbounded.
+	 */
+	public EstimateCache(int maximumSize)
+	{
+		this.estimates = new ConcurrentHashMap<Fact, FutureTask<Double>>();
+		this.maximumSize = maximumSize;
+
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.evictions = new AtomicLong();
+	}
+
+	/**
+	 * Creates a copy of the cache containing all completed estimates. Statistics are not copied.
+	 */
+	@Override
+	public Object clone()
+	{
+		EstimateCache clone = new EstimateCache(this.maximumSize);
+		for (Entry<Fact, FutureTask<Double>> e : this.estimates.entrySet())
+		{
+			if (e.getValue().isDone())
+				clone.estimates.put(e.getKey(), e.getValue());
+		}
+
+		return clone;
+	}
+
+	/**
+	 * Gets the estimate to the goal, computing it with the specified heuristic if it is not already known.
+	 * @param goal The goal.
+	 * @param heuristic The heuristic used to compute the estimate, if it is not already cached.
+	 * @return The estimate.
+	 * @throws UnreachableGoalException Thrown if the goal is unreachable.
+	 */
+	public double get(final Fact goal, final AbstractHeuristic heuristic) throws UnreachableGoalException
+	{
+		FutureTask<Double> task = this.estimates.get(goal);
+		if (task == null)
+		{
+			FutureTask<Double> newTask = new FutureTask<Double>(new Callable<Double>()
+			{
+				@Override
+				public Double call() throws Exception
+				{
+					return heuristic.computeEstimate(goal);
+				}
+			});
+
+			task = this.estimates.putIfAbsent(goal, newTask);
+			if (task == null)
+			{
+				//this thread is responsible for computing the estimate
+				task = newTask;
+				this.misses.incrementAndGet();
+
+				task.run();
+				this.evict(goal);
+			}
+			else
+			{
+				this.hits.incrementAndGet();
+			}
+		}
+		else
+		{
+			this.hits.incrementAndGet();
+		}
+
+		try
+		{
+			return task.get();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof UnreachableGoalException)
+				throw (UnreachableGoalException) e.getCause();
+
+			//do not remember unexpected failures
+			this.estimates.remove(goal, task);
+
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+
+			throw new RuntimeException(e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+
+			throw new RuntimeException("Interrupted while waiting for estimate of "+goal, e);
+		}
+	}
+
+	/**
+	 * Removes completed estimates until the cache is within its size bound. The specified goal is never removed.
+	 * @param keep
+	 */
+	private void evict(Fact keep)
+	{
+		if (this.maximumSize <= 0 || this.estimates.size() <= this.maximumSize)
+			return;
+
+		Iterator<Entry<Fact, FutureTask<Double>>> iter = this.estimates.entrySet().iterator();
+		while (iter.hasNext() && this.estimates.size() > this.maximumSize)
+		{
+			Entry<Fact, FutureTask<Double>> e = iter.next();
+			if (e.getValue().isDone() == false || e.getKey().equals(keep))
+				continue;
+
+			iter.remove();
+			this.evictions.incrementAndGet();
+		}
+	}
+
+	public boolean containsKey(Fact goal)
+	{
+		return this.estimates.containsKey(goal);
+	}
+
+	/**
+	 * Removes all estimates. Statistics are unaffected.
+	 */
+	public void clear()
+	{
+		this.estimates.clear();
+	}
+
+	public int size()
+	{
+		return this.estimates.size();
+	}
+
+	public int getMaximumSize()
+	{
+		return maximumSize;
+	}
+
+	/**
+	 * Gets the number of requests which were answered from the cache, including those which waited for
+	 * another thread to finish computing the estimate.
+	 * @return
+	 */
+	public long getHitCount()
+	{
+		return this.hits.get();
+	}
+
+	/**
+	 * Gets the number of requests which required the estimate to be computed.
+	 * @return
+	 */
+	public long getMissCount()
+	{
+		return this.misses.get();
+	}
+
+	public long getEvictionCount()
+	{
+		return this.evictions.get();
+	}
+
+	/**
+	 * Resets the hit, miss and eviction counts to zero.
+	 */
+	public void resetStatistics()
+	{
+		this.hits.set(0);
+		this.misses.set(0);
+		this.evictions.set(0);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Estimate cache: "+this.size()+" estimates, "+this.getHitCount()+" hits, "+this.getMissCount()+" misses, "+
+				this.getEvictionCount()+" evictions";
+	}
+}
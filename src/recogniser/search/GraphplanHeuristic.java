@@ -1,12 +1,19 @@
 package recogniser.search;
 
+import java.util.List;
+
+import recogniser.util.HybridSasPddlProblem;
+import recogniser.util.IGRAPHPreferences;
+import recogniser.util.MutexPlanningGraph;
 import javaff.search.UnreachableGoalException;
+import javaff.data.Action;
 import javaff.data.Fact;
 import javaff.data.GroundFact;
 import javaff.data.GroundProblem;
 import javaff.data.Plan;
 import javaff.data.TotalOrderPlan;
 import javaff.planning.PlanningGraph;
+import javaff.planning.STRIPSState;
 import javaff.planning.State;
 
 public class GraphplanHeuristic extends AbstractHeuristic
@@ -14,39 +21,83 @@ public class GraphplanHeuristic extends AbstractHeuristic
 	private PlanningGraph pg;
 	private GroundProblem problem;
 	
+	/**
+	 * If not null, the heuristic is in shared mode, and all goals are searched for in this graph, which is
+	 * expanded once per state. The search is non-destructive, so a single instance can be used by 
+	 * multiple threads.
+	 */
+	private MutexPlanningGraph sharedGraph;
+	
 	public GraphplanHeuristic(GroundProblem gp)
 	{		
 		this.problem = gp;
 		this.problem.getSTRIPSInitialState(); //force setup of current state
-		this.pg = new PlanningGraph(this.problem);
+		if (IGRAPHPreferences.SharedPlanningGraph)
+		{
+			this.sharedGraph = new MutexPlanningGraph(this.problem.getActions());
+			this.sharedGraph.construct((STRIPSState) this.problem.getState());
+		}
+		else
+		{
+			this.pg = new PlanningGraph(this.problem);
+		}
 	}
 	
+	/**
+	 * Creates a shared-mode heuristic which uses an existing graph.
+	 * @param gp
+	 * @param sharedGraph
+	 */
+	protected GraphplanHeuristic(GroundProblem gp, MutexPlanningGraph sharedGraph)
+	{
+		this.problem = gp;
+		this.sharedGraph = sharedGraph;
+	}
+	
+	/**
+	 * In shared mode, the clone uses the same planning graph and problem, as neither is modified by a search.
+	 */
 	public Object clone()
 	{
+		if (this.isShared())
+		{
+			GraphplanHeuristic clone = new GraphplanHeuristic(this.problem, this.sharedGraph);
+			clone.lookup = (EstimateCache) this.lookup.clone();
+			return clone;
+		}
+		
 		GroundProblem gp = (GroundProblem) this.problem.clone();
 		gp.getSTRIPSInitialState(); //FIXME shouldnt do this here, should be in clone()
 		GraphplanHeuristic clone = new GraphplanHeuristic(gp);
 		return clone;
 	}
 	
+	/**
+	 * Sets the goal of the problem and planning graph. Has no effect in shared mode, where the goal is only
+	 * passed to the search.
+	 * @param g
+	 */
 	public void setGoal(GroundFact g)
 	{
+		if (this.isShared())
+			return;
+		
 		this.problem.setGoal(g);
 		this.pg.setGoal(g);
 	}
 	
-	@Override
-	public double getEstimate(Fact goal) throws UnreachableGoalException
-	{		
-		if (super.lookup.containsKey(goal))
-			return super.lookup.get(goal);
-		
-		return this.computeEstimate(goal);
-	}	
-	
 	@Override
 	public double computeEstimate(Fact goal) throws UnreachableGoalException
 	{		
+		if (this.isShared())
+		{
+			List<Action> plan = this.sharedGraph.extractPlan((GroundFact) goal);
+			if (plan == null)
+				throw new UnreachableGoalException(goal, goal+" is unreachable");
+			
+			return plan.size();
+		}
+		
 //		this.pg = new PlanningGraph(this.problem);
 		State s = this.problem.getState();
 		s.goal = (GroundFact) goal;
@@ -66,6 +117,56 @@ public class GraphplanHeuristic extends AbstractHeuristic
 	{
 		return pg;
 	}
+	
+	/**
+	 * Returns true if all goals are searched for in a single shared planning graph.
+	 * @return
+	 */
+	public boolean isShared()
+	{
+		return this.sharedGraph != null;
+	}
+	
+	public MutexPlanningGraph getSharedGraph()
+	{
+		return sharedGraph;
+	}
+	
+	/**
+	 * Returns true in shared mode.
+	 * @see #isShared()
+	 */
+	@Override
+	public boolean isThreadSafe()
+	{
+		return this.isShared();
+	}
+	
+	@Override
+	public IHeuristic fork(Fact goal)
+	{
+		if (this.isShared())
+			return this;
+		
+		GraphplanHeuristic clone = (GraphplanHeuristic) this.clone();
+		clone.setGoal((GroundFact) goal);
+		return clone;
+	}
+	
+	/**
+	 * Sets the initial state of the problem to its current state, and rebuilds the graph from it. In shared mode 
+	 * the graph is only expanded here, not in {@link #reset()}, so it is built once per observation.
+	 */
+	@Override
+	public IHeuristic stateChanged(HybridSasPddlProblem problem)
+	{
+		//this is a hack because GPHeuristic calls currentState = getSTRIPSInitialState() on each
+		//call of reset(). Rather than go around this problem, easier to just
+		//change the initial state to be the current state -- 
+		problem.setInitial(((STRIPSState) problem.getState()).getFacts());
+		this.setProblem(problem); //calls reset()
+		return this;
+	}
 
 
 	public void setPlanGraph(PlanningGraph pg)
@@ -80,18 +181,47 @@ public class GraphplanHeuristic extends AbstractHeuristic
 	}
 
 
+	/**
+	 * Sets the problem, and rebuilds the graph from its current state.
+	 * @param problem
+	 */
 	public void setProblem(GroundProblem problem)
 	{
 		this.problem = problem;
-		this.reset();
+		if (this.isShared())
+			this.rebuildSharedGraph();
+		else
+			this.reset();
 	}
 	
 	/**
-	 * Creates a new PG and initialises it to be stable.
+	 * Re-expands the shared graph from the current state of the problem, and discards all cached estimates.
+	 */
+	protected void rebuildSharedGraph()
+	{
+		super.reset();
+		
+		this.problem.getSTRIPSInitialState(); //initialise state variable
+		if (this.sharedGraph.getActionCount() != this.problem.getActions().size())
+			this.sharedGraph = new MutexPlanningGraph(this.problem.getActions());
+		
+		this.sharedGraph.construct((STRIPSState) this.problem.getState());
+	}
+	
+	/**
+	 * Creates a new PG and initialises it to be stable. In shared mode, only the cached estimates are discarded,
+	 * as the graph already reflects the current state of the problem.
+	 * @see #rebuildSharedGraph()
 	 */
 	@Override
 	public void reset()
 	{
+		if (this.isShared())
+		{
+			super.reset();
+			return;
+		}
+		
 		this.pg = new PlanningGraph(this.problem);
 		this.problem.getSTRIPSInitialState(); //initialise state variable
 		this.pg.constructStableGraph(this.problem.getState());
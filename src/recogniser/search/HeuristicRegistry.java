@@ -0,0 +1,204 @@
+package recogniser.search;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import recogniser.util.HybridSasPddlProblem;
+import recogniser.util.IGRAPHPreferences;
+import recogniser.util.IncrementalRpg;
+import recogniser.util.IGRAPHPreferences.RecognitionHeuristicType;
+
+/**
+ * Registry of the heuristics available to {@link ThreadedHeuristicManager}, by name. Each of the 
+ * {@link RecognitionHeuristicType}s is registered under its own name, and other heuristics can be added 
+ * through {@link #register(String, IHeuristicFactory)} and selected by setting 
+ * {@link IGRAPHPreferences#HeuristicName}. Names are case-insensitive.
+ * @author David Pattison
+ *
+ */
+public abstract class HeuristicRegistry
+{
+	private static final ConcurrentHashMap<String, IHeuristicFactory> factories = 
+			new ConcurrentHashMap<String, IHeuristicFactory>();
+	
+	static
+	{
+		HeuristicRegistry.register(RecognitionHeuristicType.Max.name(), new IHeuristicFactory()
+		{
+			@Override
+			public IHeuristic create(HybridSasPddlProblem problem)
+			{
+				IncrementalRpg rpg = new IncrementalRpg(problem.getActions());
+				rpg.constructFullRPG(problem.getSTRIPSInitialState());
+				return new MaxHeuristic(rpg);
+			}
+			
+			@Override
+			public boolean isDeterministic()
+			{
+				return true;
+			}
+		});
+		
+		HeuristicRegistry.register(RecognitionHeuristicType.FF.name(), new IHeuristicFactory()
+		{
+			@Override
+			public IHeuristic create(HybridSasPddlProblem problem)
+			{
+				if (IGRAPHPreferences.SharedRPG)
+				{
+					IncrementalRpg rpg = new IncrementalRpg(problem.getActions());
+					rpg.constructFullRPG(problem.getSTRIPSInitialState());
+					return new JavaFFHeuristic(rpg);
+				}
+				
+				return new JavaFFHeuristic(problem);
+			}
+			
+			@Override
+			public boolean isDeterministic()
+			{
+				return true;
+			}
+		});
+		
+		HeuristicRegistry.register(RecognitionHeuristicType.CG.name(), new IHeuristicFactory()
+		{
+			@Override
+			public IHeuristic create(HybridSasPddlProblem problem)
+			{
+				return new CGHeuristic(problem);
+			}
+			
+			@Override
+			public boolean isDeterministic()
+			{
+				return true;
+			}
+		});
+		
+		HeuristicRegistry.register(RecognitionHeuristicType.CEA.name(), new IHeuristicFactory()
+		{
+			@Override
+			public IHeuristic create(HybridSasPddlProblem problem)
+			{
+				return new CEAHeuristic(problem);
+			}
+			
+			@Override
+			public boolean isDeterministic()
+			{
+				return true;
+			}
+		});
+		
+		HeuristicRegistry.register(RecognitionHeuristicType.GP.name(), new IHeuristicFactory()
+		{
+			@Override
+			public IHeuristic create(HybridSasPddlProblem problem)
+			{
+				return new GraphplanHeuristic(problem);
+			}
+			
+			@Override
+			public boolean isDeterministic()
+			{
+				return true;
+			}
+		});
+		
+		HeuristicRegistry.register(RecognitionHeuristicType.JavaFFPlanning.name(), new IHeuristicFactory()
+		{
+			@Override
+			public IHeuristic create(HybridSasPddlProblem problem)
+			{
+				return new JavaFFPlanningHeuristic(problem);
+			}
+			
+			@Override
+			public boolean isDeterministic()
+			{
+				return false;
+			}
+		});
+		
+		HeuristicRegistry.register(RecognitionHeuristicType.Random.name(), new IHeuristicFactory()
+		{
+			@Override
+			public IHeuristic create(HybridSasPddlProblem problem)
+			{
+				return new RandomHeuristic();
+			}
+			
+			@Override
+			public boolean isDeterministic()
+			{
+				return false;
+			}
+		});
+		
+		HeuristicRegistry.register(RecognitionHeuristicType.Landmark.name(), new IHeuristicFactory()
+		{
+			@Override
+			public IHeuristic create(HybridSasPddlProblem problem)
+			{
+				return new LandmarkHeuristic(problem);
+			}
+			
+			@Override
+			public boolean isDeterministic()
+			{
+				return false; //depends upon which landmarks have been accepted in earlier states
+			}
+		});
+	}
+	
+	/**
+	 * Registers a heuristic, replacing any existing heuristic with the same name.
+	 * @param name
+	 * @param factory
+	 */
+	public static void register(String name, IHeuristicFactory factory)
+	{
+		HeuristicRegistry.factories.put(name.toLowerCase(), factory);
+	}
+	
+	/**
+	 * Gets the factory registered under the specified name.
+	 * @param name
+	 * @return
+	 * @throws IllegalArgumentException Thrown if no heuristic has been registered with the name.
+	 */
+	public static IHeuristicFactory getFactory(String name) throws IllegalArgumentException
+	{
+		IHeuristicFactory factory = HeuristicRegistry.factories.get(name.toLowerCase());
+		if (factory == null)
+			throw new IllegalArgumentException("Unknown Heuristic: "+name);
+		
+		return factory;
+	}
+	
+	/**
+	 * Gets the factory of the heuristic selected in {@link IGRAPHPreferences}. This is 
+	 * {@link IGRAPHPreferences#HeuristicName} if it is set, or {@link IGRAPHPreferences#Heuristic} otherwise.
+	 * @return
+	 * @throws IllegalArgumentException Thrown if no heuristic has been registered with the selected name.
+	 */
+	public static IHeuristicFactory getSelectedFactory() throws IllegalArgumentException
+	{
+		if (IGRAPHPreferences.HeuristicName != null)
+			return HeuristicRegistry.getFactory(IGRAPHPreferences.HeuristicName);
+		
+		return HeuristicRegistry.getFactory(IGRAPHPreferences.Heuristic.name());
+	}
+	
+	/**
+	 * Gets the names of all registered heuristics, in lower case.
+	 * @return
+	 */
+	public static Set<String> getNames()
+	{
+		return new TreeSet<String>(HeuristicRegistry.factories.keySet());
+	}
+}
@@ -1,10 +1,14 @@
 package recogniser.search;
 
+import recogniser.util.HybridSasPddlProblem;
 import javaff.search.UnreachableGoalException;
 import javaff.data.Fact;
 
 /**
- * Interface for a heuristic.
+ * Interface for a heuristic. Besides computing estimates, implementations describe how they can be used by
+ * {@link ThreadedHeuristicManager} -- whether one instance can be shared by all threads, how to copy it for
+ * a single goal if not, and how to bring it up to date when the state changes. New heuristics are made 
+ * available to the manager through {@link HeuristicRegistry}.
  * @author pattison
  *
  */
@@ -22,6 +26,40 @@ public interface IHeuristic
 	 * @throws UnreachableGoalException Thrown if the goal is unreachable.
 	 */
 	public double getEstimate(Fact goal) throws UnreachableGoalException;
+	
+	/**
+	 * Gets the heuristic estimate to each of the goals specified. Implementations may share work between the
+	 * goals, so this should be preferred to repeated calls to {@link #getEstimate(Fact)} when many goals
+	 * need to be estimated at once.
+	 * @param goals The goals.
+	 * @return The estimate to each goal, in the same order as the goals. Unreachable goals have an estimate of 
+	 * {@link #Unreachable}.
+	 */
+	public double[] getEstimates(Fact[] goals);
+	
+	/**
+	 * Returns true if this heuristic can be used by multiple threads at once, in which case it is never
+	 * copied by {@link #fork(Fact)}.
+	 * @return
+	 */
+	public boolean isThreadSafe();
+	
+	/**
+	 * Creates a copy of this heuristic which can be used to estimate the specified goal on another thread, without 
+	 * interfering with this heuristic or any other fork. This is always called on the thread which owns this 
+	 * heuristic. Thread-safe heuristics may return themselves.
+	 * @param goal The goal which the fork will be used to estimate.
+	 * @return
+	 */
+	public IHeuristic fork(Fact goal);
+	
+	/**
+	 * Brings the heuristic up to date after the current state of the problem has changed. This is called after 
+	 * {@link #reset()}, once the goal of the problem has been set to all goals in the goal-space.
+	 * @param problem The problem, whose current state is the new state.
+	 * @return The heuristic to use in the new state, which is usually this heuristic.
+	 */
+	public IHeuristic stateChanged(HybridSasPddlProblem problem);
 
 	public void reset();
 	
@@ -0,0 +1,26 @@
+package recogniser.search;
+
+import recogniser.util.HybridSasPddlProblem;
+
+/**
+ * Creates the heuristic used by {@link ThreadedHeuristicManager}. Factories are registered by name with
+ * {@link HeuristicRegistry}.
+ * @author David Pattison
+ *
+ */
+public interface IHeuristicFactory
+{
+	/**
+	 * Creates a heuristic for the current state of the problem.
+	 * @param problem
+	 * @return
+	 */
+	public IHeuristic create(HybridSasPddlProblem problem);
+	
+	/**
+	 * Returns true if the estimates of the heuristic only depend upon the current state, so can be kept 
+	 * between observations which do not change the part of the state which a goal depends upon.
+	 * @return
+	 */
+	public boolean isDeterministic();
+}
@@ -1,9 +1,12 @@
 package recogniser.search;
 
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javaff.data.Action;
 import javaff.data.Fact;
+import javaff.data.GroundFact;
 import javaff.data.GroundProblem;
 import javaff.data.Plan;
 import javaff.data.RelaxedPlan;
@@ -12,17 +15,25 @@ import javaff.data.strips.NullPlan;
 import javaff.planning.RelaxedPlanningGraph;
 import javaff.planning.STRIPSState;
 import javaff.search.UnreachableGoalException;
+import recogniser.util.HybridSasPddlProblem;
+import recogniser.util.IncrementalRpg;
 
 public class JavaFFHeuristic extends AbstractHeuristic
 {
-	private HashMap<Fact, Plan> planLookup;
+	private Map<Fact, Plan> planLookup;
 	
 	private RelaxedPlanningGraph rpg;
 //	private STRIPSState state;
 	
+	//shared mode -- plans are extracted without modifying the RPG, so one instance can be used by all threads
+	private IncrementalRpg sharedRpg;
+	private ThreadLocal<IncrementalRpg.ExtractionBuffer> buffers;
+	
 	protected JavaFFHeuristic()
 	{
-		this.planLookup = new HashMap<Fact, Plan>();
+		this.planLookup = new ConcurrentHashMap<Fact, Plan>();
+		this.sharedRpg = null;
+		this.buffers = null;
 	}
 	
 	/**
@@ -58,9 +69,29 @@ public class JavaFFHeuristic extends AbstractHeuristic
 		this.rpg = rpg;
 	}
 	
+	/**
+	 * Constructs a wrapper for the FF heuristic which extracts relaxed plans from the specified RPG 
+	 * non-destructively. The RPG is shared by every thread using this heuristic, with all per-goal
+	 * working state held in thread-local buffers, so there is no need to clone the heuristic per goal.
+	 * @param rpg An RPG which has already been constructed from the current state.
+	 */
+	public JavaFFHeuristic(IncrementalRpg rpg)
+	{
+		this();
+		
+		this.setSharedRpg(rpg);
+	}
+	
 	public Object clone()
 	{
 		JavaFFHeuristic clone = new JavaFFHeuristic();
+		if (this.isShared())
+		{
+			//extraction does not modify the RPG, so it can be shared by the clone
+			clone.setSharedRpg(this.sharedRpg);
+			return clone;
+		}
+		
 		clone.rpg = (RelaxedPlanningGraph) this.rpg.clone(); //FIXME this is a massive IGRAPH bottleneck - 50% of CPU time!
 		
 		return clone;
@@ -68,8 +99,76 @@ public class JavaFFHeuristic extends AbstractHeuristic
 	
 	public void setGoal(Fact g)
 	{
+		if (this.isShared())
+			return; //goal is passed in to each extraction
+		
 		this.rpg.setGoal(g);
 	}
+	
+	/**
+	 * Returns true if this heuristic extracts plans from a shared {@link IncrementalRpg}, in which case it
+	 * can safely be used by multiple threads at once.
+	 * @return
+	 */
+	public boolean isShared()
+	{
+		return this.sharedRpg != null;
+	}
+	
+	/**
+	 * Returns true in shared mode.
+	 * @see #isShared()
+	 */
+	@Override
+	public boolean isThreadSafe()
+	{
+		return this.isShared();
+	}
+	
+	/**
+	 * The existing FF relaxed plan extraction is destructive with regard to the internal state of the RPG etc, 
+	 * so unless in shared mode the heuristic is cloned for each goal -- which probably seriously offsets any 
+	 * benefits from threading.
+	 */
+	@Override
+	public IHeuristic fork(Fact goal)
+	{
+		if (this.isShared())
+			return this;
+		
+		JavaFFHeuristic clone = (JavaFFHeuristic) this.clone();
+		clone.setGoal(goal);
+		return clone;
+	}
+	
+	/**
+	 * Rebuilds or repairs the RPG.
+	 * @see #rebuildRPG(GroundProblem)
+	 */
+	@Override
+	public IHeuristic stateChanged(HybridSasPddlProblem problem)
+	{
+		this.rebuildRPG(problem);
+		return this;
+	}
+	
+	public IncrementalRpg getSharedRpg()
+	{
+		return sharedRpg;
+	}
+
+	public void setSharedRpg(IncrementalRpg rpg)
+	{
+		this.sharedRpg = rpg;
+		this.buffers = new ThreadLocal<IncrementalRpg.ExtractionBuffer>()
+		{
+			@Override
+			protected IncrementalRpg.ExtractionBuffer initialValue()
+			{
+				return new IncrementalRpg.ExtractionBuffer();
+			}
+		};
+	}
 
 	public RelaxedPlanningGraph getRpg()
 	{
@@ -86,6 +185,22 @@ public class JavaFFHeuristic extends AbstractHeuristic
 	public void rebuildRPG(GroundProblem gp)
 	{		
 		this.planLookup.clear();
+		
+		if (this.isShared())
+		{
+			//the action set only changes when goals are culled, so the shared RPG can usually just be repaired
+			if (this.sharedRpg.getActionCount() == gp.getActions().size())
+			{
+				this.sharedRpg.update((STRIPSState) gp.getState());
+			}
+			else
+			{
+				IncrementalRpg newRpg = new IncrementalRpg(gp.getActions());
+				newRpg.constructFullRPG((STRIPSState) gp.getState());
+				this.setSharedRpg(newRpg);
+			}
+			return;
+		}
 
 		this.rpg = new RelaxedPlanningGraph(gp);
 		this.rpg.constructStableGraph(gp.getState());
@@ -95,6 +210,9 @@ public class JavaFFHeuristic extends AbstractHeuristic
 	@Override
 	public double computeEstimate(Fact gc) throws UnreachableGoalException
 	{
+		if (this.isShared())
+			return this.computeSharedEstimate(gc);
+		
 		RelaxedPlan plan = this.rpg.getPlanFromExistingGraph(gc);
 //		System.out.println(gc + " = "+plan);
 		
@@ -114,6 +232,32 @@ public class JavaFFHeuristic extends AbstractHeuristic
 		}
 	}
 	
+	/**
+	 * Extracts a relaxed plan from the shared RPG, and caches it. The achiever of each fact is selected once per
+	 * state by the RPG, and shared by every goal. This is safe to call from multiple threads.
+	 * @param gc
+	 * @return
+	 * @throws UnreachableGoalException
+	 */
+	protected double computeSharedEstimate(Fact gc) throws UnreachableGoalException
+	{
+		List<Action> actions = this.sharedRpg.extractRelaxedPlan((GroundFact) gc, this.buffers.get());
+		if (actions == null)
+		{
+			this.planLookup.put(gc, new NullPlan(gc));
+			
+			throw new UnreachableGoalException(gc, "No relaxed plan to "+gc);
+		}
+		
+		TotalOrderPlan plan = new TotalOrderPlan((GroundFact) gc);
+		for (Action a : actions)
+			plan.addAction(a);
+		
+		this.planLookup.put(gc, plan);
+		
+		return actions.size();
+	}
+	
 	public Map<Fact, Plan> getCachedPlans()
 	{
 		return this.planLookup;
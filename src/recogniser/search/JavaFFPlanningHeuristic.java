@@ -1,28 +1,105 @@
 package recogniser.search;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import recogniser.util.HybridSasPddlProblem;
+import recogniser.util.IGRAPHPreferences;
+import recogniser.util.IncrementalRpg;
 import javaff.JavaFF;
+import javaff.data.Action;
 import javaff.data.Fact;
 import javaff.data.GroundFact;
 import javaff.data.GroundProblem;
 import javaff.data.Plan;
+import javaff.data.TotalOrderPlan;
 import javaff.parser.ParseException;
+import javaff.planning.STRIPSState;
+import javaff.planning.State;
 import javaff.search.UnreachableGoalException;
 
 /**
  * A "heuristic" which uses JavaFF to do full blown planning and returns plan length as the estimate.
+ * <p/>
+ * The plan found for each goal is kept, and passed on to the heuristic of the next state. If the plan, or the 
+ * plan without its first action, is still valid in the new state then it is used instead of replanning. 
+ * Planning can also be given a time budget through {@link IGRAPHPreferences#PlanningBudget}, after which the 
+ * FF relaxed plan length is used instead. A planner which runs out of time is left to finish, and no new planner
+ * is started for its goal until it does, at which point its plan is reused if it is still valid.
  * @author David Pattison
  *
  */
 public final class JavaFFPlanningHeuristic implements IHeuristic
 {
+	/**
+	 * Runs planners which have a budget, one per core. Planners which run out of time keep their daemon thread 
+	 * until they finish, so later planners are queued rather than oversubscribing the CPU.
+	 */
+	private static final ExecutorService Planners = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+	{
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "JavaFF planner");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
 	private JavaFF ff;
 	private GroundProblem gp;
+	
+	/**
+	 * The last plan found or repaired for each goal. Shared by all clones, and by the heuristics of later states.
+	 */
+	private ConcurrentHashMap<Fact, List<Action>> plans;
+	
+	/**
+	 * Planners which ran out of time, for each goal. Shared in the same way as the plans.
+	 */
+	private ConcurrentHashMap<Fact, Future<Plan>> planners;
+	
+	/**
+	 * The FF heuristic used when planning runs out of time. Built at most once for each state, and shared by all
+	 * clones.
+	 */
+	private FallbackHeuristic fallback;
 
 	public JavaFFPlanningHeuristic(GroundProblem problem)
+	{
+		this(problem, new ConcurrentHashMap<Fact, List<Action>>(), new ConcurrentHashMap<Fact, Future<Plan>>(), 
+				new FallbackHeuristic());
+	}
+	
+	/**
+	 * Creates a heuristic for a new state which attempts to reuse the plans found by the heuristic of the
+	 * previous state.
+	 * @param problem The problem, with the new state as its initial state.
+	 * @param previous The heuristic used in the previous state.
+	 */
+	public JavaFFPlanningHeuristic(GroundProblem problem, JavaFFPlanningHeuristic previous)
+	{
+		this(problem, previous.plans, previous.planners, new FallbackHeuristic());
+	}
+	
+	private JavaFFPlanningHeuristic(GroundProblem problem, ConcurrentHashMap<Fact, List<Action>> plans, 
+			ConcurrentHashMap<Fact, Future<Plan>> planners, FallbackHeuristic fallback)
 	{
 		this.gp = problem;
+		this.plans = plans;
+		this.planners = planners;
+		this.fallback = fallback;
 		
 		reset();
 	}
@@ -44,27 +121,226 @@ public final class JavaFFPlanningHeuristic implements IHeuristic
 	public void setGroundProblem(GroundProblem gp)
 	{
 		this.gp = gp;
+		this.fallback = new FallbackHeuristic();
 		this.reset();
 	}
 
 	@Override
 	public double getEstimate(Fact goal) throws UnreachableGoalException
 	{
-		this.gp.setGoal((GroundFact) goal);
-		Plan p = this.ff.plan(this.gp);
+		Future<Plan> previousPlanner = this.planners.get(goal);
+		if (previousPlanner != null)
+		{
+			if (previousPlanner.isDone() == false)
+				return this.getFallbackEstimate(goal);
+			
+			this.collectPlan(goal, previousPlanner);
+		}
+		
+		List<Action> repaired = this.repairPlan(goal);
+		if (repaired != null)
+		{
+			this.plans.put(goal, repaired);
+			return repaired.size();
+		}
+		
+		//JavaFF modifies the problem it plans in, and an abandoned planner keeps running, so always plan in a copy
+		GroundProblem planningProblem = (GroundProblem) this.gp.clone();
+		planningProblem.setGoal((GroundFact) goal);
+		
+		Plan p;
+		if (IGRAPHPreferences.PlanningBudget <= 0)
+		{
+			p = this.ff.plan(planningProblem);
+		}
+		else
+		{
+			Future<Plan> planner = Planners.submit(new PlanningTask(this.ff, planningProblem));
+			try
+			{
+				p = planner.get(IGRAPHPreferences.PlanningBudget, TimeUnit.MILLISECONDS);
+			}
+			catch (TimeoutException e)
+			{
+				//JavaFF does not check for interrupts, so the planner is left to finish in its own copy of the 
+				//problem, and its plan is picked up the next time the goal is estimated
+				this.planners.put(goal, planner);
+				this.reset();
+				
+				return this.getFallbackEstimate(goal);
+			}
+			catch (InterruptedException e)
+			{
+				this.planners.put(goal, planner);
+				this.reset();
+				Thread.currentThread().interrupt();
+				
+				return this.getFallbackEstimate(goal);
+			}
+			catch (ExecutionException e)
+			{
+				throw new RuntimeException("Error whilst planning for "+goal, e.getCause());
+			}
+		}
+		
 		if (p == null)
+		{
+			this.plans.remove(goal);
 			return IHeuristic.Unreachable;
+		}
+		
+		if (p instanceof TotalOrderPlan)
+			this.plans.put(goal, new ArrayList<Action>(((TotalOrderPlan) p).getActions()));
 		
 		int c = p.getActionCount();
 		return c;
 	}
 	
+	/**
+	 * Records the plan found by a planner which ran out of time, so that it can be repaired like any other 
+	 * previous plan.
+	 * @param goal
+	 * @param planner A planner which has finished.
+	 */
+	private void collectPlan(Fact goal, Future<Plan> planner)
+	{
+		if (this.planners.remove(goal, planner) == false)
+			return; //already collected by another clone
+		
+		try
+		{
+			Plan p = planner.get();
+			if (p instanceof TotalOrderPlan)
+				this.plans.put(goal, new ArrayList<Action>(((TotalOrderPlan) p).getActions()));
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e)
+		{
+			//the planner failed, so just plan again
+		}
+	}
+	
+	/**
+	 * Attempts to reuse the previous plan to the goal in the current state. The observed action is usually the 
+	 * first action of the plan, so the plan without its first action is tried, followed by the whole plan.
+	 * @param goal
+	 * @return A plan which achieves the goal from the current state, or null if the previous plan is no longer 
+	 * valid, or there is no previous plan.
+	 */
+	private List<Action> repairPlan(Fact goal)
+	{
+		List<Action> previous = this.plans.get(goal);
+		if (previous == null)
+			return null;
+		
+		State current = this.gp.getSTRIPSInitialState();
+		if (previous.isEmpty() == false)
+		{
+			List<Action> suffix = previous.subList(1, previous.size());
+			if (this.isValid(suffix, current, (GroundFact) goal))
+				return new ArrayList<Action>(suffix);
+		}
+		
+		if (this.isValid(previous, current, (GroundFact) goal))
+			return previous;
+		
+		return null;
+	}
+	
+	/**
+	 * Returns true if the plan can be executed from the specified state, and achieves the goal.
+	 * @param plan
+	 * @param initial
+	 * @param goal
+	 * @return
+	 */
+	private boolean isValid(List<Action> plan, State initial, GroundFact goal)
+	{
+		State s = initial;
+		for (Action a : plan)
+		{
+			if (a.isApplicable(s) == false)
+				return false;
+			
+			s = s.apply(a);
+		}
+		
+		return goal.isTrue(s);
+	}
+	
+	/**
+	 * Gets the estimate used when planning runs out of time, or while an earlier planner for the goal is still 
+	 * running, which is the length of FF's relaxed plan. This is computed in this heuristic's own problem, which 
+	 * planning never modifies.
+	 * @param goal
+	 * @return
+	 * @throws UnreachableGoalException
+	 */
+	private double getFallbackEstimate(Fact goal) throws UnreachableGoalException
+	{
+		return this.fallback.get(this.gp).getEstimate(goal);
+	}
+	
+	@Override
+	public double[] getEstimates(Fact[] goals)
+	{
+		double[] estimates = new double[goals.length];
+		for (int i = 0; i < goals.length; i++)
+		{
+			if (ThreadedHeuristicManager.isCurrentBatchAbandoned())
+				break;
+			
+			try
+			{
+				estimates[i] = this.getEstimate(goals[i]);
+			}
+			catch (UnreachableGoalException e)
+			{
+				estimates[i] = IHeuristic.Unreachable;
+			}
+		}
+		
+		return estimates;
+	}
+	
+	/**
+	 * Returns false, as the problem and JavaFF instance are not shared safely between threads.
+	 */
+	@Override
+	public boolean isThreadSafe()
+	{
+		return false;
+	}
+	
+	@Override
+	public IHeuristic fork(Fact goal)
+	{
+		return (IHeuristic) this.clone();
+	}
+	
+	/**
+	 * Creates a heuristic which plans from the current state of the problem, and which will reuse the plans 
+	 * found by this heuristic.
+	 */
+	@Override
+	public IHeuristic stateChanged(HybridSasPddlProblem problem)
+	{
+		GroundProblem cgp = (GroundProblem) problem.clone();
+		cgp.setInitial(((STRIPSState) problem.getState()).getFacts());
+		cgp.recomputeSTRIPSInitialState();
+		
+		return new JavaFFPlanningHeuristic(cgp, this);
+	}
+	
 	public Object clone()
 	{
 		GroundProblem cloneGP = (GroundProblem) this.gp.clone();
 //		cloneGP.getSTRIPSInitialState(); //FIXME should be done elsewhere, like clone() itself
 		
-		JavaFFPlanningHeuristic clone = new JavaFFPlanningHeuristic(cloneGP);
+		JavaFFPlanningHeuristic clone = new JavaFFPlanningHeuristic(cloneGP, this.plans, this.planners, this.fallback);
 		return clone;
 	}
 
@@ -78,5 +354,47 @@ public final class JavaFFPlanningHeuristic implements IHeuristic
 		File dom = null;
 		this.ff = new JavaFF(dom);
 	}
+	
+	/**
+	 * Runs JavaFF in a pool thread, so that it can be abandoned once the planning budget is exceeded.
+	 */
+	private static class PlanningTask implements Callable<Plan>
+	{
+		private JavaFF ff;
+		private GroundProblem gp;
+		
+		public PlanningTask(JavaFF ff, GroundProblem gp)
+		{
+			this.ff = ff;
+			this.gp = gp;
+		}
+
+		@Override
+		public Plan call() throws Exception
+		{
+			return this.ff.plan(this.gp);
+		}
+	}
+	
+	/**
+	 * Lazily builds the FF heuristic for one state. The heuristic extracts relaxed plans from a shared 
+	 * {@link IncrementalRpg}, so can be used by every clone at once.
+	 */
+	private static class FallbackHeuristic
+	{
+		private JavaFFHeuristic heuristic;
+		
+		public synchronized JavaFFHeuristic get(GroundProblem gp)
+		{
+			if (this.heuristic == null)
+			{
+				IncrementalRpg rpg = new IncrementalRpg(gp.getActions());
+				rpg.constructFullRPG(gp.getSTRIPSInitialState());
+				this.heuristic = new JavaFFHeuristic(rpg);
+			}
+			
+			return this.heuristic;
+		}
+	}
 
 }
@@ -0,0 +1,158 @@
+package recogniser.search;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+
+import javaff.data.Fact;
+import javaff.data.strips.Equals;
+import javaff.data.strips.Not;
+import javaff.planning.STRIPSState;
+import javaff.search.UnreachableGoalException;
+import recogniser.util.HybridSasPddlProblem;
+import recogniser.util.LandmarkTable;
+
+/**
+ * A landmark counting heuristic, in the style of LAMA. The landmarks of every fact are extracted once from the 
+ * initial state of the problem. Thereafter, a landmark is accepted once it has been true in any observed state.
+ * The estimate of a goal is the number of its landmarks which have not been accepted, plus the number of facts 
+ * in the goal which have been accepted but are no longer true, and so are required again.
+ * <p/>
+ * The accepted landmarks only depend upon the observations seen so far, so are updated incrementally in 
+ * {@link #stateChanged(HybridSasPddlProblem)}, rather than recomputed for each goal. As the estimate depends upon
+ * the history of states, it is not admissible, and should not be cached between states.
+ * 
+ * @author David Pattison
+ *
+ */
+public class LandmarkHeuristic extends AbstractHeuristic
+{
+	private LandmarkTable landmarks;
+	
+	/**
+	 * The landmarks accepted so far, and the facts true in the current state. Both are replaced rather than 
+	 * modified when the state changes, so estimates being computed by other threads see a consistent state.
+	 */
+	private volatile BitSet accepted, current;
+	
+	/**
+	 * Extracts the landmarks of the problem from its initial state, and accepts those which are true in it.
+	 * @param problem
+	 */
+	public LandmarkHeuristic(HybridSasPddlProblem problem)
+	{
+		this(new LandmarkTable(problem.getActions(), problem.getSTRIPSInitialState().getTrueFacts()));
+		
+		this.updateState((STRIPSState) problem.getState());
+	}
+	
+	/**
+	 * Creates a landmark heuristic which uses an existing table, and which has not accepted any landmarks.
+	 * @param landmarks
+	 */
+	public LandmarkHeuristic(LandmarkTable landmarks)
+	{
+		this.landmarks = landmarks;
+		this.accepted = new BitSet(landmarks.getFactCount());
+		this.current = new BitSet(landmarks.getFactCount());
+	}
+	
+	/**
+	 * Creates a copy which shares the landmark table, but has its own accepted landmarks.
+	 */
+	@Override
+	public Object clone()
+	{
+		LandmarkHeuristic clone = new LandmarkHeuristic(this.landmarks);
+		clone.accepted = (BitSet) this.accepted.clone();
+		clone.current = (BitSet) this.current.clone();
+		clone.lookup = (EstimateCache) this.lookup.clone();
+		
+		return clone;
+	}
+	
+	/**
+	 * Accepts every landmark which is true in the specified state. Also calls {@link #reset()}.
+	 * @param state The new current state.
+	 */
+	public void updateState(STRIPSState state)
+	{
+		BitSet nowTrue = new BitSet(this.landmarks.getFactCount());
+		for (Fact f : state.getTrueFacts())
+		{
+			int id = this.landmarks.getId(f);
+			if (id >= 0)
+				nowTrue.set(id);
+		}
+		
+		BitSet newAccepted = (BitSet) this.accepted.clone();
+		newAccepted.or(nowTrue);
+		
+		this.current = nowTrue;
+		this.accepted = newAccepted;
+		
+		this.reset();
+	}
+	
+	@Override
+	public IHeuristic stateChanged(HybridSasPddlProblem problem)
+	{
+		this.updateState((STRIPSState) problem.getState());
+		return this;
+	}
+	
+	/**
+	 * Returns true, as estimates only read the landmark table and the accepted landmarks.
+	 */
+	@Override
+	public boolean isThreadSafe()
+	{
+		return true;
+	}
+
+	@Override
+	protected double computeEstimate(Fact goal) throws UnreachableGoalException
+	{
+		BitSet accepted = this.accepted;
+		BitSet current = this.current;
+		
+		BitSet required = new BitSet(this.landmarks.getFactCount());
+		int reachieve = 0;
+		for (Fact g : goal.getFacts())
+		{
+			if (g instanceof Not || g instanceof Equals || g.isStatic())
+				continue;
+			
+			int id = this.landmarks.getId(g);
+			BitSet lms = id < 0 ? null : this.landmarks.getLandmarks(id);
+			if (lms == null)
+				throw new UnreachableGoalException(goal, goal+" is unreachable");
+			
+			required.or(lms);
+			if (accepted.get(id) && current.get(id) == false)
+				++reachieve;
+		}
+		
+		required.andNot(accepted);
+		return required.cardinality() + reachieve;
+	}
+	
+	/**
+	 * Gets the landmarks which have been accepted so far.
+	 * @return
+	 */
+	public Collection<Fact> getAcceptedLandmarks()
+	{
+		ArrayList<Fact> facts = new ArrayList<Fact>();
+		BitSet accepted = this.accepted;
+		for (int f = accepted.nextSetBit(0); f >= 0; f = accepted.nextSetBit(f + 1))
+			facts.add(this.landmarks.getFact(f));
+		
+		return facts;
+	}
+
+	public LandmarkTable getLandmarkTable()
+	{
+		return landmarks;
+	}
+}
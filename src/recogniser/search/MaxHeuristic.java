@@ -8,12 +8,15 @@ import java.util.Set;
 import javaff.data.Action;
 import javaff.data.Fact;
 import javaff.data.GroundFact;
+import recogniser.util.HybridSasPddlProblem;
+import recogniser.util.IncrementalRpg;
 import recogniser.util.StripsRpg;
 import javaff.planning.STRIPSState;
 import javaff.search.UnreachableGoalException;
 
 /**
- * Encapsulation of the the h_max heuristic. Uses a {@StripsRpg} for faster access. 
+ * Encapsulation of the the h_max heuristic. Uses a {@StripsRpg} for faster access, or an {@link IncrementalRpg} if
+ * the heuristic is to be updated between observations without rebuilding the entire RPG.
  * 
  * @author David Pattison
  *
@@ -21,25 +24,95 @@ import javaff.search.UnreachableGoalException;
 public class MaxHeuristic extends AbstractHeuristic
 {
 	private StripsRpg rpg; //TODO now that JavaFF's RPG is a bit better understood, deprecate StripsRpg
+	private IncrementalRpg incrementalRpg;
 
 	public MaxHeuristic()
 	{
 		this.rpg = null;
+		this.incrementalRpg = null;
 	}
 	
 	public MaxHeuristic(StripsRpg rpg)
 	{
+		this();
+		
 		this.rpg = rpg;
 	}
 	
+	/**
+	 * Creates a max heuristic which uses an incremental RPG. This will be used in preference to any 
+	 * {@link StripsRpg}, and can be updated using {@link #updateState(STRIPSState)}.
+	 * @param rpg
+	 */
+	public MaxHeuristic(IncrementalRpg rpg)
+	{
+		this();
+		
+		this.incrementalRpg = rpg;
+	}
+	
 	/**
 	 * Constructs a deep copy of the max heuristic and associated RPG.
 	 */
 	@Override
 	public Object clone()
 	{
+		if (this.incrementalRpg != null)
+			return new MaxHeuristic((IncrementalRpg) this.incrementalRpg.clone());
+		
 		return new MaxHeuristic((StripsRpg) this.rpg.clone());
 	}
+	
+	/**
+	 * Repairs the incremental RPG so that it reflects the specified state. Only those facts whose
+	 * distance depended upon the facts which have changed since the last update are recomputed.
+	 * Also calls {@link #reset()}.
+	 * @param state The new current state.
+	 * @throws NullPointerException Thrown if this heuristic is not using an {@link IncrementalRpg}.
+	 */
+	public void updateState(STRIPSState state)
+	{
+		this.incrementalRpg.update(state);
+		
+		this.reset();
+	}
+	
+	/**
+	 * Updates the incremental RPG to reflect the current state of the problem. The action set only changes 
+	 * when facts are culled from the goal-space, in which case the RPG indexes are stale and it must be rebuilt. 
+	 * Otherwise, just repair the costs which were affected by the observation. Either way, {@link #reset()} is 
+	 * called.
+	 */
+	@Override
+	public IHeuristic stateChanged(HybridSasPddlProblem problem)
+	{
+		if (this.incrementalRpg == null)
+			return this;
+		
+		if (this.incrementalRpg.getActionCount() != problem.getActions().size())
+		{
+			IncrementalRpg rpg = new IncrementalRpg(problem.getActions());
+			rpg.constructFullRPG((STRIPSState) problem.getState());
+			this.setIncrementalRpg(rpg);
+			
+			this.reset();
+		}
+		else
+		{
+			this.updateState((STRIPSState) problem.getState());
+		}
+		
+		return this;
+	}
+	
+	/**
+	 * Returns true, as estimates only read the RPG.
+	 */
+	@Override
+	public boolean isThreadSafe()
+	{
+		return true;
+	}
 
 	/**
 	 * Computes the hmax estimate for the specified goal. This is the minimal number of actions required to 
@@ -51,7 +124,11 @@ public class MaxHeuristic extends AbstractHeuristic
 		//we actually make use of the RPG here, as hmax(G) == min_rpg_layer(G). Therefore the distance to 
 		//G (even if conjunctive) is just the first layer of the RPG at which all facts appear, as this is the minimal
 		//distance to the maximum-distance goal in G.
-		int hmax = this.rpg.getRelaxedDistance((GroundFact) gc);
+		int hmax;
+		if (this.incrementalRpg != null)
+			hmax = this.incrementalRpg.getRelaxedDistance((GroundFact) gc);
+		else
+			hmax = this.rpg.getRelaxedDistance((GroundFact) gc);
 		
 		if (hmax < 0)
 			throw new UnreachableGoalException(gc, gc + " is unreachable");
@@ -69,4 +146,14 @@ public class MaxHeuristic extends AbstractHeuristic
 		this.rpg = rpg;
 	}
 	
+	public IncrementalRpg getIncrementalRpg()
+	{
+		return incrementalRpg;
+	}
+
+	public void setIncrementalRpg(IncrementalRpg incrementalRpg)
+	{
+		this.incrementalRpg = incrementalRpg;
+	}
+	
 }
@@ -44,6 +44,15 @@ public class RandomHeuristic extends AbstractHeuristic
 		return this;
 	}
 
+	/**
+	 * Returns true, as the random number generator is only accessed in a synchronized method.
+	 */
+	@Override
+	public boolean isThreadSafe()
+	{
+		return true;
+	}
+
 	/**
 	 * Returns a random number between 0 and {@link #getMaxValue()}
 	 */
@@ -0,0 +1,328 @@
+package recogniser.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import javaff.data.Fact;
+import javaff.data.strips.Not;
+import javaff.data.strips.Proposition;
+import javaff.planning.STRIPSState;
+import recogniser.util.FactIndex;
+import recogniser.util.HybridSasPddlProblem;
+import sas.data.CausalGraph;
+import sas.data.DomainTransitionGraph;
+import sas.data.SASProposition;
+
+/**
+ * Determines which heuristic estimates remain valid after the state changes. The estimate of a goal can only
+ * depend on the values of the SAS+ variables which are ancestors of the goal's variables in the causal graph
+ * (including the variables themselves), as no other variable can affect whether the goal is achievable, or
+ * at what cost. Each estimate is therefore stored along with the projection of the state onto these
+ * variables, and is only invalidated if this projection changes.
+ * <p/>
+ * Goals which contain facts that have no SAS+ variable (such as {@link recogniser.hypothesis.AllFalseGoal}s)
+ * are never cached. If a fact with no SAS+ variable changes, or the set of actions in the problem changes, all
+ * estimates are invalidated.
+ *
+ * @author David Pattison
+ *
+ */
+public class RelevantStateEstimateCache
+{
+	private FactIndex index;
+	private HashMap<Fact, Integer> factVariables;
+	private int[][] parents; //indexed by dense variable ID
+	private int[] currentValues; //the fact ID of the current value of each variable, or -1 if none are true
+	private HashSet<Fact> trueFacts;
+	private int actionCount;
+
+	private HashMap<Fact, int[]> relevantVariables; //a null value indicates the goal cannot be cached
+	private HashMap<Fact, BitSet> relevantVariableSets;
+	private HashMap<Fact, int[]> projections;
+
+	private int hits, misses;
+
+	/**
+	 * Creates a cache for the specified problem. This analyses the causal graph of the problem, so should only be
+	 * done once.
+	 * @param problem
+	 */
+	public RelevantStateEstimateCache(HybridSasPddlProblem problem)
+	{
+		this.index = problem.getFactIndex();
+		this.factVariables = new HashMap<Fact, Integer>();
+		this.relevantVariables = new HashMap<Fact, int[]>();
+		this.relevantVariableSets = new HashMap<Fact, BitSet>();
+		this.projections = new HashMap<Fact, int[]>();
+
+		//assign each variable a dense ID
+		CausalGraph cg = problem.getCausalGraph();
+		HashMap<Integer, Integer> variableIds = new HashMap<Integer, Integer>();
+		for (DomainTransitionGraph dtg : cg.vertexSet())
+		{
+			variableIds.put(dtg.getVariable().getId(), variableIds.size());
+		}
+
+		//causal graph edges go from precondition variables to effect variables, so record the inverse
+		List<List<Integer>> parentLists = new ArrayList<List<Integer>>();
+		for (int i = 0; i < variableIds.size(); i++)
+			parentLists.add(new ArrayList<Integer>());
+
+		for (DomainTransitionGraph dtg : cg.vertexSet())
+		{
+			int parent = variableIds.get(dtg.getVariable().getId());
+			for (DomainTransitionGraph child : cg.getOutgoingVertices(dtg))
+			{
+				int c = variableIds.get(child.getVariable().getId());
+				if (c != parent)
+					parentLists.get(c).add(parent);
+			}
+		}
+
+		this.parents = new int[parentLists.size()][];
+		for (int i = 0; i < parentLists.size(); i++)
+		{
+			List<Integer> l = parentLists.get(i);
+			this.parents[i] = new int[l.size()];
+			for (int j = 0; j < l.size(); j++)
+				this.parents[i][j] = l.get(j);
+		}
+
+		for (SASProposition l : problem.sasproblem.reachableFacts)
+		{
+			Proposition p = l.convertToPDDL(problem.sasproblem, problem);
+			Integer var = variableIds.get(l.getVariableId());
+			if (var != null)
+				this.factVariables.put(p, var);
+		}
+
+		this.currentValues = new int[this.parents.length];
+		Arrays.fill(this.currentValues, -1);
+		this.trueFacts = new HashSet<Fact>();
+		this.actionCount = problem.getActions().size();
+
+		this.update((STRIPSState) problem.getState(), this.actionCount, new HashMap<Fact, Double>());
+	}
+
+	/**
+	 * Updates the cache to reflect the new state, and removes any estimates which are no longer valid from the
+	 * specified map.
+	 * @param state The new state.
+	 * @param actionCount The number of actions in the problem. If this differs from the previous update, all
+	 * estimates are removed.
+	 * @param estimates The map of estimates to remove invalid entries from.
+	 * @return The number of estimates which were removed.
+	 */
+	public synchronized int update(STRIPSState state, int actionCount, Map<Fact, Double> estimates)
+	{
+		boolean invalidateAll = actionCount != this.actionCount;
+		this.actionCount = actionCount;
+
+		BitSet changed = new BitSet(this.parents.length);
+
+		//deletes first, so that a variable which changes value is left with its new value
+		Iterator<Fact> oldIter = this.trueFacts.iterator();
+		while (oldIter.hasNext())
+		{
+			Fact f = oldIter.next();
+			if (state.getTrueFacts().contains(f))
+				continue;
+
+			oldIter.remove();
+			Integer var = this.factVariables.get(f);
+			if (var == null)
+			{
+				invalidateAll = true;
+				continue;
+			}
+
+			if (this.currentValues[var] == this.index.getId(f))
+				this.currentValues[var] = -1;
+			changed.set(var);
+		}
+
+		for (Object o : state.getTrueFacts())
+		{
+			Fact f = (Fact) o;
+			if (this.trueFacts.add(f) == false)
+				continue;
+
+			Integer var = this.factVariables.get(f);
+			if (var == null)
+			{
+				invalidateAll = true;
+				continue;
+			}
+
+			this.currentValues[var] = this.index.intern(f);
+			changed.set(var);
+		}
+
+		if (invalidateAll)
+		{
+			int removed = estimates.size();
+			this.misses += removed;
+
+			estimates.clear();
+			this.projections.clear();
+
+			return removed;
+		}
+
+		int removed = 0;
+		Iterator<Fact> estIter = estimates.keySet().iterator();
+		while (estIter.hasNext())
+		{
+			Fact g = estIter.next();
+			int[] projection = this.projections.get(g);
+			if (projection == null)
+			{
+				estIter.remove();
+				++removed;
+				continue;
+			}
+
+			if (this.relevantVariableSets.get(g).intersects(changed) == false ||
+					Arrays.equals(projection, this.getProjection(this.relevantVariables.get(g))))
+			{
+				++this.hits;
+				continue;
+			}
+
+			estIter.remove();
+			this.projections.remove(g);
+			++removed;
+		}
+		this.misses += removed;
+
+		return removed;
+	}
+
+	/**
+	 * Records the projection of the current state which the estimate of the specified goal depends on. Goals
+	 * which cannot be cached are ignored.
+	 * @param goal
+	 */
+	public synchronized void record(Fact goal)
+	{
+		int[] vars = this.getRelevantVariables(goal);
+		if (vars == null)
+			return;
+
+		this.projections.put(goal, this.getProjection(vars));
+	}
+
+	/**
+	 * Gets the number of causal-graph variables which the estimate of the goal depends upon. This is also a rough
+	 * indication of how expensive the goal is to estimate.
+	 * @param goal
+	 * @return The number of relevant variables, or -1 if the goal cannot be cached.
+	 */
+	public synchronized int getRelevantVariableCount(Fact goal)
+	{
+		int[] vars = this.getRelevantVariables(goal);
+		if (vars == null)
+			return -1;
+
+		return vars.length;
+	}
+
+	/**
+	 * Gets the number of estimates which have been retained across updates.
+	 * @return
+	 */
+	public synchronized int getHitCount()
+	{
+		return hits;
+	}
+
+	/**
+	 * Gets the number of estimates which have been invalidated by updates.
+	 * @return
+	 */
+	public synchronized int getMissCount()
+	{
+		return misses;
+	}
+
+	private int[] getProjection(int[] vars)
+	{
+		int[] projection = new int[vars.length];
+		for (int i = 0; i < vars.length; i++)
+		{
+			projection[i] = this.currentValues[vars[i]];
+		}
+
+		return projection;
+	}
+
+	/**
+	 * Gets the variables which the estimate of the goal depends upon -- its variables and all their
+	 * ancestors in the causal graph.
+	 * @param goal
+	 * @return The dense IDs of the relevant variables, or null if the goal cannot be cached.
+	 */
+	private int[] getRelevantVariables(Fact goal)
+	{
+		if (this.relevantVariables.containsKey(goal))
+			return this.relevantVariables.get(goal);
+
+		BitSet relevant = new BitSet(this.parents.length);
+		Queue<Integer> queue = new LinkedList<Integer>();
+		for (Fact f : goal.getFacts())
+		{
+			if (f instanceof Not)
+				f = ((Not) f).getLiteral();
+
+			Integer var = this.factVariables.get(f);
+			if (var == null)
+			{
+				this.relevantVariables.put(goal, null);
+				return null;
+			}
+
+			if (relevant.get(var) == false)
+			{
+				relevant.set(var);
+				queue.add(var);
+			}
+		}
+
+		while (queue.isEmpty() == false)
+		{
+			int var = queue.remove();
+			for (int p : this.parents[var])
+			{
+				if (relevant.get(p) == false)
+				{
+					relevant.set(p);
+					queue.add(p);
+				}
+			}
+		}
+
+		int[] vars = new int[relevant.cardinality()];
+		int i = 0;
+		for (int v = relevant.nextSetBit(0); v >= 0; v = relevant.nextSetBit(v + 1))
+			vars[i++] = v;
+
+		this.relevantVariables.put(goal, vars);
+		this.relevantVariableSets.put(goal, relevant);
+
+		return vars;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Estimate cache: "+this.projections.size()+" goals, "+this.hits+" retained, "+this.misses+" invalidated";
+	}
+}
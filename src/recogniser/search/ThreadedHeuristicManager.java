@@ -1,11 +1,16 @@
 package recogniser.search;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
@@ -15,7 +20,10 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javaff.JavaFF;
 import javaff.data.CompoundLiteral;
@@ -30,16 +38,35 @@ import javaff.planning.STRIPSState;
 import recogniser.hypothesis.AllFalseGoal;
 import recogniser.util.HybridSasPddlProblem;
 import recogniser.util.IGRAPHPreferences;
-import recogniser.util.StripsRpg;
-import recogniser.util.IGRAPHPreferences.RecognitionHeuristicType;
+import recogniser.util.IncrementalRpg;
 import javaff.search.UnreachableGoalException;
 
 public class ThreadedHeuristicManager
 {
+	/**
+	 * The number of tasks which the goals are split into per thread. More tasks give better load balancing,
+	 * at the cost of more scheduling overhead.
+	 */
+	private static final int TasksPerThread = 4;
+	
+	/**
+	 * The batch being run by each worker thread, so that heuristics can find out whether it has been abandoned.
+	 */
+	private static final ThreadLocal<GoalBatchRunnable> CurrentBatch = new ThreadLocal<GoalBatchRunnable>();
+	
 	protected IHeuristic heuristic;
+	protected IHeuristicFactory heuristicFactory;
 	protected HybridSasPddlProblem problem;
 
 	private Map<Fact, Double> estimates;
+	private Map<Fact, Double> previousEstimates; //most recent reachable estimate of each goal, for scheduling
+	
+	//deadline mode -- tasks which missed their deadline, and the goals which have a fallback estimate until they finish
+	private Map<Future<FactFloatPair[]>, GoalBatchRunnable> refinements;
+	private Set<Fact> approximated;
+	private MaxHeuristic fallbackHeuristic;
+	private boolean heuristicAbandoned; //the heuristic is still in use by abandoned tasks, so must be replaced
+	private RelevantStateEstimateCache estimateCache;
 
 	private ExecutorService threadPool;
 	private final int maxThreads;
@@ -48,14 +75,29 @@ public class ThreadedHeuristicManager
 	{
 		this.problem = problem;
 		this.estimates = new HashMap<Fact, Double>();
+		this.previousEstimates = new HashMap<Fact, Double>();
+		this.refinements = new HashMap<Future<FactFloatPair[]>, GoalBatchRunnable>();
+		this.approximated = new HashSet<Fact>();
+		this.fallbackHeuristic = null;
+		this.heuristicAbandoned = false;
 
 		this.maxThreads = maxThreads;
 
-		this.threadPool = Executors.newFixedThreadPool(this.maxThreads);
+		this.threadPool = new ForkJoinPool(this.maxThreads);
+//		this.threadPool = Executors.newFixedThreadPool(this.maxThreads);
 //		this.threadPool = Executors.newSingleThreadExecutor();
 //		this.threadPool = Executors.newCachedThreadPool();
 		
+		this.heuristicFactory = HeuristicRegistry.getSelectedFactory();
 		this.initialiseHeuristic();
+		this.initialiseFallbackHeuristic();
+		
+		//estimates are only retained across observations if the heuristic is deterministic and
+		//only depends on the state
+		if (IGRAPHPreferences.CacheEstimates && this.heuristicFactory.isDeterministic())
+		{
+			this.estimateCache = new RelevantStateEstimateCache(this.problem);
+		}
 	}
 
 //	public ThreadedHeuristicManager(HybridSasPddlProblem problem)
@@ -63,92 +105,343 @@ public class ThreadedHeuristicManager
 //		this(problem, Runtime.getRuntime().availableProcessors());
 //	}
 
+	/**
+	 * Computes the estimate of every goal which does not already have one, within the time allowed by 
+	 * {@link IGRAPHPreferences#EstimationBudget}.
+	 * @param goals
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 * @see #getEstimates(Collection, long)
+	 */
 	public void getEstimates(Collection<Fact> goals) throws InterruptedException, ExecutionException
 	{
-		final IHeuristic baseHeuristic = this.heuristic;
-//		if (this.heuristic instanceof JavaFFHeuristic)
-//		{
-//			this.initialiseHeuristic();
-//		}
-
-		Set<Future<FactFloatPair>> futures = new HashSet<Future<FactFloatPair>>();
-
+		this.getEstimates(goals, IGRAPHPreferences.EstimationBudget);
+	}
+	
+	/**
+	 * Computes the estimate of every goal which does not already have one. Goals are ordered by their predicted
+	 * cost, most expensive first, and cheap goals are grouped into batches so that each task has roughly the
+	 * same amount of work. Tasks are run on a work-stealing pool, so that long searches for individual goals 
+	 * do not leave other threads idle.
+	 * <p/>
+	 * If a budget is specified, any goal which has not been estimated once it expires is given its previous
+	 * estimate, or its h_max estimate if it has none. The real estimate continues to be computed in the 
+	 * background, and replaces the fallback if it finishes before the state changes.
+	 * @param goals
+	 * @param budget The maximum time to wait for estimates, in milliseconds, or 0 to wait for all estimates.
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 * @see #abandonRefinements()
+	 */
+	public void getEstimates(Collection<Fact> goals, long budget) throws InterruptedException, ExecutionException
+	{
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget);
+		this.applyRefinements(false);
+		
+		ArrayList<Fact> pending = new ArrayList<Fact>();
 		for (Fact g : goals)
 		{
-			if (this.estimates.containsKey(g))
-				continue;
-			
-			IHeuristic goalHeuristic = null;
-			//the existing FF relaxed plan extraction is destructive with regard to the internal 
-			//state of the RPG etc, so it must be recreated -- which probably seriously offsets any 
-			//benefits from threading.
-			if (this.heuristic instanceof JavaFFHeuristic)
-			{
-				
-				goalHeuristic = (IHeuristic) ((JavaFFHeuristic)baseHeuristic).clone();
-				((JavaFFHeuristic) goalHeuristic).setGoal(g);
-				
-			}
-			else if (this.heuristic instanceof GraphplanHeuristic)
-			{
-				goalHeuristic = (IHeuristic) ((GraphplanHeuristic)baseHeuristic).clone();
-				((GraphplanHeuristic) goalHeuristic).setGoal((GroundFact) g);
-			}
-			else if (this.heuristic instanceof JavaFFPlanningHeuristic)
+			if (this.estimates.containsKey(g) == false)
+				pending.add(g);
+		}
+		
+		if (pending.isEmpty())
+			return;
+		
+		final HashMap<Fact, Double> predictedCosts = new HashMap<Fact, Double>();
+		double totalCost = 0;
+		for (Fact g : pending)
+		{
+			double cost = this.getPredictedCost(g);
+			predictedCosts.put(g, cost);
+			totalCost += cost;
+		}
+		
+		//longest-processing-time-first -- expensive goals are started first, and cheap goals fill in the gaps
+		Collections.sort(pending, new Comparator<Fact>()
+		{
+			@Override
+			public int compare(Fact a, Fact b)
 			{
-				goalHeuristic = (IHeuristic) baseHeuristic.clone();
+				return Double.compare(predictedCosts.get(b), predictedCosts.get(a));
 			}
-			else if (this.heuristic instanceof CEAHeuristic)
+		});
+		
+		double taskCost = totalCost / (this.maxThreads * TasksPerThread);
+		
+		LinkedHashMap<Future<FactFloatPair[]>, GoalBatchRunnable> futures = 
+				new LinkedHashMap<Future<FactFloatPair[]>, GoalBatchRunnable>();
+		ArrayList<Fact> batch = new ArrayList<Fact>();
+		double batchCost = 0;
+		for (Fact g : pending)
+		{
+			batch.add(g);
+			batchCost += predictedCosts.get(g);
+			
+			if (batchCost >= taskCost)
 			{
-				goalHeuristic = ((CEAHeuristic) baseHeuristic).branch();
-//				goalHeuristic = (IHeuristic) ((CEAHeuristic) baseHeuristic).clone();
+				GoalBatchRunnable task = this.createBatch(batch.toArray(new Fact[batch.size()]));
+				futures.put(this.threadPool.submit(task), task);
+				batch.clear();
+				batchCost = 0;
 			}
-			else
+		}
+		if (batch.isEmpty() == false)
+		{
+			GoalBatchRunnable task = this.createBatch(batch.toArray(new Fact[batch.size()]));
+			futures.put(this.threadPool.submit(task), task);
+		}
+
+		for (Entry<Future<FactFloatPair[]>, GoalBatchRunnable> e : futures.entrySet())
+		{
+			Future<FactFloatPair[]> future = e.getKey();
+			if (budget > 0)
 			{
-				//Both the Max and CG heuristics are non-destructive, so the original heuristic object can be used
-				goalHeuristic = baseHeuristic;
+				try
+				{
+					//waiting with a non-positive timeout still returns the result if it is already available
+					future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				}
+				catch (TimeoutException ex)
+				{
+					//leave the task running in the background, and make do with a cheaper estimate for now
+					this.refinements.put(future, e.getValue());
+					for (Fact g : e.getValue().getGoals())
+					{
+						this.estimates.put(g, this.getFallbackEstimate(g));
+						this.approximated.add(g);
+					}
+					continue;
+				}
 			}
 			
-			HeuristicRunnable callable = new HeuristicRunnable(goalHeuristic, g);
-			Future<FactFloatPair> future = this.threadPool.submit(callable);
-			futures.add(future);
+			this.applyResults(future.get()); //wait for future to return. 
 		}
-
-		for (Future<FactFloatPair> future : futures)
+	}
+	
+	/**
+	 * Stores the results of a finished task.
+	 * @param pairs
+	 */
+	private void applyResults(FactFloatPair[] pairs)
+	{
+		for (FactFloatPair pair : pairs)
 		{
-			FactFloatPair pair = future.get(); //wait for future to return. 
-
 			this.estimates.put(pair.fact, pair.value);
+			this.approximated.remove(pair.fact);
+			if (this.estimateCache != null)
+				this.estimateCache.record(pair.fact);
+			
+			if (pair.value != IHeuristic.Unreachable)
+				this.previousEstimates.put(pair.fact, pair.value);
 		}
 	}
-
-	public double getEstimate(Fact goal) throws UnreachableGoalException, InterruptedException, ExecutionException
+	
+	/**
+	 * Replaces fallback estimates with the results of any background tasks which have finished.
+	 * @param wait If true, waits for all background tasks to finish.
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	private void applyRefinements(boolean wait) throws InterruptedException, ExecutionException
 	{
-		if (this.estimates.containsKey(goal))
-			return this.estimates.get(goal);
+		Iterator<Future<FactFloatPair[]>> iter = this.refinements.keySet().iterator();
+		while (iter.hasNext())
+		{
+			Future<FactFloatPair[]> future = iter.next();
+			if (wait == false && future.isDone() == false)
+				continue;
+			
+			this.applyResults(future.get());
+			iter.remove();
+		}
+	}
+	
+	/**
+	 * Stops waiting for any estimates which missed their deadline. Those which have already finished replace 
+	 * their fallback estimates, while the rest are cancelled and their fallbacks discarded, as the goals will be
+	 * estimated again in the new state. This must be called before the state of the problem is changed, so that
+	 * finished estimates are recorded against the state they were computed in.
+	 * <p/>
+	 * Tasks which are already running are told to stop once they finish their current goal. Until then they may
+	 * still be reading the current heuristic, so the next call to 
+	 * {@link #updateHeuristic(HybridSasPddlProblem, Collection)} leaves it to them and creates a new one.
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public void abandonRefinements() throws InterruptedException, ExecutionException
+	{
+		this.applyRefinements(false);
 		
-		IHeuristic clone = this.heuristic;
-		if (this.heuristic instanceof JavaFFHeuristic)
+		for (Entry<Future<FactFloatPair[]>, GoalBatchRunnable> e : this.refinements.entrySet())
 		{
-			clone = new JavaFFHeuristic(this.problem, goal);
-//			clone = new JavaFFHeuristic((GroundProblem) this.problem.clone(), goal);
+			e.getValue().abandon();
+			e.getKey().cancel(true);
+			for (Fact g : e.getValue().getGoals())
+				this.estimates.remove(g);
+			
+			this.heuristicAbandoned = true;
 		}
-		else if (this.heuristic instanceof GraphplanHeuristic)
+		
+		this.refinements.clear();
+		this.approximated.clear();
+	}
+	
+	/**
+	 * Returns true if the estimate of the specified goal is a fallback which is still being refined in the
+	 * background.
+	 * @param g
+	 * @return
+	 */
+	public boolean isApproximate(Fact g)
+	{
+		return this.approximated.contains(g);
+	}
+	
+	/**
+	 * Gets the goals whose estimates are fallbacks which are still being refined in the background.
+	 * @return
+	 */
+	public Set<Fact> getApproximatedGoals()
+	{
+		return Collections.unmodifiableSet(this.approximated);
+	}
+	
+	/**
+	 * Returns true if the calling thread is estimating a batch of goals which has been abandoned, in which case
+	 * its remaining goals need not be estimated. Heuristics which estimate several goals in one call should check
+	 * this between goals.
+	 * @return
+	 * @see #abandonRefinements()
+	 */
+	public static boolean isCurrentBatchAbandoned()
+	{
+		GoalBatchRunnable batch = CurrentBatch.get();
+		return batch != null && batch.isAbandoned();
+	}
+	
+	/**
+	 * Gets a cheap estimate for a goal which could not be estimated before the deadline. This is the goal's most
+	 * recent estimate, or its h_max estimate if it has never been estimated.
+	 * @param g
+	 * @return
+	 */
+	protected double getFallbackEstimate(Fact g)
+	{
+		Double previous = this.previousEstimates.get(g);
+		if (previous != null)
+			return previous;
+		
+		if (this.fallbackHeuristic == null)
+			this.createFallbackHeuristic();
+		
+		try
 		{
-			clone = this.heuristic = new GraphplanHeuristic(this.problem);
+			return this.fallbackHeuristic.getEstimate(g);
 		}
-		else if (this.heuristic instanceof JavaFFPlanningHeuristic)
+		catch (UnreachableGoalException e)
 		{
-			clone = (IHeuristic) heuristic.clone();
+			return IHeuristic.Unreachable;
 		}
-		else if (this.heuristic instanceof CEAHeuristic)
+	}
+	
+	/**
+	 * Builds the h_max heuristic used for fallback estimates now if a budget is in use, so that the first goal to
+	 * miss its deadline does not have to wait for the RPG to be constructed. It is then kept up to date by 
+	 * {@link #updateHeuristic(HybridSasPddlProblem, Collection)}.
+	 */
+	protected void initialiseFallbackHeuristic()
+	{
+		if (IGRAPHPreferences.EstimationBudget > 0 && this.fallbackHeuristic == null)
+			this.createFallbackHeuristic();
+	}
+	
+	/**
+	 * Creates the h_max heuristic used for fallback estimates. The current heuristic is used if it is already
+	 * an incremental h_max heuristic, otherwise a new RPG is built for the current state.
+	 */
+	private void createFallbackHeuristic()
+	{
+		if (this.heuristic instanceof MaxHeuristic && ((MaxHeuristic) this.heuristic).getIncrementalRpg() != null)
 		{
-			clone = ((CEAHeuristic) heuristic).branch();
+			this.fallbackHeuristic = (MaxHeuristic) this.heuristic;
 		}
 		else
 		{
-			clone = (IHeuristic) heuristic.clone();
+			IncrementalRpg rpg = new IncrementalRpg(this.problem.getActions());
+			rpg.constructFullRPG((STRIPSState) this.problem.getState());
+			this.fallbackHeuristic = new MaxHeuristic(rpg);
 		}
+	}
+	
+	/**
+	 * Creates a task for the specified goals. If the heuristic cannot be shared, the copies for each goal are 
+	 * made here rather than in the worker threads, as copying reads the base heuristic.
+	 * @param batch
+	 * @return
+	 */
+	private GoalBatchRunnable createBatch(Fact[] goals)
+	{
+		if (this.isHeuristicShareable())
+			return new GoalBatchRunnable(this.heuristic, goals);
+		
+		IHeuristic[] heuristics = new IHeuristic[goals.length];
+		for (int i = 0; i < goals.length; i++)
+			heuristics[i] = this.getGoalHeuristic(goals[i]);
+		
+		return new GoalBatchRunnable(heuristics, goals);
+	}
+	
+	/**
+	 * Predicts how expensive the specified goal will be to estimate. This is the goal's most recent estimate if
+	 * it has one, otherwise the number of variables in the causal graph which it depends upon, or failing
+	 * that the number of facts in the goal.
+	 * @param g
+	 * @return A predicted cost, which is always at least 1.
+	 */
+	protected double getPredictedCost(Fact g)
+	{
+		Double previous = this.previousEstimates.get(g);
+		if (previous != null)
+			return previous + 1;
+		
+		if (this.estimateCache != null)
+		{
+			int vars = this.estimateCache.getRelevantVariableCount(g);
+			if (vars > 0)
+				return vars;
+		}
+		
+		return Math.max(1, g.getFacts().size());
+	}
+	
+	/**
+	 * Returns true if the current heuristic can be used by multiple threads at once, so that there is no
+	 * need to copy it for each goal.
+	 * @return
+	 */
+	protected boolean isHeuristicShareable()
+	{
+		return this.heuristic.isThreadSafe();
+	}
+	
+	/**
+	 * Creates a copy of the current heuristic which can be used to estimate the specified goal without 
+	 * interfering with any other thread.
+	 * @param g
+	 * @return
+	 */
+	protected IHeuristic getGoalHeuristic(Fact g)
+	{
+		return this.heuristic.fork(g);
+	}
+
+	public double getEstimate(Fact goal) throws UnreachableGoalException, InterruptedException, ExecutionException
+	{
+		if (this.estimates.containsKey(goal))
+			return this.estimates.get(goal);
+		
+		IHeuristic clone = this.getGoalHeuristic(goal);
 
 		HeuristicRunnable callable = new HeuristicRunnable(clone, goal);
 		Future<FactFloatPair> future = this.threadPool.submit(callable);
@@ -156,6 +449,8 @@ public class ThreadedHeuristicManager
 		FactFloatPair pair = future.get();
 
 		this.estimates.put(pair.fact, pair.value);
+		if (this.estimateCache != null)
+			this.estimateCache.record(pair.fact);
 		
 		return pair.value;
 	}
@@ -178,96 +473,58 @@ public class ThreadedHeuristicManager
 
 	protected void initialiseHeuristic()
 	{
-		if (IGRAPHPreferences.Heuristic == RecognitionHeuristicType.Max)
-		{
-			StripsRpg rpg = new StripsRpg(this.problem.getActions());
-			rpg.constructFullRPG(this.problem.getSTRIPSInitialState());
-			this.heuristic = new MaxHeuristic(rpg);
-		}
-		else if (IGRAPHPreferences.Heuristic == RecognitionHeuristicType.FF)
-		{
-			JavaFFHeuristic ffh = new JavaFFHeuristic(this.problem);
-//			ffh.getRpg().constructStableGraph(this.problem.getSTRIPSInitialState());
-			this.heuristic = ffh;
-		}
-		else if (IGRAPHPreferences.Heuristic == RecognitionHeuristicType.CG)
-		{
-			this.heuristic = new CGHeuristic(this.problem);
-		}
-		else if (IGRAPHPreferences.Heuristic == RecognitionHeuristicType.CEA)
-		{
-			this.heuristic = new CEAHeuristic(this.problem);
-		}
-		else if (IGRAPHPreferences.Heuristic == RecognitionHeuristicType.GP)
-		{
-			this.heuristic = new GraphplanHeuristic(this.problem);
-		}
-		else if (IGRAPHPreferences.Heuristic == RecognitionHeuristicType.JavaFFPlanning)
-		{
-			this.heuristic = new JavaFFPlanningHeuristic(this.problem);
-		}
-		else if (IGRAPHPreferences.Heuristic == RecognitionHeuristicType.Random)
-		{
-			this.heuristic = new RandomHeuristic();
-		}
-
+		this.heuristic = this.heuristicFactory.create(this.problem);
 	}
 
 	/**
 	 * Update the heuristic being used to reflect the new state etc
 	 */
-	public void updateHeuristic(HybridSasPddlProblem newProblem, Collection<Fact> goals)
+	public void updateHeuristic(HybridSasPddlProblem newProblem, Collection<Fact> goals) throws InterruptedException, ExecutionException
 	{
+		this.abandonRefinements();
+		
 		this.problem = newProblem;
 		
-		//wipe all previous estimates
-		this.estimates.clear();
+		//wipe all previous estimates, unless the state they depended on has not changed
+		if (this.estimateCache != null)
+		{
+			this.estimateCache.update((STRIPSState) newProblem.getState(), newProblem.getActions().size(), 
+					this.estimates);
+		}
+		else
+		{
+			this.estimates.clear();
+		}
 		
-		this.heuristic.reset();
+		if (this.heuristicAbandoned == false)
+			this.heuristic.reset();
 		
 		// GroundProblem cloneGP = (GroundProblem)this.problem.clone();
 		// STRIPSState current = new STRIPSState(cloneGP.actions, currentState.facts, goal);
 		And allGoals = new And(goals);
 		this.problem.setGoal(allGoals);
 
-		if (IGRAPHPreferences.Heuristic == RecognitionHeuristicType.Max)
-		{
-			StripsRpg rpg = new StripsRpg(this.problem.getActions());
-			rpg.constructFullRPG((STRIPSState) newProblem.getState()); // set up the RPG distances, no need for the
-												// returned plan (which seems to be broken anyway)
-			((MaxHeuristic) this.heuristic).setRpg(rpg);
-		}
-		else if (IGRAPHPreferences.Heuristic == RecognitionHeuristicType.FF)
-		{
-			((JavaFFHeuristic) this.heuristic).rebuildRPG(this.problem);
-		}
-		else if (IGRAPHPreferences.Heuristic == RecognitionHeuristicType.CG)
-		{
-			((CGHeuristic) this.heuristic).reset(); // erase lookup table
-			((CGHeuristic) this.heuristic).setProblem(this.problem);
-		}
-		else if (IGRAPHPreferences.Heuristic == RecognitionHeuristicType.CEA)
+		if (this.fallbackHeuristic != null && this.fallbackHeuristic != this.heuristic)
 		{
-			//no update required for CEA. The state is passed in as an argument and everything else
-			//remains the same.
+			this.fallbackHeuristic.stateChanged(this.problem);
 		}
-		else if (IGRAPHPreferences.Heuristic == RecognitionHeuristicType.GP)
-		{
-			//this is a hack because GPHeuristic calls currentState = getSTRIPSInitialState() on each
-			//call of reset(). Rather than go around this problem, easier to just
-			//change the initial state to be the current state -- 
-			this.problem.setInitial(((STRIPSState) this.problem.getState()).getFacts());
-			((GraphplanHeuristic) this.heuristic).setProblem(this.problem); //calls reset()
-		}
-		else if (IGRAPHPreferences.Heuristic == RecognitionHeuristicType.JavaFFPlanning)
+		
+		if (this.heuristicAbandoned)
 		{
-			GroundProblem cgp = (GroundProblem) this.problem.clone();
-			cgp.setInitial(((STRIPSState) this.problem.getState()).getFacts());
-			cgp.recomputeSTRIPSInitialState();
-			this.heuristic = new JavaFFPlanningHeuristic(cgp);
+			//abandoned tasks may still be reading the old heuristic, so leave it to them
+			if (this.fallbackHeuristic == this.heuristic)
+				this.fallbackHeuristic = null;
 			
+			this.initialiseHeuristic();
+			this.heuristicAbandoned = false;
 		}
-			
+		
+		boolean sharedFallback = this.fallbackHeuristic == this.heuristic;
+		this.heuristic = this.heuristic.stateChanged(this.problem);
+		if (sharedFallback)
+			this.fallbackHeuristic = null;
+		
+		this.initialiseFallbackHeuristic();
 	}
 
 	protected class HeuristicRunnable implements Callable<FactFloatPair> // extends Thread
@@ -311,6 +568,85 @@ public class ThreadedHeuristicManager
 		}
 	}
 
+	/**
+	 * Estimates a batch of goals. If a single heuristic is given, the whole batch is passed to 
+	 * {@link IHeuristic#getEstimates(Fact[])}, otherwise each goal is estimated with its own heuristic.
+	 */
+	protected class GoalBatchRunnable implements Callable<FactFloatPair[]>
+	{
+		private Fact[] goals;
+		private IHeuristic sharedHeuristic;
+		private IHeuristic[] goalHeuristics;
+		private volatile boolean abandoned;
+
+		public GoalBatchRunnable(IHeuristic sharedHeuristic, Fact[] goals)
+		{
+			super();
+
+			this.sharedHeuristic = sharedHeuristic;
+			this.goalHeuristics = null;
+			this.goals = goals;
+		}
+
+		public GoalBatchRunnable(IHeuristic[] goalHeuristics, Fact[] goals)
+		{
+			super();
+
+			this.sharedHeuristic = null;
+			this.goalHeuristics = goalHeuristics;
+			this.goals = goals;
+		}
+
+		public Fact[] getGoals()
+		{
+			return goals;
+		}
+		
+		/**
+		 * Tells the batch to stop once the goal currently being estimated is finished. The results of an 
+		 * abandoned batch are incomplete, and must be ignored.
+		 */
+		public void abandon()
+		{
+			this.abandoned = true;
+		}
+		
+		public boolean isAbandoned()
+		{
+			return abandoned;
+		}
+
+		@Override
+		public FactFloatPair[] call()
+		{
+			FactFloatPair[] pairs = new FactFloatPair[this.goals.length];
+			if (this.abandoned)
+				return pairs;
+			
+			CurrentBatch.set(this);
+			try
+			{
+				if (this.sharedHeuristic != null)
+				{
+					double[] values = this.sharedHeuristic.getEstimates(this.goals);
+					for (int i = 0; i < this.goals.length; i++)
+						pairs[i] = new FactFloatPair(this.goals[i], values[i]);
+				}
+				else
+				{
+					for (int i = 0; i < this.goals.length && this.abandoned == false; i++)
+						pairs[i] = new HeuristicRunnable(this.goalHeuristics[i], this.goals[i]).call();
+				}
+			}
+			finally
+			{
+				CurrentBatch.remove();
+			}
+			
+			return pairs;
+		}
+	}
+
 	protected class FactFloatPair
 	{
 		public Fact fact;
@@ -344,10 +680,34 @@ public class ThreadedHeuristicManager
 		//(assuming the goals wanted as the same as those previously processed).
 		if (this.heuristic instanceof JavaFFHeuristic)
 		{
-			Map<Fact, Plan> cache = ((JavaFFHeuristic) this.heuristic).getCachedPlans();
+			JavaFFHeuristic ffh = (JavaFFHeuristic) this.heuristic;
+			
+			//plans are cached as goals are estimated, but the shared RPG can extract any that are missing
+			if (ffh.isShared())
+			{
+				for (Fact g : remaining)
+				{
+					if (g instanceof AllFalseGoal || ffh.getCachedPlans().containsKey(g))
+						continue;
+					
+					try
+					{
+						ffh.computeEstimate(g);
+					}
+					catch (UnreachableGoalException e)
+					{
+						//do nothing -- plan is still cached
+					}
+				}
+			}
+			
+			Map<Fact, Plan> cache = ffh.getCachedPlans();
 			plans.addAll(cache.values());
 			
 			remaining.removeAll(cache.keySet());
+			
+			if (ffh.isShared())
+				remaining.removeAll(this.getAllFalseGoals(remaining));
 		}
 
 		if (remaining.isEmpty())
@@ -394,8 +754,44 @@ public class ThreadedHeuristicManager
 		return plans;
 	}
 
+	private Set<Fact> getAllFalseGoals(Collection<Fact> goals)
+	{
+		HashSet<Fact> afgs = new HashSet<Fact>();
+		for (Fact g : goals)
+		{
+			if (g instanceof AllFalseGoal)
+				afgs.add(g);
+		}
+		
+		return afgs;
+	}
+
 	public Map<Fact, Double> getCachedEstimates()
 	{
 		return estimates;
 	}
+	
+	/**
+	 * Gets the cache of the current heuristic, whose hit, miss and eviction counts cover every estimate 
+	 * made by the heuristic since it was created.
+	 * @return The cache, or null if the heuristic is not an {@link AbstractHeuristic}.
+	 */
+	public EstimateCache getHeuristicEstimateCache()
+	{
+		if (this.heuristic instanceof AbstractHeuristic)
+			return ((AbstractHeuristic) this.heuristic).getEstimateCache();
+		
+		return null;
+	}
+	
+	/**
+	 * Gets the cache which decides which estimates are retained across observations, and counts how many have 
+	 * been retained and invalidated.
+	 * @return The cache, or null if estimates are not retained across observations.
+	 * @see IGRAPHPreferences#CacheEstimates
+	 */
+	public RelevantStateEstimateCache getRelevantStateEstimateCache()
+	{
+		return estimateCache;
+	}
 }
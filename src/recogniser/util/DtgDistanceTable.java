@@ -0,0 +1,331 @@
+package recogniser.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javaff.data.Fact;
+import javaff.data.strips.Proposition;
+import sas.data.CausalGraph;
+import sas.data.DomainTransitionGraph;
+import sas.data.SASLiteral;
+import sas.data.SASProposition;
+
+/**
+ * All-pairs shortest path lengths between the values of each SAS+ variable, computed once from the domain
+ * transition graphs of a problem. Transition conditions on other variables are ignored, so each distance is a lower
+ * bound on the number of transitions of the variable needed to move between the two values. For variables which
+ * have no parents in the causal graph, transitions have no outside conditions, so the distance is exact.
+ * <p/>
+ * Each variable's distances are held in a flat int array indexed by [from * domainSize + to], where values are
+ * identified by their SAS+ value ID. The tables are read-only once constructed, so can be shared by any number
+ * of threads.
+ *
+ * @author David Pattison
+ *
+ */
+public class DtgDistanceTable
+{
+	/**
+	 * The distance between two values which are not connected in the DTG.
+	 */
+	public static final int Unreachable = Integer.MAX_VALUE;
+
+	/**
+	 * Returned when a distance cannot be looked up, such as when the current value of a variable is not known.
+	 */
+	public static final int Unknown = -1;
+
+	private HashMap<Integer, Integer> variableIndex; //SAS+ variable ID -> dense index
+	private int[][] distances;
+	private int[] domainSizes;
+	private boolean[] roots;
+	private int[][] parents;
+	private ConcurrentHashMap<Integer, BitSet> ancestors;
+	private HashMap<Fact, SASLiteral> factLiterals;
+
+	/**
+	 * Computes the distance tables for every DTG in the problem, with the DTGs spread across the specified
+	 * number of threads.
+	 * @param problem
+	 * @param threads
+	 */
+	public DtgDistanceTable(HybridSasPddlProblem problem, int threads)
+	{
+		this.variableIndex = new HashMap<Integer, Integer>();
+		this.factLiterals = new HashMap<Fact, SASLiteral>();
+
+		CausalGraph cg = problem.getCausalGraph();
+		final List<DomainTransitionGraph> dtgs = new ArrayList<DomainTransitionGraph>(cg.vertexSet());
+		for (DomainTransitionGraph dtg : dtgs)
+			this.variableIndex.put(dtg.getVariable().getId(), this.variableIndex.size());
+
+		this.distances = new int[dtgs.size()][];
+		this.domainSizes = new int[dtgs.size()];
+		this.roots = new boolean[dtgs.size()];
+		this.ancestors = new ConcurrentHashMap<Integer, BitSet>();
+
+		//causal graph edges go from precondition variables to effect variables
+		List<List<Integer>> parentLists = new ArrayList<List<Integer>>();
+		for (int v = 0; v < dtgs.size(); v++)
+			parentLists.add(new ArrayList<Integer>());
+
+		for (DomainTransitionGraph dtg : dtgs)
+		{
+			int parent = this.variableIndex.get(dtg.getVariable().getId());
+			for (DomainTransitionGraph child : cg.getOutgoingVertices(dtg))
+			{
+				if (child != dtg)
+					parentLists.get(this.variableIndex.get(child.getVariable().getId())).add(parent);
+			}
+		}
+
+		this.parents = new int[dtgs.size()][];
+		for (int v = 0; v < dtgs.size(); v++)
+		{
+			List<Integer> l = parentLists.get(v);
+			this.parents[v] = new int[l.size()];
+			for (int i = 0; i < l.size(); i++)
+				this.parents[v][i] = l.get(i);
+
+			this.roots[v] = this.parents[v].length == 0;
+		}
+
+		for (SASProposition l : problem.sasproblem.reachableFacts)
+		{
+			Proposition p = l.convertToPDDL(problem.sasproblem, problem);
+			this.factLiterals.put(p, l);
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		try
+		{
+			List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+			for (final DomainTransitionGraph dtg : dtgs)
+			{
+				futures.add(pool.submit(new Callable<int[]>()
+				{
+					@Override
+					public int[] call()
+					{
+						return computeDistances(dtg);
+					}
+				}));
+			}
+
+			for (int v = 0; v < dtgs.size(); v++)
+			{
+				this.distances[v] = futures.get(v).get();
+				this.domainSizes[v] = getDomainSize(dtgs.get(v));
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while computing DTG distances", e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new RuntimeException("Failed to compute DTG distances", e.getCause());
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Computes the all-pairs distance matrix of a single DTG by a breadth-first search from each value.
+	 * @param dtg
+	 * @return
+	 */
+	private static int[] computeDistances(DomainTransitionGraph dtg)
+	{
+		Set<SASLiteral> values = dtg.vertexSet();
+		int n = getDomainSize(dtg);
+
+		int[] dists = new int[n * n];
+		Arrays.fill(dists, Unreachable);
+
+		int[] queue = new int[n];
+		HashMap<Integer, SASLiteral> literals = new HashMap<Integer, SASLiteral>();
+		for (SASLiteral l : values)
+		{
+			if (l.getValueId() >= 0)
+				literals.put(l.getValueId(), l);
+		}
+
+		for (int from : literals.keySet())
+		{
+			int row = from * n;
+			dists[row + from] = 0;
+
+			int head = 0, tail = 0;
+			queue[tail++] = from;
+			while (head < tail)
+			{
+				int current = queue[head++];
+				Collection<SASLiteral> next = dtg.getOutgoingVertices(literals.get(current));
+				for (SASLiteral l : next)
+				{
+					int to = l.getValueId();
+					if (to < 0 || dists[row + to] != Unreachable)
+						continue;
+
+					dists[row + to] = dists[row + current] + 1;
+					queue[tail++] = to;
+				}
+			}
+		}
+
+		return dists;
+	}
+
+	/**
+	 * Gets the number of rows/columns in the distance matrix of a DTG, which is one more than its largest value ID.
+	 * @param dtg
+	 * @return
+	 */
+	private static int getDomainSize(DomainTransitionGraph dtg)
+	{
+		int n = 0;
+		for (SASLiteral l : dtg.vertexSet())
+			n = Math.max(n, l.getValueId() + 1);
+
+		return n;
+	}
+
+	/**
+	 * Gets the distance between two values of a variable.
+	 * @param variableId The SAS+ ID of the variable.
+	 * @param from The value ID to start from.
+	 * @param to The value ID to reach.
+	 * @return The distance, {@link #Unreachable} if there is no path, or {@link #Unknown} if either value
+	 * is not part of the variable's DTG.
+	 */
+	public int getDistance(int variableId, int from, int to)
+	{
+		Integer v = this.variableIndex.get(variableId);
+		if (v == null)
+			return Unknown;
+
+		if (from == to)
+			return 0;
+
+		int n = this.domainSizes[v];
+		if (from < 0 || to < 0 || from >= n || to >= n)
+			return Unknown;
+
+		return this.distances[v][from * n + to];
+	}
+
+	/**
+	 * Gets the distance from the current value of the goal's variable to the goal.
+	 * @param state The value of each variable, as returned by {@link #projectState(Collection)}.
+	 * @param goal
+	 * @return The distance, {@link #Unreachable} if there is no path, or {@link #Unknown} if the current value
+	 * of the variable is not known.
+	 */
+	public int getDistance(int[] state, SASLiteral goal)
+	{
+		Integer v = this.variableIndex.get(goal.getVariableId());
+		if (v == null || state[v] < 0)
+			return Unknown;
+
+		return this.getDistance(goal.getVariableId(), state[v], goal.getValueId());
+	}
+
+	/**
+	 * Returns true if the variable has no parents in the causal graph, in which case the distances of the
+	 * variable are exact.
+	 * @param variableId The SAS+ ID of the variable.
+	 * @return
+	 */
+	public boolean isRoot(int variableId)
+	{
+		Integer v = this.variableIndex.get(variableId);
+		return v != null && this.roots[v];
+	}
+
+	/**
+	 * Gets the variable and all of its ancestors in the causal graph. No other variable can affect the cost of 
+	 * changing the variable's value.
+	 * @param variableId The SAS+ ID of the variable.
+	 * @return The dense indices of the variables, as used by {@link #projectState(Collection)}, or null if the
+	 * variable is unknown. This must not be modified.
+	 */
+	public BitSet getRelevantVariables(int variableId)
+	{
+		Integer v = this.variableIndex.get(variableId);
+		if (v == null)
+			return null;
+
+		BitSet relevant = this.ancestors.get(v);
+		if (relevant != null)
+			return relevant;
+
+		relevant = new BitSet(this.parents.length);
+		relevant.set(v);
+		int[] queue = new int[this.parents.length];
+		int head = 0, tail = 0;
+		queue[tail++] = v;
+		while (head < tail)
+		{
+			int current = queue[head++];
+			for (int p : this.parents[current])
+			{
+				if (relevant.get(p) == false)
+				{
+					relevant.set(p);
+					queue[tail++] = p;
+				}
+			}
+		}
+
+		this.ancestors.putIfAbsent(v, relevant);
+		return relevant;
+	}
+
+	/**
+	 * Gets the value ID of each variable in the specified PDDL state, indexed in the same way as the tables.
+	 * @param trueFacts The facts true in the state.
+	 * @return The value of each variable, or -1 for variables which have no true fact.
+	 */
+	public int[] projectState(Collection<? extends Fact> trueFacts)
+	{
+		int[] state = new int[this.distances.length];
+		Arrays.fill(state, -1);
+
+		for (Fact f : trueFacts)
+		{
+			SASLiteral l = this.factLiterals.get(f);
+			if (l == null)
+				continue;
+
+			Integer v = this.variableIndex.get(l.getVariableId());
+			if (v != null)
+				state[v] = l.getValueId();
+		}
+
+		return state;
+	}
+
+	/**
+	 * Gets the number of variables in the table.
+	 * @return
+	 */
+	public int getVariableCount()
+	{
+		return this.distances.length;
+	}
+}
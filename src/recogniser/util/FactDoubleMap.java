@@ -0,0 +1,352 @@
+package recogniser.util;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javaff.data.Fact;
+
+/**
+ * A mapping of facts to primitive doubles, backed by an array indexed by the ID each fact has in a
+ * {@link FactIndex}. This avoids both the hashing of {@link Fact} objects (if the ID is already known)
+ * and the boxing of values which a HashMap&lt;Fact, Double&gt; requires. Facts which are not yet in the
+ * index are interned when first put into the map.
+ * <p/>
+ * This class is not thread-safe for concurrent writes.
+ *
+ * @author David Pattison
+ *
+ */
+public class FactDoubleMap
+{
+	private FactIndex index;
+	private double[] values;
+	private BitSet present;
+	private int size;
+
+	/**
+	 * Creates an empty map which uses its own private index.
+	 */
+	public FactDoubleMap()
+	{
+		this(new FactIndex());
+	}
+
+	/**
+	 * Creates an empty map which uses the specified index to assign fact IDs.
+	 * @param index
+	 */
+	public FactDoubleMap(FactIndex index)
+	{
+		this.index = index;
+		this.values = new double[Math.max(16, index.getFactCount())];
+		this.present = new BitSet(this.values.length);
+		this.size = 0;
+	}
+
+	/**
+	 * Creates a shallow copy of the map. The index is shared with the clone.
+	 */
+	@Override
+	public Object clone()
+	{
+		FactDoubleMap clone = new FactDoubleMap(this.index);
+		clone.values = this.values.clone();
+		clone.present = (BitSet) this.present.clone();
+		clone.size = this.size;
+
+		return clone;
+	}
+
+	/**
+	 * Gets the index used to assign fact IDs.
+	 * @return
+	 */
+	public FactIndex getIndex()
+	{
+		return index;
+	}
+
+	public boolean containsKey(Fact f)
+	{
+		return this.containsKey(this.index.getId(f));
+	}
+
+	public boolean containsKey(int id)
+	{
+		return id >= 0 && this.present.get(id);
+	}
+
+	/**
+	 * Gets the value associated with the specified fact.
+	 * @param f
+	 * @return
+	 * @throws NullPointerException Thrown if the fact has no associated value.
+	 */
+	public double get(Fact f) throws NullPointerException
+	{
+		int id = this.index.getId(f);
+		if (this.containsKey(id) == false)
+			throw new NullPointerException("No value associated with "+f);
+
+		return this.values[id];
+	}
+
+	/**
+	 * Gets the value associated with the specified fact ID.
+	 * @param id
+	 * @return
+	 * @throws NullPointerException Thrown if the fact has no associated value.
+	 */
+	public double get(int id) throws NullPointerException
+	{
+		if (this.containsKey(id) == false)
+			throw new NullPointerException("No value associated with fact ID "+id);
+
+		return this.values[id];
+	}
+
+	/**
+	 * Gets the value associated with the specified fact, or the default value if there is none.
+	 * @param f
+	 * @param defaultValue
+	 * @return
+	 */
+	public double get(Fact f, double defaultValue)
+	{
+		int id = this.index.getId(f);
+		if (this.containsKey(id) == false)
+			return defaultValue;
+
+		return this.values[id];
+	}
+
+	/**
+	 * Associates the value with the fact, interning the fact if it is not already in the index.
+	 * @param f
+	 * @param value
+	 */
+	public void put(Fact f, double value)
+	{
+		int id = this.index.getId(f);
+		if (id < 0)
+			id = this.index.intern(f);
+
+		this.put(id, value);
+	}
+
+	/**
+	 * Associates the value with the fact ID.
+	 * @param id
+	 * @param value
+	 */
+	public void put(int id, double value)
+	{
+		if (id >= this.values.length)
+			this.values = Arrays.copyOf(this.values, Math.max(id + 1, this.values.length * 2));
+
+		if (this.present.get(id) == false)
+		{
+			this.present.set(id);
+			++this.size;
+		}
+
+		this.values[id] = value;
+	}
+
+	/**
+	 * Adds the specified amount to the value associated with the fact.
+	 * @param f
+	 * @param increment
+	 * @return The new value.
+	 * @throws NullPointerException Thrown if the fact has no associated value.
+	 */
+	public double increment(Fact f, double increment) throws NullPointerException
+	{
+		int id = this.index.getId(f);
+		double v = this.get(id) + increment;
+		this.values[id] = v;
+
+		return v;
+	}
+
+	/**
+	 * Removes the value associated with the fact.
+	 * @param f
+	 * @return True if the map changed as a result of this call.
+	 */
+	public boolean remove(Fact f)
+	{
+		int id = this.index.getId(f);
+		if (this.containsKey(id) == false)
+			return false;
+
+		this.present.clear(id);
+		this.values[id] = 0;
+		--this.size;
+
+		return true;
+	}
+
+	/**
+	 * Sets the value associated with every fact in the map to the specified value, without altering the keys.
+	 * @param value
+	 */
+	public void fill(double value)
+	{
+		for (int id = this.present.nextSetBit(0); id >= 0; id = this.present.nextSetBit(id + 1))
+		{
+			this.values[id] = value;
+		}
+	}
+
+	/**
+	 * Gets the sum of all values in the map.
+	 * @return
+	 */
+	public double sum()
+	{
+		double total = 0;
+		for (int id = this.present.nextSetBit(0); id >= 0; id = this.present.nextSetBit(id + 1))
+		{
+			total += this.values[id];
+		}
+
+		return total;
+	}
+
+	/**
+	 * Divides every value in the map by the specified divisor.
+	 * @param divisor
+	 */
+	public void divide(double divisor)
+	{
+		for (int id = this.present.nextSetBit(0); id >= 0; id = this.present.nextSetBit(id + 1))
+		{
+			this.values[id] /= divisor;
+		}
+	}
+
+	/**
+	 * Gets the first fact ID which has an associated value, starting from and including the specified ID.
+	 * @param id
+	 * @return The ID, or -1 if there are no more facts with values.
+	 */
+	public int nextKey(int id)
+	{
+		return this.present.nextSetBit(id);
+	}
+
+	public void clear()
+	{
+		this.present.clear();
+		Arrays.fill(this.values, 0);
+		this.size = 0;
+	}
+
+	public int size()
+	{
+		return this.size;
+	}
+
+	public boolean isEmpty()
+	{
+		return this.size == 0;
+	}
+
+	/**
+	 * Gets a live view of the facts which have an associated value. Removal through the view is supported.
+	 * @return
+	 */
+	public Set<Fact> keySet()
+	{
+		return new KeySet();
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuffer strBuf = new StringBuffer("{");
+		for (int id = this.present.nextSetBit(0); id >= 0; id = this.present.nextSetBit(id + 1))
+		{
+			if (strBuf.length() > 1)
+				strBuf.append(", ");
+
+			strBuf.append(this.index.getFact(id)+"="+this.values[id]);
+		}
+		strBuf.append("}");
+
+		return strBuf.toString();
+	}
+
+	/**
+	 * Set view of the keys in the map.
+	 */
+	private class KeySet extends AbstractSet<Fact>
+	{
+		@Override
+		public boolean contains(Object o)
+		{
+			if (o instanceof Fact == false)
+				return false;
+
+			return FactDoubleMap.this.containsKey((Fact) o);
+		}
+
+		@Override
+		public boolean remove(Object o)
+		{
+			if (o instanceof Fact == false)
+				return false;
+
+			return FactDoubleMap.this.remove((Fact) o);
+		}
+
+		@Override
+		public int size()
+		{
+			return FactDoubleMap.this.size;
+		}
+
+		@Override
+		public Iterator<Fact> iterator()
+		{
+			return new Iterator<Fact>()
+			{
+				private int next = present.nextSetBit(0);
+				private int last = -1;
+
+				@Override
+				public boolean hasNext()
+				{
+					return this.next >= 0;
+				}
+
+				@Override
+				public Fact next()
+				{
+					if (this.next < 0)
+						throw new NoSuchElementException();
+
+					this.last = this.next;
+					this.next = present.nextSetBit(this.next + 1);
+
+					return index.getFact(this.last);
+				}
+
+				@Override
+				public void remove()
+				{
+					if (this.last < 0)
+						throw new IllegalStateException();
+
+					FactDoubleMap.this.remove(index.getFact(this.last));
+					this.last = -1;
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package recogniser.util;
+
+import java.util.Arrays;
+
+import javaff.data.Fact;
+
+/**
+ * Records a growing series of primitive doubles for each fact, such as the heuristic estimate of a goal at each
+ * observed timestep. Series are stored in arrays indexed by the ID each fact has in a {@link FactIndex},
+ * removing the need for a HashMap&lt;Fact, List&lt;Double&gt;&gt; and the boxing which goes with it.
+ * <p/>
+ * This class is not thread-safe for concurrent writes.
+ *
+ * @author David Pattison
+ *
+ */
+public class FactDoubleSeries
+{
+	private FactIndex index;
+	private double[][] series;
+	private int[] lengths;
+
+	/**
+	 * Creates an empty set of series which uses its own private index.
+	 */
+	public FactDoubleSeries()
+	{
+		this(new FactIndex());
+	}
+
+	/**
+	 * Creates an empty set of series which uses the specified index to assign fact IDs.
+	 * @param index
+	 */
+	public FactDoubleSeries(FactIndex index)
+	{
+		this.index = index;
+		this.series = new double[Math.max(16, index.getFactCount())][];
+		this.lengths = new int[this.series.length];
+	}
+
+	/**
+	 * Creates a deep copy of the series. The index is shared with the clone.
+	 */
+	@Override
+	public Object clone()
+	{
+		FactDoubleSeries clone = new FactDoubleSeries(this.index);
+		clone.series = new double[this.series.length][];
+		for (int i = 0; i < this.series.length; i++)
+		{
+			if (this.series[i] != null)
+				clone.series[i] = this.series[i].clone();
+		}
+		clone.lengths = this.lengths.clone();
+
+		return clone;
+	}
+
+	/**
+	 * Gets the index used to assign fact IDs.
+	 * @return
+	 */
+	public FactIndex getIndex()
+	{
+		return index;
+	}
+
+	public boolean containsKey(Fact f)
+	{
+		int id = this.index.getId(f);
+		return id >= 0 && id < this.series.length && this.series[id] != null;
+	}
+
+	/**
+	 * Appends a value to the end of the specified fact's series, creating the series if it does not exist.
+	 * @param f
+	 * @param value
+	 */
+	public void add(Fact f, double value)
+	{
+		int id = this.index.getId(f);
+		if (id < 0)
+			id = this.index.intern(f);
+
+		if (id >= this.series.length)
+		{
+			int newLength = Math.max(id + 1, this.series.length * 2);
+			this.series = Arrays.copyOf(this.series, newLength);
+			this.lengths = Arrays.copyOf(this.lengths, newLength);
+		}
+
+		double[] s = this.series[id];
+		if (s == null)
+		{
+			s = new double[8];
+			this.series[id] = s;
+		}
+		else if (this.lengths[id] == s.length)
+		{
+			s = Arrays.copyOf(s, s.length * 2);
+			this.series[id] = s;
+		}
+
+		s[this.lengths[id]++] = value;
+	}
+
+	/**
+	 * Gets the value at the specified position in the fact's series.
+	 * @param f
+	 * @param t
+	 * @return
+	 * @throws NullPointerException Thrown if the fact has no series.
+	 * @throws IndexOutOfBoundsException Thrown if the series does not contain the specified position.
+	 */
+	public double get(Fact f, int t) throws NullPointerException, IndexOutOfBoundsException
+	{
+		int id = this.getSeriesId(f);
+		if (t < 0 || t >= this.lengths[id])
+			throw new IndexOutOfBoundsException("Index "+t+" is outwith series of length "+this.lengths[id]+" for "+f);
+
+		return this.series[id][t];
+	}
+
+	/**
+	 * Gets the last value in the fact's series.
+	 * @param f
+	 * @return
+	 * @throws NullPointerException Thrown if the fact has no series.
+	 * @throws IndexOutOfBoundsException Thrown if the series is empty.
+	 */
+	public double getLast(Fact f) throws NullPointerException, IndexOutOfBoundsException
+	{
+		return this.get(f, this.size(f) - 1);
+	}
+
+	/**
+	 * Gets the length of the fact's series.
+	 * @param f
+	 * @return
+	 * @throws NullPointerException Thrown if the fact has no series.
+	 */
+	public int size(Fact f) throws NullPointerException
+	{
+		return this.lengths[this.getSeriesId(f)];
+	}
+
+	/**
+	 * Gets a copy of the fact's series.
+	 * @param f
+	 * @return
+	 * @throws NullPointerException Thrown if the fact has no series.
+	 */
+	public double[] toArray(Fact f) throws NullPointerException
+	{
+		int id = this.getSeriesId(f);
+		return Arrays.copyOf(this.series[id], this.lengths[id]);
+	}
+
+	private int getSeriesId(Fact f) throws NullPointerException
+	{
+		int id = this.index.getId(f);
+		if (id < 0 || id >= this.series.length || this.series[id] == null)
+			throw new NullPointerException("No series associated with "+f);
+
+		return id;
+	}
+}
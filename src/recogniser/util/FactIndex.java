@@ -0,0 +1,219 @@
+package recogniser.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javaff.data.Action;
+import javaff.data.Fact;
+import javaff.data.strips.Not;
+import javaff.planning.STRIPSState;
+
+/**
+ * Assigns a dense integer ID to every fact and action in a problem, so that lookups in the recogniser's
+ * hot path can be performed using primitive arrays rather than hashing {@link Fact} and {@link Action} objects.
+ * <p/>
+ * The index is append-only -- IDs never change once assigned, and facts which were not present when the index
+ * was constructed (such as {@link recogniser.hypothesis.AllFalseGoal}s) are given new IDs via {@link #intern(Fact)}.
+ * Negated facts are not interned, only their literals. Lookups are lock-free and may be performed from any
+ * thread, while interning new facts or actions is synchronised.
+ *
+ * @author David Pattison
+ *
+ */
+public class FactIndex
+{
+	private ConcurrentHashMap<Fact, Integer> factIds;
+	private volatile Fact[] facts;
+	private int factCount;
+
+	private ConcurrentHashMap<Action, Integer> actionIds;
+	private volatile Action[] actions;
+	private int actionCount;
+
+	/**
+	 * Creates an empty index.
+	 */
+	public FactIndex()
+	{
+		this.factIds = new ConcurrentHashMap<Fact, Integer>();
+		this.facts = new Fact[64];
+		this.factCount = 0;
+		this.actionIds = new ConcurrentHashMap<Action, Integer>();
+		this.actions = new Action[64];
+		this.actionCount = 0;
+	}
+
+	/**
+	 * Creates an index containing all reachable facts, all facts which appear in an action and all facts
+	 * in the current state of the problem. All actions in the problem are also interned.
+	 * @param problem
+	 */
+	public FactIndex(HybridSasPddlProblem problem)
+	{
+		this();
+
+		for (Fact f : problem.getReachableFacts())
+		{
+			this.intern(f);
+		}
+
+		for (Action a : problem.getActions())
+		{
+			this.intern(a);
+
+			for (Fact f : a.getPreconditions())
+			{
+				if (f instanceof Not)
+					this.intern(((Not) f).getLiteral());
+				else
+					this.intern(f);
+			}
+			for (Fact f : a.getAddPropositions())
+			{
+				this.intern(f);
+			}
+			for (Not f : a.getDeletePropositions())
+			{
+				this.intern(f.getLiteral());
+			}
+		}
+
+		for (Fact f : ((STRIPSState) problem.getState()).getTrueFacts())
+		{
+			this.intern(f);
+		}
+	}
+
+	/**
+	 * Gets the ID of the specified fact, assigning it a new ID if it has never been seen before.
+	 * @param f
+	 * @return The ID of the fact.
+	 */
+	public synchronized int intern(Fact f)
+	{
+		Integer id = this.factIds.get(f);
+		if (id == null)
+		{
+			id = this.factCount++;
+			if (id == this.facts.length)
+				this.facts = Arrays.copyOf(this.facts, id * 2);
+			this.facts[id] = f;
+			
+			//only publish the ID once the fact is in the array
+			this.factIds.put(f, id);
+		}
+
+		return id;
+	}
+
+	/**
+	 * Gets the ID of the specified action, assigning it a new ID if it has never been seen before.
+	 * @param a
+	 * @return The ID of the action.
+	 */
+	public synchronized int intern(Action a)
+	{
+		Integer id = this.actionIds.get(a);
+		if (id == null)
+		{
+			id = this.actionCount++;
+			if (id == this.actions.length)
+				this.actions = Arrays.copyOf(this.actions, id * 2);
+			this.actions[id] = a;
+			
+			this.actionIds.put(a, id);
+		}
+
+		return id;
+	}
+
+	/**
+	 * Gets the ID of the specified fact.
+	 * @param f
+	 * @return The ID of the fact, or -1 if it has not been interned.
+	 */
+	public int getId(Fact f)
+	{
+		Integer id = this.factIds.get(f);
+		if (id == null)
+			return -1;
+
+		return id;
+	}
+
+	/**
+	 * Gets the ID of the specified action.
+	 * @param a
+	 * @return The ID of the action, or -1 if it has not been interned.
+	 */
+	public int getId(Action a)
+	{
+		Integer id = this.actionIds.get(a);
+		if (id == null)
+			return -1;
+
+		return id;
+	}
+
+	/**
+	 * Gets the fact associated with the specified ID.
+	 * @param id
+	 * @return
+	 */
+	public Fact getFact(int id)
+	{
+		return this.facts[id];
+	}
+
+	/**
+	 * Gets the action associated with the specified ID.
+	 * @param id
+	 * @return
+	 */
+	public Action getAction(int id)
+	{
+		return this.actions[id];
+	}
+
+	/**
+	 * Converts a collection of facts into their IDs, interning any which have not been seen before.
+	 * @param facts
+	 * @return
+	 */
+	public int[] intern(Collection<? extends Fact> facts)
+	{
+		int[] ids = new int[facts.size()];
+		int i = 0;
+		for (Fact f : facts)
+		{
+			ids[i++] = this.intern(f);
+		}
+
+		return ids;
+	}
+
+	/**
+	 * Gets the number of facts which have been interned.
+	 * @return
+	 */
+	public synchronized int getFactCount()
+	{
+		return this.factCount;
+	}
+
+	/**
+	 * Gets the number of actions which have been interned.
+	 * @return
+	 */
+	public synchronized int getActionCount()
+	{
+		return this.actionCount;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Fact index: "+this.getFactCount()+" facts, "+this.getActionCount()+" actions";
+	}
+}
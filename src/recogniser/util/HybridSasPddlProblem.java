@@ -51,6 +51,8 @@ public class HybridSasPddlProblem extends GroundProblem
 	public Set<MutexSpace> singleMutexSpaces;
 	
 	private HashMap<String, SASAction> sasActionLookup;
+	private FactIndex factIndex;
+	private DtgDistanceTable dtgDistances;
 //	private HashMap<String, Action> pddlActionLookup;
 //	
 //	private HashMap<String, SASLiteral> sasFactLookup;
@@ -98,6 +100,8 @@ public class HybridSasPddlProblem extends GroundProblem
 		
 		//the following are shallow-clones
 		clone.sasActionLookup = (HashMap<String, SASAction>) this.sasActionLookup.clone();
+		clone.factIndex = this.factIndex; //IDs are append-only, so the index can be shared
+		clone.dtgDistances = this.dtgDistances; //DTGs are static, so the tables are read-only
 //		clone.sasFactLookup = (HashMap<String, SASLiteral>) this.sasFactLookup.clone();
 //		clone.pddlActionLookup = (HashMap<String, Action>) this.pddlActionLookup.clone();
 //		clone.pddlFactLookup = (HashMap<String, Fact>) this.pddlFactLookup.clone();
@@ -230,6 +234,32 @@ public class HybridSasPddlProblem extends GroundProblem
 				" now. "+rpgActions+" actions, "+rpgReachableActions.size()+" actions after");
 	}
 	
+	/**
+	 * Gets the index which assigns integer IDs to the facts and actions of this problem. The index is 
+	 * constructed on first access and is shared between this problem and any clones of it.
+	 * @return
+	 */
+	public synchronized FactIndex getFactIndex()
+	{
+		if (this.factIndex == null)
+			this.factIndex = new FactIndex(this);
+		
+		return this.factIndex;
+	}
+	
+	/**
+	 * Gets the all-pairs distance tables of the DTGs in this problem. These are computed in parallel the first
+	 * time this is called.
+	 * @return
+	 */
+	public synchronized DtgDistanceTable getDtgDistances()
+	{
+		if (this.dtgDistances == null)
+			this.dtgDistances = new DtgDistanceTable(this, Runtime.getRuntime().availableProcessors());
+		
+		return this.dtgDistances;
+	}
+	
 	public CausalGraph getCausalGraph()
 	{
 		return this.sasproblem.causalGraph;
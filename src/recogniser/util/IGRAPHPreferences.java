@@ -49,6 +49,12 @@ public abstract class IGRAPHPreferences
 	 */
 	public static RecognitionHeuristicType Heuristic = RecognitionHeuristicType.Max;
 	
+	/**
+	 * The name of a heuristic registered with {@link recogniser.search.HeuristicRegistry}, which is used in 
+	 * preference to {@link #Heuristic} if set. Defaults to null.
+	 */
+	public static String HeuristicName = null;
+	
 	/**
 	 * The hypothesis filter type. Defaults to {@link HypothesisFilterType}.Greedy.
 	 */
@@ -131,6 +137,62 @@ public abstract class IGRAPHPreferences
 	 * Defaults to true.
 	 */
 	public static boolean DoSASTranslation = true;
+	
+	/**
+	 * If true, the state history is updated incrementally after each observation, using running counts of 
+	 * the steps which moved each goal nearer/further, rather than reclassifying every previous observation.
+	 * Both methods produce the same results. Defaults to true.
+	 */
+	public static boolean IncrementalHistory = true;
+	
+	/**
+	 * If true, heuristic estimates are retained across observations for any goal whose relevant causal-graph
+	 * variables were not changed by the observation. Ignored for non-deterministic heuristics. Defaults to true.
+	 */
+	public static boolean CacheEstimates = true;
+	
+	/**
+	 * If true, the FF heuristic extracts relaxed plans non-destructively from a single RPG shared by all threads,
+	 * rather than cloning JavaFF's RPG for every goal. Defaults to true.
+	 */
+	public static boolean SharedRPG = true;
+	
+	/**
+	 * The maximum number of estimates each heuristic remembers between state updates, or 0 if there is no limit.
+	 * Defaults to 0.
+	 */
+	public static int EstimateCacheSize = 0;
+	
+	/**
+	 * The time allowed for computing goal estimates after each observation, in milliseconds. Goals which have 
+	 * not been estimated in this time are given a cheaper estimate while the real one is computed in the 
+	 * background, until the next observation. 0 means there is no limit. Defaults to 0.
+	 */
+	public static long EstimationBudget = 0;
+	
+	/**
+	 * If true, the CEA heuristic keeps the estimate of each SAS+ literal between observations, and only
+	 * recomputes those which depend upon a variable changed by the observation. Defaults to true.
+	 */
+	public static boolean IncrementalCEA = true;
+	
+	/**
+	 * If true, the Graphplan heuristic expands a single planning graph per state, which is searched 
+	 * concurrently for every goal, rather than copying the problem and graph for each goal. Defaults to true.
+	 */
+	public static boolean SharedPlanningGraph = true;
+	
+	/**
+	 * The maximum time in milliseconds which JavaFF may spend planning to a single goal when the JavaFFPlanning
+	 * heuristic is used, after which the relaxed plan length is used. 0 means there is no limit. Defaults to 0.
+	 */
+	public static long PlanningBudget = 0;
+	
+	/**
+	 * If true, goal-spaces store the log of each probability, and normalisation after a Bayesian update is deferred
+	 * until a probability is next read. This avoids underflow over long observation sequences. Defaults to false.
+	 */
+	public static boolean LogSpaceProbabilities = false;
 
 
 	
@@ -171,8 +233,10 @@ public abstract class IGRAPHPreferences
 				IGRAPHPreferences.Heuristic = RecognitionHeuristicType.JavaFFPlanning;
 			else if (prefs.get("heuristic").equalsIgnoreCase("Random"))
 				IGRAPHPreferences.Heuristic = RecognitionHeuristicType.Random;
+			else if (prefs.get("heuristic").equalsIgnoreCase("LM") || prefs.get("heuristic").equalsIgnoreCase("Landmark"))
+				IGRAPHPreferences.Heuristic = RecognitionHeuristicType.Landmark;
 			else
-				throw new IllegalArgumentException("Unknown Heuristic");
+				IGRAPHPreferences.HeuristicName = prefs.get("heuristic"); //checked when the heuristic is created
 		}
 
 		if (prefs.containsKey("work"))
@@ -278,6 +342,51 @@ public abstract class IGRAPHPreferences
 			boolean mt = Integer.parseInt(prefs.get("multithreaded")) == 1 ? true : false;
 			IGRAPHPreferences.MultiThreaded = mt;
 		}
+		
+		if (prefs.containsKey("incrementalHistory"))
+		{
+			IGRAPHPreferences.IncrementalHistory = prefs.get("incrementalHistory").equals("1");
+		}
+		
+		if (prefs.containsKey("cacheEstimates"))
+		{
+			IGRAPHPreferences.CacheEstimates = prefs.get("cacheEstimates").equals("1");
+		}
+		
+		if (prefs.containsKey("sharedRPG"))
+		{
+			IGRAPHPreferences.SharedRPG = prefs.get("sharedRPG").equals("1");
+		}
+		
+		if (prefs.containsKey("estimateCacheSize"))
+		{
+			IGRAPHPreferences.EstimateCacheSize = Integer.parseInt(prefs.get("estimateCacheSize"));
+		}
+		
+		if (prefs.containsKey("estimationBudget"))
+		{
+			IGRAPHPreferences.EstimationBudget = Long.parseLong(prefs.get("estimationBudget"));
+		}
+		
+		if (prefs.containsKey("incrementalCEA"))
+		{
+			IGRAPHPreferences.IncrementalCEA = prefs.get("incrementalCEA").equals("1");
+		}
+		
+		if (prefs.containsKey("sharedPlanningGraph"))
+		{
+			IGRAPHPreferences.SharedPlanningGraph = prefs.get("sharedPlanningGraph").equals("1");
+		}
+		
+		if (prefs.containsKey("planningBudget"))
+		{
+			IGRAPHPreferences.PlanningBudget = Long.parseLong(prefs.get("planningBudget"));
+		}
+		
+		if (prefs.containsKey("logSpace"))
+		{
+			IGRAPHPreferences.LogSpaceProbabilities = prefs.get("logSpace").equals("1");
+		}
 			
 	}
 	
@@ -299,11 +408,22 @@ public abstract class IGRAPHPreferences
 		IGRAPHPreferences.InitialDistribution = InitialProbabilityDistributionType.CAUSALITYVALUE;
 
 		IGRAPHPreferences.Heuristic = RecognitionHeuristicType.Max;
+		IGRAPHPreferences.HeuristicName = null;
 		
 		IGRAPHPreferences.WorkFunction = WorkFunctionType.ML;
 		
 		IGRAPHPreferences.DoSASTranslation = true;
 		
+		IGRAPHPreferences.IncrementalHistory = true;
+		IGRAPHPreferences.CacheEstimates = true;
+		IGRAPHPreferences.SharedRPG = true;
+		IGRAPHPreferences.EstimateCacheSize = 0;
+		IGRAPHPreferences.EstimationBudget = 0;
+		IGRAPHPreferences.IncrementalCEA = true;
+		IGRAPHPreferences.SharedPlanningGraph = true;
+		IGRAPHPreferences.PlanningBudget = 0;
+		IGRAPHPreferences.LogSpaceProbabilities = false;
+		
 		IGRAPHPreferences.HypothesisFilter = HypothesisFilterType.Greedy;
 	
 		IGRAPHPreferences.Epsilon = 0.00001d;
@@ -446,6 +566,10 @@ public abstract class IGRAPHPreferences
 		 * Use a random number as the heuristic estimate.
 		 */
 		Random,
+		/**
+		 * Landmark counting heuristic
+		 */
+		Landmark,
 		
 	}
 	
@@ -0,0 +1,842 @@
+package recogniser.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javaff.data.Action;
+import javaff.data.Fact;
+import javaff.data.GroundFact;
+import javaff.data.strips.Equals;
+import javaff.data.strips.Not;
+import javaff.planning.STRIPSState;
+
+/**
+ * A relaxed planning graph which is maintained incrementally between observations, rather than being reconstructed
+ * from scratch as {@link StripsRpg} is. The graph is stored as the h_max cost of each fact and action, which is
+ * equivalent to the first layer at which the fact/action appears in a full RPG.
+ * <p/>
+ * When the current state changes, only the costs which depended upon the facts which were added or deleted are
+ * repaired. Deleted facts invalidate every fact whose best supporter (transitively) relied upon them, and these are
+ * then recomputed Dijkstra-style using a counter of unsatisfied preconditions for each action. Added facts can
+ * only lower costs, so are propagated forwards from the new facts alone.
+ *
+ * @author David Pattison
+ *
+ */
+public class IncrementalRpg
+{
+	/**
+	 * The cost of any fact or action which cannot be reached from the current state.
+	 */
+	public static final int Unreachable = Integer.MAX_VALUE;
+
+	private HashMap<Fact, Integer> factIds;
+	private Fact[] facts;
+	private Action[] actions;
+
+	/**
+	 * Action ID -> relaxed precondition fact IDs (static, negative and equality preconditions are ignored).
+	 */
+	private int[][] preconditions;
+	/**
+	 * Action ID -> add effect fact IDs.
+	 */
+	private int[][] adds;
+	/**
+	 * Fact ID -> IDs of the actions which have the fact as a precondition.
+	 */
+	private int[][] consumers;
+	/**
+	 * Fact ID -> IDs of the actions which add the fact.
+	 */
+	private int[][] achievers;
+
+	private int[] factCost;
+	private int[] actionCost;
+	/**
+	 * Fact ID -> the action which the fact's current cost was derived from, or -1 if the fact is true or unreachable.
+	 */
+	private int[] supporter;
+	private int[] unsatisfied;
+	private boolean[] affected;
+	/**
+	 * Fact ID -> the achiever selected for relaxed plan extraction, or -1 if it has not been selected since the
+	 * costs last changed. Shared by all extractions, as the choice depends only upon the costs. Concurrent 
+	 * extractions may both select the same achiever, which is harmless.
+	 */
+	private int[] achieverTable;
+
+	/**
+	 * All facts true in the current state, including those which are not relevant to any action.
+	 */
+	private HashSet<Fact> trueFacts;
+
+	/**
+	 * Creates an incremental RPG over the specified actions. No costs are available until
+	 * {@link #constructFullRPG(STRIPSState)} has been called.
+	 * @param actions
+	 */
+	public IncrementalRpg(Set<Action> actions)
+	{
+		this.factIds = new HashMap<Fact, Integer>();
+		this.actions = actions.toArray(new Action[actions.size()]);
+		this.trueFacts = new HashSet<Fact>();
+
+		this.initialise();
+	}
+
+	protected IncrementalRpg()
+	{
+	}
+
+	/**
+	 * Interns all relevant facts and constructs the static action/fact indexes.
+	 */
+	private void initialise()
+	{
+		ArrayList<Fact> factList = new ArrayList<Fact>();
+		this.preconditions = new int[this.actions.length][];
+		this.adds = new int[this.actions.length][];
+
+		for (int a = 0; a < this.actions.length; a++)
+		{
+			ArrayList<Integer> pcs = new ArrayList<Integer>();
+			for (Fact pc : this.actions[a].getPreconditions())
+			{
+				if (pc instanceof Not || pc instanceof Equals || pc.isStatic())
+					continue;
+
+				pcs.add(this.intern(pc, factList));
+			}
+			this.preconditions[a] = this.toArray(pcs);
+
+			ArrayList<Integer> add = new ArrayList<Integer>();
+			for (Fact f : this.actions[a].getAddPropositions())
+			{
+				add.add(this.intern(f, factList));
+			}
+			this.adds[a] = this.toArray(add);
+		}
+		this.facts = factList.toArray(new Fact[factList.size()]);
+
+		int[] consumerCount = new int[this.facts.length];
+		int[] achieverCount = new int[this.facts.length];
+		for (int a = 0; a < this.actions.length; a++)
+		{
+			for (int p : this.preconditions[a])
+				++consumerCount[p];
+			for (int q : this.adds[a])
+				++achieverCount[q];
+		}
+
+		this.consumers = new int[this.facts.length][];
+		this.achievers = new int[this.facts.length][];
+		for (int f = 0; f < this.facts.length; f++)
+		{
+			this.consumers[f] = new int[consumerCount[f]];
+			this.achievers[f] = new int[achieverCount[f]];
+		}
+
+		for (int a = 0; a < this.actions.length; a++)
+		{
+			for (int p : this.preconditions[a])
+				this.consumers[p][--consumerCount[p]] = a;
+			for (int q : this.adds[a])
+				this.achievers[q][--achieverCount[q]] = a;
+		}
+
+		this.factCost = new int[this.facts.length];
+		this.actionCost = new int[this.actions.length];
+		this.supporter = new int[this.facts.length];
+		this.unsatisfied = new int[this.actions.length];
+		this.affected = new boolean[this.facts.length];
+
+		Arrays.fill(this.factCost, Unreachable);
+		Arrays.fill(this.actionCost, Unreachable);
+		Arrays.fill(this.supporter, -1);
+		this.invalidateAchievers();
+	}
+
+	/**
+	 * Discards the achievers selected for relaxed plan extraction. Must be called whenever the costs change.
+	 * A new table is allocated, so that any extraction still using the old one cannot affect the new costs.
+	 */
+	private void invalidateAchievers()
+	{
+		this.achieverTable = new int[this.facts.length];
+		Arrays.fill(this.achieverTable, -1);
+	}
+
+	private int intern(Fact f, ArrayList<Fact> factList)
+	{
+		Integer id = this.factIds.get(f);
+		if (id == null)
+		{
+			id = factList.size();
+			this.factIds.put(f, id);
+			factList.add(f);
+		}
+
+		return id;
+	}
+
+	private int[] toArray(ArrayList<Integer> list)
+	{
+		int[] arr = new int[list.size()];
+		for (int i = 0; i < arr.length; i++)
+			arr[i] = list.get(i);
+
+		return arr;
+	}
+
+	/**
+	 * Returns a clone of this RPG. The static action/fact indexes are shared, while all costs are deep copies.
+	 */
+	public Object clone()
+	{
+		IncrementalRpg clone = new IncrementalRpg();
+		clone.factIds = this.factIds;
+		clone.facts = this.facts;
+		clone.actions = this.actions;
+		clone.preconditions = this.preconditions;
+		clone.adds = this.adds;
+		clone.consumers = this.consumers;
+		clone.achievers = this.achievers;
+
+		clone.factCost = this.factCost.clone();
+		clone.actionCost = this.actionCost.clone();
+		clone.supporter = this.supporter.clone();
+		clone.unsatisfied = new int[this.actions.length];
+		clone.affected = new boolean[this.facts.length];
+		clone.trueFacts = new HashSet<Fact>(this.trueFacts);
+		clone.achieverTable = this.achieverTable.clone();
+
+		return clone;
+	}
+
+	/**
+	 * Computes the cost of every fact and action from scratch, using the specified state.
+	 * @param initial
+	 */
+	public void constructFullRPG(STRIPSState initial)
+	{
+		this.trueFacts = new HashSet<Fact>(initial.getTrueFacts());
+		this.invalidateAchievers();
+
+		Arrays.fill(this.factCost, Unreachable);
+		Arrays.fill(this.actionCost, Unreachable);
+		Arrays.fill(this.supporter, -1);
+
+		//every fact which is not true is recomputed, which is equivalent to it having been deleted
+		ArrayList<Integer> all = new ArrayList<Integer>();
+		for (int f = 0; f < this.facts.length; f++)
+		{
+			if (this.trueFacts.contains(this.facts[f]))
+				this.factCost[f] = 0;
+			else
+				all.add(f);
+		}
+		for (int f : all)
+			this.affected[f] = true;
+		for (int a = 0; a < this.actions.length; a++)
+			this.actionCost[a] = this.getMaxPreconditionCost(a);
+
+		this.repairAffected(all);
+	}
+
+	/**
+	 * Updates the RPG to reflect the specified state, by repairing only those costs which are affected by the
+	 * difference between it and the previous state.
+	 * @param newState The new current state.
+	 */
+	public void update(STRIPSState newState)
+	{
+		Set<Fact> newFacts = newState.getTrueFacts();
+
+		HashSet<Fact> added = new HashSet<Fact>();
+		for (Fact f : newFacts)
+		{
+			if (this.trueFacts.contains(f) == false)
+				added.add(f);
+		}
+
+		HashSet<Fact> deleted = new HashSet<Fact>();
+		for (Fact f : this.trueFacts)
+		{
+			if (newFacts.contains(f) == false)
+				deleted.add(f);
+		}
+
+		this.update(added, deleted);
+	}
+
+	/**
+	 * Updates the RPG given the facts which have been added to and deleted from the current state, such as the
+	 * effects of an observed action.
+	 * @param added Facts which were false and are now true.
+	 * @param deleted Facts which were true and are now false.
+	 */
+	public void update(Collection<Fact> added, Collection<Fact> deleted)
+	{
+		this.trueFacts.removeAll(deleted);
+		this.trueFacts.addAll(added);
+		this.invalidateAchievers();
+
+		//deletions can only increase costs -- find every fact which was supported by a deleted fact and recompute it
+		ArrayList<Integer> affectedFacts = new ArrayList<Integer>();
+		for (Fact d : deleted)
+		{
+			Integer id = this.factIds.get(d);
+			if (id == null || this.trueFacts.contains(d))
+				continue;
+
+			this.affected[id] = true;
+			affectedFacts.add(id);
+		}
+
+		for (int i = 0; i < affectedFacts.size(); i++)
+		{
+			int f = affectedFacts.get(i);
+			for (int a : this.consumers[f])
+			{
+				for (int q : this.adds[a])
+				{
+					if (this.supporter[q] == a && this.affected[q] == false)
+					{
+						this.affected[q] = true;
+						affectedFacts.add(q);
+					}
+				}
+			}
+		}
+
+		if (affectedFacts.isEmpty() == false)
+		{
+			for (int f : affectedFacts)
+			{
+				this.factCost[f] = Unreachable;
+				this.supporter[f] = -1;
+			}
+
+			this.repairAffected(affectedFacts);
+		}
+
+		//additions can only decrease costs, so propagate forwards from the new facts
+		MinHeap queue = new MinHeap();
+		for (Fact f : added)
+		{
+			Integer id = this.factIds.get(f);
+			if (id == null || this.factCost[id] == 0)
+				continue;
+
+			this.factCost[id] = 0;
+			this.supporter[id] = -1;
+			queue.push(0, id);
+		}
+
+		this.propagateDecrease(queue);
+	}
+
+	/**
+	 * Recomputes the cost of every fact marked as affected, assuming all unaffected fact costs are exact. All
+	 * affected facts must have had their cost set to {@link #Unreachable} prior to calling.
+	 * @param affectedFacts
+	 */
+	private void repairAffected(Collection<Integer> affectedFacts)
+	{
+		MinHeap queue = new MinHeap();
+
+		//reset the unsatisfied-precondition counters of every action which depends on an affected fact
+		ArrayList<Integer> dependentActions = new ArrayList<Integer>();
+		for (int f : affectedFacts)
+		{
+			for (int a : this.consumers[f])
+			{
+				if (this.unsatisfied[a] == 0)
+					dependentActions.add(a);
+
+				++this.unsatisfied[a];
+			}
+		}
+		for (int a : dependentActions)
+			this.actionCost[a] = Unreachable;
+
+		//actions which have no precondition on an affected fact are unchanged (or have no preconditions at all),
+		//so seed the affected facts from these
+		for (int f : affectedFacts)
+		{
+			for (int a : this.achievers[f])
+			{
+				if (this.unsatisfied[a] > 0)
+					continue;
+
+				if (this.actionCost[a] == Unreachable)
+					this.actionCost[a] = this.getMaxPreconditionCost(a);
+
+				if (this.actionCost[a] != Unreachable && this.actionCost[a] + 1 < this.factCost[f])
+				{
+					this.factCost[f] = this.actionCost[a] + 1;
+					this.supporter[f] = a;
+				}
+			}
+
+			if (this.factCost[f] != Unreachable)
+				queue.push(this.factCost[f], f);
+		}
+
+		while (queue.isEmpty() == false)
+		{
+			int cost = queue.peekKey();
+			int f = queue.pop();
+			if (this.affected[f] == false || cost != this.factCost[f])
+				continue; //stale or already finalised
+
+			this.affected[f] = false;
+
+			for (int a : this.consumers[f])
+			{
+				if (--this.unsatisfied[a] > 0)
+					continue;
+
+				this.actionCost[a] = this.getMaxPreconditionCost(a);
+				if (this.actionCost[a] == Unreachable)
+					continue; //an unaffected precondition is unreachable
+
+				for (int q : this.adds[a])
+				{
+					if (this.actionCost[a] + 1 < this.factCost[q])
+					{
+						this.factCost[q] = this.actionCost[a] + 1;
+						this.supporter[q] = a;
+						queue.push(this.factCost[q], q);
+					}
+				}
+			}
+		}
+
+		//anything left is unreachable -- clear flags and counters for the next update
+		for (int f : affectedFacts)
+			this.affected[f] = false;
+		for (int a : dependentActions)
+			this.unsatisfied[a] = 0;
+	}
+
+	/**
+	 * Propagates cost decreases from the facts in the queue to all actions and facts which depend upon them.
+	 * @param queue
+	 */
+	private void propagateDecrease(MinHeap queue)
+	{
+		while (queue.isEmpty() == false)
+		{
+			int cost = queue.peekKey();
+			int f = queue.pop();
+			if (cost != this.factCost[f])
+				continue;
+
+			for (int a : this.consumers[f])
+			{
+				int newCost = this.getMaxPreconditionCost(a);
+				if (newCost >= this.actionCost[a])
+					continue;
+
+				this.actionCost[a] = newCost;
+				for (int q : this.adds[a])
+				{
+					if (newCost + 1 < this.factCost[q])
+					{
+						this.factCost[q] = newCost + 1;
+						this.supporter[q] = a;
+						queue.push(this.factCost[q], q);
+					}
+				}
+			}
+		}
+	}
+
+	private int getMaxPreconditionCost(int a)
+	{
+		int max = 0;
+		for (int p : this.preconditions[a])
+		{
+			if (this.factCost[p] > max)
+				max = this.factCost[p];
+		}
+
+		return max;
+	}
+
+	/**
+	 * Gets the relaxed distance from the current state to the specified goal set. This is the maximum cost of
+	 * any fact in the goal.
+	 * @param gc
+	 * @return The layer containing all facts, or -1 if they are not all reachable.
+	 */
+	public int getRelaxedDistance(GroundFact gc)
+	{
+		int max = 0;
+		for (Fact f : gc.getFacts())
+		{
+			int cost = this.getCost(f);
+			if (cost == Unreachable)
+				return -1;
+
+			if (cost > max)
+				max = cost;
+		}
+
+		return max;
+	}
+
+	/**
+	 * Extracts an FF-style relaxed plan to the specified goal from the current costs, without modifying the RPG.
+	 * Goals are processed from the highest layer downwards, and each is achieved by the action in the previous
+	 * layer with the lowest total precondition cost, unless an action already chosen for that layer adds it. The 
+	 * preconditions of the chosen action become goals at their own layer, unless they are already goals. The
+	 * achiever of each fact is only selected once between updates, and reused by every later extraction.
+	 * <p/>
+	 * As all per-goal working state is held in the buffer, multiple threads may extract plans from the same RPG
+	 * concurrently, so long as each uses its own buffer and the RPG is not updated at the same time.
+	 * @param gc The goal.
+	 * @param buffer Scratch space for the extraction.
+	 * @return The actions in the relaxed plan, in layer order, or null if the goal is unreachable.
+	 */
+	public List<Action> extractRelaxedPlan(GroundFact gc, ExtractionBuffer buffer)
+	{
+		ArrayList<Action> plan = new ArrayList<Action>();
+		if (this.extract(gc, buffer, plan) < 0)
+			return null;
+
+		Collections.reverse(plan);
+		return plan;
+	}
+
+	/**
+	 * Computes the length of the relaxed plan to each of the specified goals, without modifying the RPG or 
+	 * constructing any plans. A separate backward extraction is performed for each goal, sharing the achievers 
+	 * selected by earlier extractions. The lengths are identical to those of the plans returned by 
+	 * {@link #extractRelaxedPlan(GroundFact, ExtractionBuffer)}.
+	 * @param goals The goals.
+	 * @param buffer Scratch space for the extraction.
+	 * @return The relaxed plan length of each goal, in the same order, or -1 for unreachable goals.
+	 */
+	public int[] getRelaxedPlanLengths(GroundFact[] goals, ExtractionBuffer buffer)
+	{
+		int[] lengths = new int[goals.length];
+		for (int i = 0; i < goals.length; i++)
+		{
+			lengths[i] = this.extract(goals[i], buffer, null);
+		}
+
+		return lengths;
+	}
+
+	/**
+	 * Performs relaxed plan extraction.
+	 * @param gc The goal.
+	 * @param buffer Scratch space for the extraction.
+	 * @param plan The list to add the plan's actions to, in reverse layer order. May be null.
+	 * @return The number of actions in the plan, or -1 if the goal is unreachable.
+	 */
+	private int extract(GroundFact gc, ExtractionBuffer buffer, List<Action> plan)
+	{
+		int[] achieverTable = this.achieverTable;
+		buffer.prepare(this.facts.length, this.actions.length);
+		int stamp = buffer.nextStamp();
+
+		int maxLayer = 0;
+		for (Fact f : gc.getFacts())
+		{
+			Integer id = this.factIds.get(f);
+			if (id == null)
+			{
+				if (this.trueFacts.contains(f))
+					continue;
+
+				return -1;
+			}
+
+			int cost = this.factCost[id];
+			if (cost == Unreachable)
+				return -1;
+
+			if (cost > 0 && buffer.goalStamp[id] != stamp)
+			{
+				buffer.goalStamp[id] = stamp;
+				buffer.addGoal(cost, id);
+				if (cost > maxLayer)
+					maxLayer = cost;
+			}
+		}
+
+		int length = 0;
+		for (int layer = maxLayer; layer > 0; layer--)
+		{
+			//preconditions are always added at lower layers, so this layer cannot grow while it is processed
+			for (int i = 0; i < buffer.getGoalCount(layer); i++)
+			{
+				int g = buffer.getGoal(layer, i);
+				if (buffer.achievedStamp[g] == stamp && buffer.achievedLayer[g] == layer)
+					continue;
+
+				int best = achieverTable[g];
+				if (best < 0)
+				{
+					best = this.selectAchiever(g);
+					achieverTable[g] = best;
+				}
+
+				if (buffer.actionStamp[best] == stamp)
+					continue;
+
+				buffer.actionStamp[best] = stamp;
+				++length;
+				if (plan != null)
+					plan.add(this.actions[best]);
+
+				for (int q : this.adds[best])
+				{
+					buffer.achievedStamp[q] = stamp;
+					buffer.achievedLayer[q] = layer;
+				}
+
+				for (int p : this.preconditions[best])
+				{
+					int cost = this.factCost[p];
+					if (cost == 0 || buffer.goalStamp[p] == stamp)
+						continue;
+
+					buffer.goalStamp[p] = stamp;
+					buffer.addGoal(cost, p);
+				}
+			}
+		}
+
+		return length;
+	}
+
+	/**
+	 * Selects the achiever of a reachable, non-true fact which appears in the layer before it, and has the 
+	 * lowest total precondition cost.
+	 * @param g
+	 * @return
+	 */
+	private int selectAchiever(int g)
+	{
+		int layer = this.factCost[g];
+		int best = -1;
+		int bestDifficulty = Integer.MAX_VALUE;
+		for (int a : this.achievers[g])
+		{
+			if (this.actionCost[a] != layer - 1)
+				continue;
+
+			int difficulty = 0;
+			for (int p : this.preconditions[a])
+				difficulty += this.factCost[p];
+
+			if (difficulty < bestDifficulty)
+			{
+				best = a;
+				bestDifficulty = difficulty;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Gets the h_max cost of a single fact.
+	 * @param f
+	 * @return The cost, or {@link #Unreachable} if the fact cannot be achieved.
+	 */
+	public int getCost(Fact f)
+	{
+		Integer id = this.factIds.get(f);
+		if (id == null)
+			return this.trueFacts.contains(f) ? 0 : Unreachable;
+
+		return this.factCost[id];
+	}
+
+	/**
+	 * Gets the h_max cost of an action becoming applicable.
+	 * @param a
+	 * @return The cost, or {@link #Unreachable} if the action can never be applied.
+	 */
+	public int getCost(Action a)
+	{
+		for (int i = 0; i < this.actions.length; i++)
+		{
+			if (this.actions[i].equals(a))
+				return this.actionCost[i];
+		}
+
+		return Unreachable;
+	}
+
+	/**
+	 * Gets the number of actions this RPG was constructed over.
+	 * @return
+	 */
+	public int getActionCount()
+	{
+		return this.actions.length;
+	}
+
+	/**
+	 * Per-thread scratch space for {@link IncrementalRpg#extractRelaxedPlan(GroundFact, ExtractionBuffer)}. Marks
+	 * are stamped with an extraction counter rather than being cleared, so a buffer can be reused for any number of 
+	 * extractions without reallocating. Buffers must not be shared between threads.
+	 */
+	public static class ExtractionBuffer
+	{
+		private int[] goalStamp, achievedStamp, actionStamp;
+		private int[] achievedLayer;
+		private int[][] layerGoals;
+		private int[] layerSizes;
+		private int stamp;
+
+		public ExtractionBuffer()
+		{
+			this.goalStamp = new int[0];
+			this.achievedStamp = new int[0];
+			this.achievedLayer = new int[0];
+			this.actionStamp = new int[0];
+			this.layerGoals = new int[0][];
+			this.layerSizes = new int[0];
+			this.stamp = 0;
+		}
+
+		private void prepare(int factCount, int actionCount)
+		{
+			if (this.goalStamp.length < factCount || this.actionStamp.length < actionCount)
+			{
+				this.goalStamp = new int[Math.max(factCount, this.goalStamp.length)];
+				this.achievedStamp = new int[this.goalStamp.length];
+				this.achievedLayer = new int[this.goalStamp.length];
+				this.actionStamp = new int[Math.max(actionCount, this.actionStamp.length)];
+				this.stamp = 0;
+			}
+
+			Arrays.fill(this.layerSizes, 0);
+		}
+
+		private int nextStamp()
+		{
+			if (++this.stamp == Integer.MAX_VALUE)
+			{
+				Arrays.fill(this.goalStamp, 0);
+				Arrays.fill(this.achievedStamp, 0);
+				Arrays.fill(this.actionStamp, 0);
+				this.stamp = 1;
+			}
+
+			return this.stamp;
+		}
+
+		private void addGoal(int layer, int fact)
+		{
+			if (layer >= this.layerGoals.length)
+			{
+				int oldLength = this.layerGoals.length;
+				this.layerGoals = Arrays.copyOf(this.layerGoals, Math.max(layer + 1, oldLength * 2));
+				this.layerSizes = Arrays.copyOf(this.layerSizes, this.layerGoals.length);
+				for (int i = oldLength; i < this.layerGoals.length; i++)
+					this.layerGoals[i] = new int[8];
+			}
+
+			int[] goals = this.layerGoals[layer];
+			if (this.layerSizes[layer] == goals.length)
+			{
+				goals = Arrays.copyOf(goals, goals.length * 2);
+				this.layerGoals[layer] = goals;
+			}
+			goals[this.layerSizes[layer]++] = fact;
+		}
+
+		private int getGoalCount(int layer)
+		{
+			return this.layerSizes[layer];
+		}
+
+		private int getGoal(int layer, int i)
+		{
+			return this.layerGoals[layer][i];
+		}
+	}
+
+	/**
+	 * Simple binary min-heap of (cost, ID) pairs, used instead of a {@link java.util.PriorityQueue} to avoid boxing.
+	 * Stale entries are not removed, and must be skipped by the caller.
+	 */
+	private static class MinHeap
+	{
+		private long[] heap;
+		private int size;
+
+		public MinHeap()
+		{
+			this.heap = new long[64];
+			this.size = 0;
+		}
+
+		public boolean isEmpty()
+		{
+			return this.size == 0;
+		}
+
+		public void push(int key, int id)
+		{
+			if (this.size == this.heap.length)
+				this.heap = Arrays.copyOf(this.heap, this.size * 2);
+
+			long entry = ((long) key << 32) | (id & 0xffffffffL);
+			int i = this.size++;
+			while (i > 0)
+			{
+				int parent = (i - 1) / 2;
+				if (this.heap[parent] <= entry)
+					break;
+
+				this.heap[i] = this.heap[parent];
+				i = parent;
+			}
+			this.heap[i] = entry;
+		}
+
+		public int peekKey()
+		{
+			return (int) (this.heap[0] >>> 32);
+		}
+
+		public int pop()
+		{
+			long top = this.heap[0];
+			long last = this.heap[--this.size];
+			int i = 0;
+			while (true)
+			{
+				int child = 2 * i + 1;
+				if (child >= this.size)
+					break;
+				if (child + 1 < this.size && this.heap[child + 1] < this.heap[child])
+					child++;
+				if (this.heap[child] >= last)
+					break;
+
+				this.heap[i] = this.heap[child];
+				i = child;
+			}
+			this.heap[i] = last;
+
+			return (int) top;
+		}
+	}
+}
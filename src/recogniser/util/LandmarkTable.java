@@ -0,0 +1,243 @@
+package recogniser.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+import javaff.data.Action;
+import javaff.data.Fact;
+import javaff.data.strips.Equals;
+import javaff.data.strips.Not;
+
+/**
+ * The fact landmarks of every fact in a problem, with respect to its initial state. A fact landmark of a goal is 
+ * a fact which must be true at some point in every plan which achieves the goal. 
+ * <p/>
+ * Landmarks are found by propagating labels through the relaxed planning graph, as described by Zhu and Givan. 
+ * Each fact in the initial state is labelled with itself. An action is labelled with the union of the labels 
+ * of its preconditions, and each fact it adds is labelled with the intersection of the labels of its achievers, 
+ * plus the fact itself. This is repeated until no label changes. As delete effects are ignored, the landmarks
+ * found are sound, but not necessarily complete.
+ * <p/>
+ * The table is read-only once constructed, so can be shared by any number of threads.
+ *
+ * @author David Pattison
+ *
+ */
+public class LandmarkTable
+{
+	private HashMap<Fact, Integer> factIds;
+	private Fact[] facts;
+	
+	/**
+	 * Fact ID -> the IDs of the fact's landmarks, including itself, or null if the fact is unreachable.
+	 */
+	private BitSet[] landmarks;
+
+	/**
+	 * Computes the landmarks of every fact which can be reached from the initial state using the specified actions.
+	 * @param actions
+	 * @param initial The facts true in the initial state.
+	 */
+	public LandmarkTable(Set<Action> actions, Collection<? extends Fact> initial)
+	{
+		this.factIds = new HashMap<Fact, Integer>();
+		ArrayList<Fact> factList = new ArrayList<Fact>();
+		
+		Action[] actionArr = actions.toArray(new Action[actions.size()]);
+		int[][] preconditions = new int[actionArr.length][];
+		int[][] adds = new int[actionArr.length][];
+		for (int a = 0; a < actionArr.length; a++)
+		{
+			ArrayList<Integer> pcs = new ArrayList<Integer>();
+			for (Fact pc : actionArr[a].getPreconditions())
+			{
+				if (pc instanceof Not || pc instanceof Equals || pc.isStatic())
+					continue;
+
+				pcs.add(this.intern(pc, factList));
+			}
+			preconditions[a] = this.toArray(pcs);
+			
+			ArrayList<Integer> add = new ArrayList<Integer>();
+			for (Fact f : actionArr[a].getAddPropositions())
+			{
+				add.add(this.intern(f, factList));
+			}
+			adds[a] = this.toArray(add);
+		}
+		
+		for (Fact f : initial)
+		{
+			if (f.isStatic() == false)
+				this.intern(f, factList);
+		}
+		this.facts = factList.toArray(new Fact[factList.size()]);
+		
+		//fact -> actions which have it as a precondition
+		ArrayList<ArrayList<Integer>> consumers = new ArrayList<ArrayList<Integer>>();
+		for (int f = 0; f < this.facts.length; f++)
+			consumers.add(new ArrayList<Integer>());
+		
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		boolean[] queued = new boolean[actionArr.length];
+		for (int a = 0; a < actionArr.length; a++)
+		{
+			for (int p : preconditions[a])
+				consumers.get(p).add(a);
+			
+			if (preconditions[a].length == 0)
+			{
+				queue.add(a);
+				queued[a] = true;
+			}
+		}
+		
+		this.landmarks = new BitSet[this.facts.length];
+		for (Fact f : initial)
+		{
+			Integer id = this.factIds.get(f);
+			if (id == null)
+				continue;
+			
+			BitSet self = new BitSet(this.facts.length);
+			self.set(id);
+			this.landmarks[id] = self;
+			
+			for (int a : consumers.get(id))
+			{
+				if (queued[a] == false)
+				{
+					queue.add(a);
+					queued[a] = true;
+				}
+			}
+		}
+		
+		while (queue.isEmpty() == false)
+		{
+			int a = queue.poll();
+			queued[a] = false;
+			
+			BitSet label = new BitSet(this.facts.length);
+			boolean applicable = true;
+			for (int p : preconditions[a])
+			{
+				if (this.landmarks[p] == null)
+				{
+					applicable = false;
+					break;
+				}
+				
+				label.or(this.landmarks[p]);
+			}
+			if (applicable == false)
+				continue;
+			
+			for (int q : adds[a])
+			{
+				BitSet current = this.landmarks[q];
+				BitSet updated = (BitSet) label.clone();
+				updated.set(q);
+				if (current != null)
+				{
+					updated.and(current);
+					if (updated.equals(current))
+						continue;
+				}
+				
+				this.landmarks[q] = updated;
+				for (int c : consumers.get(q))
+				{
+					if (queued[c] == false)
+					{
+						queue.add(c);
+						queued[c] = true;
+					}
+				}
+			}
+		}
+	}
+	
+	private int intern(Fact f, ArrayList<Fact> factList)
+	{
+		Integer id = this.factIds.get(f);
+		if (id == null)
+		{
+			id = factList.size();
+			this.factIds.put(f, id);
+			factList.add(f);
+		}
+
+		return id;
+	}
+
+	private int[] toArray(ArrayList<Integer> list)
+	{
+		int[] arr = new int[list.size()];
+		for (int i = 0; i < arr.length; i++)
+			arr[i] = list.get(i);
+
+		return arr;
+	}
+	
+	/**
+	 * Gets the ID of the specified fact.
+	 * @param f
+	 * @return The ID, or -1 if the fact is not part of any action or the initial state.
+	 */
+	public int getId(Fact f)
+	{
+		Integer id = this.factIds.get(f);
+		return id == null ? -1 : id;
+	}
+	
+	public Fact getFact(int id)
+	{
+		return this.facts[id];
+	}
+	
+	public int getFactCount()
+	{
+		return this.facts.length;
+	}
+	
+	/**
+	 * Gets the landmarks of the specified fact, including the fact itself.
+	 * @param id The fact ID.
+	 * @return The IDs of the landmarks, or null if the fact is unreachable from the initial state. This must
+	 * not be modified.
+	 */
+	public BitSet getLandmarks(int id)
+	{
+		return this.landmarks[id];
+	}
+	
+	/**
+	 * Gets the facts which are a landmark of at least one other fact.
+	 * @return
+	 */
+	public Set<Fact> getAllLandmarks()
+	{
+		BitSet all = new BitSet(this.facts.length);
+		for (int f = 0; f < this.facts.length; f++)
+		{
+			if (this.landmarks[f] == null)
+				continue;
+			
+			BitSet others = (BitSet) this.landmarks[f].clone();
+			others.clear(f);
+			all.or(others);
+		}
+		
+		HashSet<Fact> result = new HashSet<Fact>();
+		for (int f = all.nextSetBit(0); f >= 0; f = all.nextSetBit(f + 1))
+			result.add(this.facts[f]);
+		
+		return result;
+	}
+}
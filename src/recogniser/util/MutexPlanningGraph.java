@@ -0,0 +1,634 @@
+package recogniser.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javaff.data.Action;
+import javaff.data.Fact;
+import javaff.data.GroundFact;
+import javaff.data.strips.Equals;
+import javaff.data.strips.Not;
+import javaff.planning.STRIPSState;
+
+/**
+ * A Graphplan-style planning graph with mutex layers, which is expanded once per state and can then be searched for
+ * plans to any number of goals concurrently. Unlike JavaFF's {@link javaff.planning.PlanningGraph}, the graph
+ * itself is never modified by a search -- all backward search state, including the memo of failed goal sets, is
+ * held by the search of each goal.
+ * <p/>
+ * The graph is stored as the first layer at which each fact and action appears, plus the set of mutex fact pairs
+ * at each layer, up to the point at which the graph levels off. Layers beyond this are identical to the final
+ * layer, so are never stored. Action mutexes are derived from the fact mutexes of their layer when needed.
+ * <p/>
+ * Static, negative and equality preconditions are ignored, as are negative goals.
+ *
+ * @author David Pattison
+ *
+ */
+public class MutexPlanningGraph
+{
+	/**
+	 * The layer of any fact or action which never appears in the graph.
+	 */
+	public static final int Unreachable = Integer.MAX_VALUE;
+
+	private static final int[] None = new int[0];
+
+	private HashMap<Fact, Integer> factIds;
+	private Fact[] facts;
+	private Action[] actions;
+
+	/**
+	 * Action ID -> sorted fact IDs. No-ops are not stored, but are given the IDs actions.length + fact ID.
+	 */
+	private int[][] preconditions, adds, deletes;
+	/**
+	 * Fact ID -> IDs of the actions which add the fact.
+	 */
+	private int[][] achievers;
+	/**
+	 * Fact ID -> the single-element precondition/add list of the fact's no-op.
+	 */
+	private int[][] noops;
+
+	/**
+	 * The graph for the current state. Replaced, never modified, by {@link #construct(STRIPSState)}.
+	 */
+	private volatile Layers layers;
+
+	/**
+	 * Creates a planning graph over the specified actions. No plans can be found until
+	 * {@link #construct(STRIPSState)} has been called.
+	 * @param actions
+	 */
+	public MutexPlanningGraph(Set<Action> actions)
+	{
+		this.actions = actions.toArray(new Action[actions.size()]);
+		this.factIds = new HashMap<Fact, Integer>();
+
+		this.initialise();
+	}
+
+	/**
+	 * Interns all relevant facts and constructs the static action/fact indexes.
+	 */
+	private void initialise()
+	{
+		ArrayList<Fact> factList = new ArrayList<Fact>();
+		this.preconditions = new int[this.actions.length][];
+		this.adds = new int[this.actions.length][];
+		this.deletes = new int[this.actions.length][];
+
+		for (int a = 0; a < this.actions.length; a++)
+		{
+			ArrayList<Integer> pcs = new ArrayList<Integer>();
+			for (Fact pc : this.actions[a].getPreconditions())
+			{
+				if (pc instanceof Not || pc instanceof Equals || pc.isStatic())
+					continue;
+
+				pcs.add(this.intern(pc, factList));
+			}
+			this.preconditions[a] = this.toSortedArray(pcs);
+
+			ArrayList<Integer> add = new ArrayList<Integer>();
+			for (Fact f : this.actions[a].getAddPropositions())
+			{
+				add.add(this.intern(f, factList));
+			}
+			this.adds[a] = this.toSortedArray(add);
+
+			ArrayList<Integer> del = new ArrayList<Integer>();
+			for (Not f : this.actions[a].getDeletePropositions())
+			{
+				del.add(this.intern(f.getLiteral(), factList));
+			}
+			this.deletes[a] = this.toSortedArray(del);
+		}
+
+		this.facts = factList.toArray(new Fact[factList.size()]);
+
+		int[] achieverCount = new int[this.facts.length];
+		for (int a = 0; a < this.actions.length; a++)
+		{
+			for (int q : this.adds[a])
+				++achieverCount[q];
+		}
+
+		this.achievers = new int[this.facts.length][];
+		this.noops = new int[this.facts.length][];
+		for (int f = 0; f < this.facts.length; f++)
+		{
+			this.achievers[f] = new int[achieverCount[f]];
+			this.noops[f] = new int[]{f};
+		}
+
+		for (int a = 0; a < this.actions.length; a++)
+		{
+			for (int q : this.adds[a])
+				this.achievers[q][--achieverCount[q]] = a;
+		}
+	}
+
+	private int intern(Fact f, ArrayList<Fact> factList)
+	{
+		Integer id = this.factIds.get(f);
+		if (id == null)
+		{
+			id = factList.size();
+			this.factIds.put(f, id);
+			factList.add(f);
+		}
+
+		return id;
+	}
+
+	private int[] toSortedArray(ArrayList<Integer> list)
+	{
+		int[] arr = new int[list.size()];
+		for (int i = 0; i < arr.length; i++)
+			arr[i] = list.get(i);
+
+		Arrays.sort(arr);
+		return arr;
+	}
+
+	/**
+	 * Expands the graph from the specified state until it levels off. Searches which are already running
+	 * continue to use the previous graph.
+	 * @param initial
+	 */
+	public void construct(STRIPSState initial)
+	{
+		Layers l = new Layers(new HashSet<Fact>(initial.getTrueFacts()), this.facts.length, this.actions.length);
+		int[] factLevel = l.factLevel;
+		int[] actionLevel = l.actionLevel;
+
+		ArrayList<Integer> present = new ArrayList<Integer>();
+		for (int f = 0; f < this.facts.length; f++)
+		{
+			if (l.trueFacts.contains(this.facts[f]))
+			{
+				factLevel[f] = 0;
+				present.add(f);
+			}
+		}
+		l.factMutexes.add(new HashSet<Long>());
+
+		int layer = 0;
+		while (true)
+		{
+			HashSet<Long> mutexes = l.factMutexes.get(layer);
+
+			//action layer
+			ArrayList<Integer> applicable = new ArrayList<Integer>();
+			for (int a = 0; a < this.actions.length; a++)
+			{
+				if (actionLevel[a] == Unreachable && this.isApplicable(l, a, layer))
+				{
+					actionLevel[a] = layer;
+					applicable.add(a);
+				}
+			}
+
+			//next fact layer
+			ArrayList<Integer> newFacts = new ArrayList<Integer>();
+			for (int a : applicable)
+			{
+				for (int q : this.adds[a])
+				{
+					if (factLevel[q] == Unreachable)
+					{
+						factLevel[q] = layer + 1;
+						newFacts.add(q);
+					}
+				}
+			}
+
+			//mutexes can only disappear as the graph grows, so only existing mutexes and pairs involving a new
+			//fact need to be checked
+			HashSet<Long> nextMutexes = new HashSet<Long>();
+			for (long key : mutexes)
+			{
+				int p = (int) (key / this.facts.length), q = (int) (key % this.facts.length);
+				if (this.isFactMutex(l, p, q, layer))
+					nextMutexes.add(key);
+			}
+			for (int i = 0; i < newFacts.size(); i++)
+			{
+				int p = newFacts.get(i);
+				for (int q : present)
+				{
+					if (this.isFactMutex(l, p, q, layer))
+						nextMutexes.add(this.getKey(p, q));
+				}
+				for (int j = 0; j < i; j++)
+				{
+					int q = newFacts.get(j);
+					if (this.isFactMutex(l, p, q, layer))
+						nextMutexes.add(this.getKey(p, q));
+				}
+			}
+
+			if (newFacts.isEmpty() && nextMutexes.size() == mutexes.size())
+				break;
+
+			present.addAll(newFacts);
+			l.factMutexes.add(nextMutexes);
+			++layer;
+		}
+
+		l.levelOff = layer;
+		this.layers = l;
+	}
+
+	private long getKey(int p, int q)
+	{
+		return p < q ? (long) p * this.facts.length + q : (long) q * this.facts.length + p;
+	}
+
+	private boolean isApplicable(Layers l, int a, int layer)
+	{
+		int[] pcs = this.preconditions[a];
+		for (int i = 0; i < pcs.length; i++)
+		{
+			if (l.factLevel[pcs[i]] > layer)
+				return false;
+
+			for (int j = 0; j < i; j++)
+			{
+				if (l.isMutex(this, layer, pcs[i], pcs[j]))
+					return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns true if two facts are mutex in the layer after the specified action layer, which is the case if
+	 * every pair of achievers in the action layer is mutex.
+	 */
+	private boolean isFactMutex(Layers l, int p, int q, int actionLayer)
+	{
+		for (int x : this.getAchievers(l, p, actionLayer))
+		{
+			for (int y : this.getAchievers(l, q, actionLayer))
+			{
+				if (x == y || this.isActionMutex(l, x, y, actionLayer) == false)
+					return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Gets the actions and no-op which achieve the fact in the specified action layer, no-op first.
+	 */
+	private List<Integer> getAchievers(Layers l, int f, int actionLayer)
+	{
+		ArrayList<Integer> result = new ArrayList<Integer>();
+		if (l.factLevel[f] <= actionLayer)
+			result.add(this.actions.length + f);
+
+		for (int a : this.achievers[f])
+		{
+			if (l.actionLevel[a] <= actionLayer)
+				result.add(a);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns true if two actions (or no-ops) interfere with one another, or have mutex preconditions in the
+	 * specified layer.
+	 */
+	private boolean isActionMutex(Layers l, int x, int y, int layer)
+	{
+		int[] preX = this.getPreconditions(x), preY = this.getPreconditions(y);
+		int[] addX = this.getAdds(x), addY = this.getAdds(y);
+		int[] delX = this.getDeletes(x), delY = this.getDeletes(y);
+
+		if (intersects(delX, preY) || intersects(delX, addY) || intersects(delY, preX) || intersects(delY, addX))
+			return true;
+
+		for (int p : preX)
+		{
+			for (int q : preY)
+			{
+				if (p != q && l.isMutex(this, layer, p, q))
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	private int[] getPreconditions(int x)
+	{
+		return x < this.actions.length ? this.preconditions[x] : this.noops[x - this.actions.length];
+	}
+
+	private int[] getAdds(int x)
+	{
+		return x < this.actions.length ? this.adds[x] : this.noops[x - this.actions.length];
+	}
+
+	private int[] getDeletes(int x)
+	{
+		return x < this.actions.length ? this.deletes[x] : None;
+	}
+
+	private static boolean intersects(int[] a, int[] b)
+	{
+		int i = 0, j = 0;
+		while (i < a.length && j < b.length)
+		{
+			if (a[i] == b[j])
+				return true;
+			else if (a[i] < b[j])
+				++i;
+			else
+				++j;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Finds a plan to the specified goal by Graphplan's backward search over the current graph. The graph is
+	 * not modified, so any number of threads may search it at once.
+	 * @param gc The goal.
+	 * @return The actions in the plan, in layer order, or null if the goal is unreachable.
+	 */
+	public List<Action> extractPlan(GroundFact gc)
+	{
+		Layers l = this.layers;
+		if (l == null)
+			throw new IllegalStateException("Planning graph has not been constructed");
+
+		BitSet goals = new BitSet(this.facts.length);
+		int layer = 0;
+		for (Fact f : gc.getFacts())
+		{
+			if (f instanceof Not || f instanceof Equals || f.isStatic())
+				continue;
+
+			Integer id = this.factIds.get(f);
+			if (id == null)
+			{
+				if (l.trueFacts.contains(f))
+					continue;
+
+				return null;
+			}
+
+			if (l.factLevel[id] == Unreachable)
+				return null;
+
+			goals.set(id);
+			layer = Math.max(layer, l.factLevel[id]);
+		}
+
+		//the goals must all be present and pairwise non-mutex before a search is worthwhile
+		while (this.hasMutex(l, goals, layer))
+		{
+			if (layer >= l.levelOff)
+				return null;
+
+			++layer;
+		}
+
+		BackwardSearch search = new BackwardSearch(l);
+		int previousNogoods = -1;
+		for (;; ++layer)
+		{
+			if (search.extract(goals, layer))
+				return search.plan;
+
+			//once the graph has levelled off, a search which adds no new failed goal sets in the final layer
+			//will never succeed
+			if (layer >= l.levelOff)
+			{
+				int nogoods = search.getNogoodCount(l.levelOff);
+				if (nogoods == previousNogoods)
+					return null;
+
+				previousNogoods = nogoods;
+			}
+		}
+	}
+
+	/**
+	 * Gets the length of the plan to the specified goal.
+	 * @param gc
+	 * @return The number of actions in the plan found by {@link #extractPlan(GroundFact)}, or -1 if the goal
+	 * is unreachable.
+	 */
+	public int getPlanLength(GroundFact gc)
+	{
+		List<Action> plan = this.extractPlan(gc);
+		if (plan == null)
+			return -1;
+
+		return plan.size();
+	}
+
+	private boolean hasMutex(Layers l, BitSet goals, int layer)
+	{
+		for (int p = goals.nextSetBit(0); p >= 0; p = goals.nextSetBit(p + 1))
+		{
+			for (int q = goals.nextSetBit(p + 1); q >= 0; q = goals.nextSetBit(q + 1))
+			{
+				if (l.isMutex(this, layer, p, q))
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Gets the first layer at which the fact appears in the current graph.
+	 * @param f
+	 * @return The layer, or {@link #Unreachable}.
+	 */
+	public int getLayer(Fact f)
+	{
+		Layers l = this.layers;
+		Integer id = this.factIds.get(f);
+		if (l == null || id == null)
+			return l != null && l.trueFacts.contains(f) ? 0 : Unreachable;
+
+		return l.factLevel[id];
+	}
+
+	/**
+	 * Gets the index of the layer at which the current graph levelled off.
+	 * @return
+	 */
+	public int getLevelOffLayer()
+	{
+		return this.layers == null ? -1 : this.layers.levelOff;
+	}
+
+	public int getActionCount()
+	{
+		return this.actions.length;
+	}
+
+	/**
+	 * The expanded graph for a single state. Immutable once constructed.
+	 */
+	private static class Layers
+	{
+		private HashSet<Fact> trueFacts;
+		private int[] factLevel, actionLevel;
+		private ArrayList<HashSet<Long>> factMutexes;
+		private int levelOff;
+
+		public Layers(HashSet<Fact> trueFacts, int factCount, int actionCount)
+		{
+			this.trueFacts = trueFacts;
+			this.factLevel = new int[factCount];
+			this.actionLevel = new int[actionCount];
+			Arrays.fill(this.factLevel, Unreachable);
+			Arrays.fill(this.actionLevel, Unreachable);
+			this.factMutexes = new ArrayList<HashSet<Long>>();
+			this.levelOff = Integer.MAX_VALUE;
+		}
+
+		public boolean isMutex(MutexPlanningGraph graph, int layer, int p, int q)
+		{
+			int index = Math.min(layer, this.factMutexes.size() - 1);
+			return this.factMutexes.get(index).contains(graph.getKey(p, q));
+		}
+	}
+
+	/**
+	 * The working state of a single backward search -- the failed goal sets (nogoods) of each layer, and the
+	 * plan found.
+	 */
+	private class BackwardSearch
+	{
+		private Layers layers;
+		private HashMap<Integer, HashSet<BitSet>> nogoods;
+		private List<Action> plan;
+
+		public BackwardSearch(Layers layers)
+		{
+			this.layers = layers;
+			this.nogoods = new HashMap<Integer, HashSet<BitSet>>();
+			this.plan = new ArrayList<Action>();
+		}
+
+		/**
+		 * Attempts to achieve all goals at the specified fact layer. On success, the plan holds the actions of
+		 * every layer below it.
+		 */
+		public boolean extract(BitSet goals, int layer)
+		{
+			if (layer == 0)
+				return true;
+
+			HashSet<BitSet> failed = this.nogoods.get(layer);
+			if (failed != null && failed.contains(goals))
+				return false;
+
+			//the goals which appeared latest are the most constrained, so are assigned first
+			ArrayList<Integer> ordered = new ArrayList<Integer>();
+			for (int g = goals.nextSetBit(0); g >= 0; g = goals.nextSetBit(g + 1))
+				ordered.add(g);
+
+			Collections.sort(ordered, new Comparator<Integer>()
+			{
+				@Override
+				public int compare(Integer o1, Integer o2)
+				{
+					return Integer.compare(layers.factLevel[o2], layers.factLevel[o1]);
+				}
+			});
+
+			if (this.assign(ordered, 0, layer, new ArrayList<Integer>()))
+				return true;
+
+			if (failed == null)
+			{
+				failed = new HashSet<BitSet>();
+				this.nogoods.put(layer, failed);
+			}
+			failed.add(goals);
+
+			return false;
+		}
+
+		private boolean assign(List<Integer> goals, int index, int layer, ArrayList<Integer> chosen)
+		{
+			if (index == goals.size())
+			{
+				BitSet subgoals = new BitSet(facts.length);
+				for (int x : chosen)
+				{
+					for (int p : getPreconditions(x))
+						subgoals.set(p);
+				}
+
+				if (this.extract(subgoals, layer - 1) == false)
+					return false;
+
+				for (int x : chosen)
+				{
+					if (x < actions.length)
+						this.plan.add(actions[x]);
+				}
+
+				return true;
+			}
+
+			int g = goals.get(index);
+			for (int x : chosen)
+			{
+				if (Arrays.binarySearch(getAdds(x), g) >= 0)
+					return this.assign(goals, index + 1, layer, chosen);
+			}
+
+			for (int x : getAchievers(this.layers, g, layer - 1))
+			{
+				boolean mutex = false;
+				for (int y : chosen)
+				{
+					if (isActionMutex(this.layers, x, y, layer - 1))
+					{
+						mutex = true;
+						break;
+					}
+				}
+				if (mutex)
+					continue;
+
+				chosen.add(x);
+				if (this.assign(goals, index + 1, layer, chosen))
+					return true;
+
+				chosen.remove(chosen.size() - 1);
+			}
+
+			return false;
+		}
+
+		public int getNogoodCount(int layer)
+		{
+			HashSet<BitSet> failed = this.nogoods.get(layer);
+			return failed == null ? 0 : failed.size();
+		}
+	}
+}
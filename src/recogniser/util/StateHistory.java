@@ -1,14 +1,17 @@
 package recogniser.util;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.TreeSet;
 
 import javaff.data.Action;
 import javaff.data.CompoundLiteral;
 import javaff.data.Fact;
+import javaff.data.strips.Not;
 import javaff.data.strips.Proposition;
 import javaff.data.strips.SingleLiteral;
 import javaff.planning.STRIPSState;
@@ -16,7 +19,9 @@ import javaff.planning.State;
 
 /**
  * Represents the a state space over time. Histories are stored in a TreeSet which is sorted based on 
- * each tuple's getTime() attribute.
+ * each tuple's getTime() attribute. Each state is stored as a bitset over the fact IDs of a {@link FactIndex}, 
+ * so that checking whether a fact was true at a given timestep does not require a hash lookup, and so that
+ * long histories do not require a full copy of every state.
  * 
  * @author David Pattison
  *
@@ -24,15 +29,91 @@ import javaff.planning.State;
 public class StateHistory implements Iterable<StateHistoryTuple>
 {
 	private TreeSet<StateHistoryTuple> history;
-	private STRIPSState unionState;
+	private ArrayList<StateHistoryTuple> orderedHistory; //same contents as history, but allows O(1) indexed access
+	private BitSet unionState;
+	private FactIndex index;
+	private int[] trueSince; //the index of the state from which each fact has been continuously true, or -1
 	
 	/**
-	 * Creates an empty history.
+	 * Creates an empty history with its own fact index.
 	 */
 	public StateHistory()
+	{
+		this(new FactIndex());
+	}
+	
+	/**
+	 * Creates an empty history which uses the specified index to assign IDs to facts.
+	 * @param index
+	 */
+	public StateHistory(FactIndex index)
 	{
 		this.history = new TreeSet<StateHistoryTuple>(new HistoryComparator());
-		this.unionState = new STRIPSState(null, new HashSet(), null);
+		this.orderedHistory = new ArrayList<StateHistoryTuple>();
+		this.unionState = new BitSet();
+		this.index = index;
+		this.trueSince = new int[Math.max(16, index.getFactCount())];
+		Arrays.fill(this.trueSince, -1);
+	}
+	
+	/**
+	 * Converts a state into a bitset of the IDs of its true facts, interning any facts which have not been seen before.
+	 * @param s
+	 * @param index
+	 * @return
+	 */
+	static BitSet toBitSet(STRIPSState s, FactIndex index)
+	{
+		BitSet bits = new BitSet(index.getFactCount());
+		for (Object f : s.getTrueFacts())
+		{
+			bits.set(index.intern((Fact) f));
+		}
+		
+		return bits;
+	}
+	
+	/**
+	 * Gets the IDs of the individual facts which make up the specified fact.
+	 * @param p
+	 * @return The IDs, or null if any of the facts have never been seen in the history, and
+	 * therefore cannot have been true.
+	 */
+	private int[] getFactIds(Fact p)
+	{
+		Collection<? extends Fact> facts = p.getFacts();
+		int[] ids = new int[facts.size()];
+		int i = 0;
+		for (Fact f : facts)
+		{
+			int id = this.index.getId(f);
+			if (id < 0)
+				return null;
+			
+			ids[i++] = id;
+		}
+		
+		return ids;
+	}
+	
+	private boolean allTrue(BitSet state, int[] ids)
+	{
+		for (int id : ids)
+		{
+			if (state.get(id) == false)
+				return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Gets the index used to assign IDs to facts in this history.
+	 * @return
+	 */
+	public FactIndex getIndex()
+	{
+		return index;
 	}
 	
 	@Override
@@ -50,6 +131,15 @@ public class StateHistory implements Iterable<StateHistoryTuple>
 	{
 		return this.states().last();
 	}
+	
+	/**
+	 * Gets the number of states in the history.
+	 * @return
+	 */
+	public int size()
+	{
+		return this.orderedHistory.size();
+	}
 
 	/**
 	 * Determines whether a set of facts has been true at any point during execution.
@@ -58,14 +148,16 @@ public class StateHistory implements Iterable<StateHistoryTuple>
 	 */
 	public boolean haveFactsBeenTrue(Fact p)
 	{
+		int[] ids = this.getFactIds(p);
+		if (ids == null)
+			return false;
+		
 		if (p instanceof Proposition)
-			return this.unionState.getTrueFacts().contains(p); 
+			return this.unionState.get(ids[0]); 
 		
 		for (StateHistoryTuple tup : history)
 		{
-			if (p instanceof SingleLiteral && tup.state.getTrueFacts().contains(p))
-				return true;
-			else if (p instanceof CompoundLiteral && tup.state.getTrueFacts().containsAll(((CompoundLiteral)p).getFacts()))
+			if ((p instanceof SingleLiteral || p instanceof CompoundLiteral) && this.allTrue(tup.state, ids))
 				return true;
 		}
 		
@@ -79,22 +171,21 @@ public class StateHistory implements Iterable<StateHistoryTuple>
 	 */
 	public boolean haveFactsBeenFalse(Fact p)
 	{
-		boolean seenAsTrue = false;
+		if (p instanceof SingleLiteral == false && p instanceof CompoundLiteral == false)
+			return false;
+		
+		int[] ids = this.getFactIds(p);
+		if (ids == null)
+			return false;
 		
+		boolean seenAsTrue = false;
 		for (StateHistoryTuple tup : history)
 		{
-			if (p instanceof SingleLiteral && tup.state.getTrueFacts().contains(p))
-				seenAsTrue = true;
-			else if (p instanceof CompoundLiteral && tup.state.getTrueFacts().containsAll(((CompoundLiteral)p).getFacts()))
+			boolean isTrue = this.allTrue(tup.state, ids);
+			if (isTrue)
 				seenAsTrue = true;
-			
-			if (seenAsTrue)
-			{
-				if (p instanceof SingleLiteral && tup.state.getTrueFacts().contains(p) == false)
-					return true;
-				else if (p instanceof CompoundLiteral && tup.state.getTrueFacts().containsAll(((CompoundLiteral)p).getFacts()) == false)
-					return true;
-			}
+			else if (seenAsTrue)
+				return true;
 		}
 		
 		return false;
@@ -107,13 +198,7 @@ public class StateHistory implements Iterable<StateHistoryTuple>
 	 */
 	public boolean haveFactsChanged(Fact p)
 	{
-		for (StateHistoryTuple tup : history)
-		{
-			if (tup.state.getTrueFacts().containsAll(p.getFacts()) == false)
-				return true;
-		}
-		
-		return false;
+		return this.haveFactsChanged(p, 0);
 	}
 	
 	/**
@@ -124,95 +209,207 @@ public class StateHistory implements Iterable<StateHistoryTuple>
 	 */
 	public boolean haveFactsChanged(Fact p, int sinceStepNumber)
 	{
-		int count = 0;
-		for (StateHistoryTuple tup : history)
+		int[] ids = this.getFactIds(p);
+		
+		for (int i = Math.max(0, sinceStepNumber); i < this.orderedHistory.size(); i++)
 		{
-			if (count >= sinceStepNumber)
-			{
-				if (tup.state.getTrueFacts().containsAll(p.getFacts()) == false)
-					return true;
-			}
-
-			count++;
+			if (ids == null || this.allTrue(this.orderedHistory.get(i).state, ids) == false)
+				return true;
 		}
 		
 		return false;
 	}
 
-	public void add(STRIPSState s, Action a, long time, Collection<Fact> factsNearer, Collection<Fact> factsFurther, Collection<Fact> factsUnmoved)
+	/**
+	 * Adds a tuple to the history, keeping the indexed list in the same order as the TreeSet.
+	 * @param tup
+	 */
+	private void add(StateHistoryTuple tup)
 	{
-		this.history.add(new StateHistoryTuple(s, time, a, factsNearer, factsFurther, factsUnmoved));
+		if (this.history.add(tup) == false)
+			return; //a tuple already exists at this time
 		
-		if (s instanceof STRIPSState)
-			this.unionState.getTrueFacts().addAll(s.getTrueFacts());
+		if (this.orderedHistory.isEmpty() || this.orderedHistory.get(this.orderedHistory.size() - 1).getTime() < tup.getTime())
+		{
+			BitSet prev = this.orderedHistory.isEmpty() ? new BitSet() : this.orderedHistory.get(this.orderedHistory.size() - 1).state;
+			this.orderedHistory.add(tup);
+			this.updateTrueSince(prev, tup.state, this.orderedHistory.size() - 1);
+		}
+		else
+		{
+			//inserted out of order -- rare, so just rebuild the list
+			this.orderedHistory.clear();
+			this.orderedHistory.addAll(this.history);
+			this.rebuildTrueSince();
+		}
+		
+		this.unionState.or(tup.state);
+	}
+	
+	/**
+	 * Updates the true-since index using the facts which were added and deleted between the previous 
+	 * state and the new one.
+	 * @param prev The previous state.
+	 * @param next The new state.
+	 * @param nextIndex The position of the new state in the history.
+	 */
+	private void updateTrueSince(BitSet prev, BitSet next, int nextIndex)
+	{
+		int maxId = Math.max(prev.length(), next.length());
+		if (maxId > this.trueSince.length)
+		{
+			int oldLength = this.trueSince.length;
+			this.trueSince = Arrays.copyOf(this.trueSince, Math.max(maxId, oldLength * 2));
+			Arrays.fill(this.trueSince, oldLength, this.trueSince.length, -1);
+		}
+		
+		BitSet added = (BitSet) next.clone();
+		added.andNot(prev);
+		for (int i = added.nextSetBit(0); i >= 0; i = added.nextSetBit(i + 1))
+		{
+			this.trueSince[i] = nextIndex;
+		}
+		
+		BitSet deleted = (BitSet) prev.clone();
+		deleted.andNot(next);
+		for (int i = deleted.nextSetBit(0); i >= 0; i = deleted.nextSetBit(i + 1))
+		{
+			this.trueSince[i] = -1;
+		}
+	}
+	
+	/**
+	 * Reconstructs the true-since index from scratch. Only required if the history is altered anywhere
+	 * other than at its end.
+	 */
+	private void rebuildTrueSince()
+	{
+		Arrays.fill(this.trueSince, -1);
+		BitSet prev = new BitSet();
+		for (int i = 0; i < this.orderedHistory.size(); i++)
+		{
+			BitSet next = this.orderedHistory.get(i).state;
+			this.updateTrueSince(prev, next, i);
+			prev = next;
+		}
+	}
+	
+	/**
+	 * Gets the index of the state from which the specified fact has been continuously true, up to and 
+	 * including the last state in the history. A conjunction has been true since the latest state from which 
+	 * all of its literals have been true.
+	 * @param f
+	 * @return The index of the first state in the current run of the fact being true, or -1 if the fact 
+	 * is not true in the last state.
+	 */
+	public int getTrueSince(Fact f)
+	{
+		int since = 0;
+		for (Fact l : f.getFacts())
+		{
+			int literalSince = this.getLiteralTrueSince(l);
+			if (literalSince < 0)
+				return -1;
+			
+			since = Math.max(since, literalSince);
+		}
+		
+		return since;
+	}
+	
+	/**
+	 * Gets the index of the state from which a single literal has been continuously true. Propositions are
+	 * looked up in the true-since index, and negated propositions are checked against the bits of each state, 
+	 * starting from the last. Only other literals need each state to be reconstructed.
+	 * @param l
+	 * @return
+	 */
+	private int getLiteralTrueSince(Fact l)
+	{
+		if (l instanceof Proposition)
+		{
+			int id = this.index.getId(l);
+			if (id < 0 || id >= this.trueSince.length)
+				return -1;
+			
+			return this.trueSince[id];
+		}
+		
+		int i = this.orderedHistory.size() - 1;
+		if (l instanceof Not && ((Not) l).getLiteral() instanceof Proposition)
+		{
+			//a proposition which has never been indexed has never been true
+			int id = this.index.getId(((Not) l).getLiteral());
+			while (i >= 0 && this.orderedHistory.get(i).isTrue(id) == false)
+				--i;
+			
+			return i == this.orderedHistory.size() - 1 ? -1 : i + 1;
+		}
+		
+		while (i >= 0 && this.orderedHistory.get(i).getState().isTrue(l))
+			--i;
+		
+		return i == this.orderedHistory.size() - 1 ? -1 : i + 1;
+	}
+	
+	/**
+	 * Gets the number of consecutive states, ending with the last state in the history, in which the 
+	 * specified fact has been true. This is an O(1) operation for each proposition in the fact.
+	 * @param f
+	 * @return The number of consecutive states, or 0 if the fact is not true in the last state.
+	 */
+	public int getConsecutiveTrueCount(Fact f)
+	{
+		int since = this.getTrueSince(f);
+		if (since < 0)
+			return 0;
+		
+		return this.orderedHistory.size() - since;
+	}
+	
+	public void add(STRIPSState s, Action a, long time, Collection<Fact> factsNearer, Collection<Fact> factsFurther, Collection<Fact> factsUnmoved)
+	{
+		this.add(new StateHistoryTuple(toBitSet(s, this.index), this.index, time, a, factsNearer, factsFurther, factsUnmoved));
 	}
 	
 	public void add(STRIPSState s, long time, Collection<Fact> factsNearer, Collection<Fact> factsFurther, Collection<Fact> factsUnmoved)
 	{
-		this.history.add(new StateHistoryTuple(s, time, factsNearer, factsFurther, factsUnmoved));
-
-		if (s instanceof STRIPSState)
-			this.unionState.getTrueFacts().addAll(s.getTrueFacts());
+		this.add(new StateHistoryTuple(toBitSet(s, this.index), this.index, time, factsNearer, factsFurther, factsUnmoved));
 	}
 	
 	public void add(STRIPSState s, Action a, Collection<Fact> factsNearer, Collection<Fact> factsFurther, Collection<Fact> factsUnmoved)
 	{
-		this.history.add(new StateHistoryTuple(s, a, factsNearer, factsFurther, factsUnmoved));
-
-		if (s instanceof STRIPSState)
-			this.unionState.getTrueFacts().addAll(s.getTrueFacts());
+		this.add(new StateHistoryTuple(toBitSet(s, this.index), this.index, a, factsNearer, factsFurther, factsUnmoved));
 	}	
 	
 	public StateHistoryTuple get(final int index)
 	{
-		Iterator<StateHistoryTuple> iter = this.history.iterator();
-		int count = 0;
-		StateHistoryTuple toRemove = null;
-		while (iter.hasNext())
-		{
-			StateHistoryTuple t = iter.next();
-			if (count == index)
-			{
-				toRemove = t;
-				break;
-			}
-			count++;
-		}	
+		if (index < 0 || index >= this.orderedHistory.size())
+			return null;
 		
-		return toRemove;
+		return this.orderedHistory.get(index);
 	}
 	
 	public boolean remove(int index)
 	{
-		Iterator<StateHistoryTuple> iter = this.history.iterator();
-		int count = 0;
-		StateHistoryTuple toRemove = null;
-		while (iter.hasNext())
-		{
-			StateHistoryTuple t = iter.next();
-			if (count == index)
-			{
-				toRemove = t;
-				break;
-			}
-			count++;
-		}	
+		StateHistoryTuple toRemove = this.get(index);
 		
 		if (toRemove == null)
 			return false;
 		else
-			return this.history.remove(toRemove);
+			return this.remove(toRemove);
 	}
 	
 	public boolean remove(State s)
 	{
-		Iterator<StateHistoryTuple> iter = this.history.iterator();
-		int count = 0;
+		if (s instanceof STRIPSState == false)
+			return false;
+		
+		BitSet bits = toBitSet((STRIPSState) s, this.index);
 		StateHistoryTuple toRemove = null;
-		while (iter.hasNext())
+		for (StateHistoryTuple t : this.history)
 		{
-			StateHistoryTuple t = iter.next();
-			if (t.state.equals(s))
+			if (t.state.equals(bits))
 			{
 				toRemove = t;
 				break;
@@ -222,12 +419,22 @@ public class StateHistory implements Iterable<StateHistoryTuple>
 		if (toRemove == null)
 			return false;
 		else
-			return this.history.remove(toRemove);
+			return this.remove(toRemove);
 	}	
 	
+	/**
+	 * Removes the specified tuple. Note that the union of all states seen is not altered.
+	 * @param t
+	 * @return
+	 */
 	public boolean remove(StateHistoryTuple t)
 	{
-		return this.history.remove(t);
+		if (this.history.remove(t) == false)
+			return false;
+		
+		this.orderedHistory.remove(t);
+		this.rebuildTrueSince();
+		return true;
 	}
 	
 	
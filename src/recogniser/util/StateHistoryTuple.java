@@ -1,5 +1,6 @@
 package recogniser.util;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashSet;
 
@@ -9,6 +10,8 @@ import javaff.planning.STRIPSState;
 
 /**
  * Represents the time a state and the action which was applied in order to achieve the state.
+ * The state itself is stored as a bitset over the IDs assigned by a {@link FactIndex}, rather than as a 
+ * full {@link STRIPSState}. A STRIPSState is only reconstructed if {@link #getState()} is called.
  *  
  * @author David Pattison
  *
@@ -16,7 +19,8 @@ import javaff.planning.STRIPSState;
 public class StateHistoryTuple
 {
 	private long time;
-	STRIPSState state;
+	BitSet state;
+	private FactIndex index;
 	private Action prevAction;
 	private Collection<Fact> nearer, further, unmoved; //farther, further, who knows? this is a grammatical minefield! SAVE YOURSELF!!!!!!!!!!!
 	
@@ -24,10 +28,11 @@ public class StateHistoryTuple
 	 * Constructs a state history with no previous action and a time of System.currentTimeMillis().
 	 * @param s The successor state.
 	 */
-	public StateHistoryTuple(STRIPSState s, Collection<Fact> factsNearer, Collection<Fact> factsFurther, Collection<Fact> factsUnmoved)
+	public StateHistoryTuple(BitSet s, FactIndex index, Collection<Fact> factsNearer, Collection<Fact> factsFurther, Collection<Fact> factsUnmoved)
 	{
 		this.time = System.currentTimeMillis();
 		this.state = s;
+		this.index = index;
 		this.prevAction = null;
 		
 		this.nearer = factsNearer; //new HashSet<GroundCondition>();
@@ -40,10 +45,11 @@ public class StateHistoryTuple
 	 * @param s The state.
 	 * @param time The time the state was true.
 	 */
-	public StateHistoryTuple(STRIPSState s, long time, Collection<Fact> factsNearer, Collection<Fact> factsFurther, Collection<Fact> factsUnmoved)
+	public StateHistoryTuple(BitSet s, FactIndex index, long time, Collection<Fact> factsNearer, Collection<Fact> factsFurther, Collection<Fact> factsUnmoved)
 	{
 		this.time = time;
 		this.state = s;
+		this.index = index;
 		this.prevAction = null;
 		
 		this.nearer = factsNearer; //new HashSet<GroundCondition>();
@@ -56,10 +62,11 @@ public class StateHistoryTuple
 	 * @param s The state.
 	 * @param previousAction The action which was applied to achieve the state.
 	 */	
-	public StateHistoryTuple(STRIPSState s, Action previousAction, Collection<Fact> factsNearer, Collection<Fact> factsFurther, Collection<Fact> factsUnmoved)
+	public StateHistoryTuple(BitSet s, FactIndex index, Action previousAction, Collection<Fact> factsNearer, Collection<Fact> factsFurther, Collection<Fact> factsUnmoved)
 	{
 		this.time = System.currentTimeMillis();
 		this.state = s;
+		this.index = index;
 		this.prevAction = previousAction;
 		
 		this.nearer = factsNearer; //new HashSet<GroundCondition>();
@@ -74,10 +81,11 @@ public class StateHistoryTuple
 	 * @param time The time the state was true.
 	 * @param previousAction The action which was applied to achieve the state.
 	 */
-	public StateHistoryTuple(STRIPSState s, long time, Action previousAction, Collection<Fact> factsNearer, Collection<Fact> factsFurther, Collection<Fact> factsUnmoved)
+	public StateHistoryTuple(BitSet s, FactIndex index, long time, Action previousAction, Collection<Fact> factsNearer, Collection<Fact> factsFurther, Collection<Fact> factsUnmoved)
 	{
 		this.time = time;
 		this.state = s;
+		this.index = index;
 		this.prevAction = previousAction;
 		
 		this.nearer = factsNearer; //new HashSet<GroundCondition>();
@@ -96,14 +104,54 @@ public class StateHistoryTuple
 		this.time = time;
 	}
 
+	/**
+	 * Reconstructs the state from the stored bitset. Only the true facts of the state are available -- it is
+	 * preferable to use {@link #isTrue(Fact)} where possible.
+	 * @return
+	 */
 	public STRIPSState getState()
 	{
-		return state;
+		HashSet<Fact> facts = new HashSet<Fact>();
+		for (int i = this.state.nextSetBit(0); i >= 0; i = this.state.nextSetBit(i + 1))
+		{
+			facts.add(this.index.getFact(i));
+		}
+		
+		return new STRIPSState(null, facts, null);
 	}
 
 	public void setState(STRIPSState state)
 	{
-		this.state = state;
+		this.state = StateHistory.toBitSet(state, this.index);
+	}
+	
+	/**
+	 * Gets the bitset of fact IDs which were true in this state.
+	 * @return
+	 */
+	public BitSet getStateBits()
+	{
+		return state;
+	}
+	
+	/**
+	 * Determines whether the specified fact was true in this state.
+	 * @param f
+	 * @return
+	 */
+	public boolean isTrue(Fact f)
+	{
+		return this.isTrue(this.index.getId(f));
+	}
+	
+	/**
+	 * Determines whether the fact with the specified ID was true in this state.
+	 * @param factId
+	 * @return
+	 */
+	public boolean isTrue(int factId)
+	{
+		return factId >= 0 && this.state.get(factId);
 	}
 
 	public Action getPreviousAction()
@@ -119,7 +167,7 @@ public class StateHistoryTuple
 	@Override
 	public String toString()
 	{
-		return this.time+": "+this.prevAction+" "+this.state+"\n";
+		return this.time+": "+this.prevAction+" "+this.getState()+"\n";
 	}
 
 	public Collection<Fact> getNearer()
@@ -49,6 +49,7 @@ import javaff.data.TotalOrderPlan;
 import javaff.graph.FactMutex;
 
 import recogniser.BayesianGoalRecogniser;
+import recogniser.hypothesis.GoalSpaceSnapshot;
 import recogniser.hypothesis.IGoalSpace;
 import recogniser.hypothesis.MutexGoalSpace;
 import recogniser.hypothesis.VariableGoalSpace;
@@ -258,11 +259,20 @@ public class VisualGoalSpace extends JFrame implements WindowStateListener,
 
 			// System.out.println("painting");
 
+			//read from a snapshot so that every label is drawn from the same observation, even if the recogniser is 
+			//still updating
+			GoalSpaceSnapshot snapshot = recogniser.getGoalSpaceSnapshot();
+			if (snapshot == null)
+				return; //goal-space not initialised yet, so there is nothing to draw
+			
 			for (GoalLabel e : goalLabels)
 			{
 				Fact singleGoal = e.goal;
 				GoalLabel label = e;
-				double prob = label.goalSpace.getProbability(singleGoal); //access the specific goals' probability rather than going through the overall goal space as this will return Average/Min/Max results
+				if (snapshot.hasProbability(label.goalSpace, singleGoal) == false)
+					continue;
+				
+				double prob = snapshot.getProbability(label.goalSpace, singleGoal); //access the specific goals' probability rather than going through the overall goal space as this will return Average/Min/Max results
 				if (goal.contains(singleGoal))
 					g.setColor(this.goalColour);
 				else
@@ -299,7 +309,7 @@ public class VisualGoalSpace extends JFrame implements WindowStateListener,
 //						System.out.println("Equal: "+singleGoal);
 					}
 
-					if (t.getState().getFacts().contains(singleGoal))
+					if (t.isTrue(singleGoal))
 					{
 						label.setText("!" + label.getText());
 					}
@@ -397,18 +407,22 @@ public class VisualGoalSpace extends JFrame implements WindowStateListener,
 
 		double totalProb = 0; // goalSpace.getProbability(mut.getOwner());
 
+		GoalSpaceSnapshot snapshot = this.recogniser.getGoalSpaceSnapshot();
+		if (snapshot == null)
+			return;
+		
 		for (GoalLabel gl : goalLabels)
 		{
-			if (mgs.equals(gl.goalSpace) == false)
+			if (mgs.equals(gl.goalSpace) == false || snapshot.hasProbability(mgs, gl.goal) == false)
 				continue;
 				
-			totalProb += mgs.getProbability(gl.goal);
+			totalProb += snapshot.getProbability(mgs, gl.goal);
 			gl.setForeground(this.graphPanel.mutexColour);
 			
 		}
 
 		source.setForeground(Color.green);
-		source.setToolTipText(mgs.getProbability(source.goal) + " -- Total = "
+		source.setToolTipText(snapshot.getProbability(mgs, source.goal) + " -- Total = "
 				+ totalProb);
 	}
 